@@ -0,0 +1,120 @@
+package benchmark;
+
+import compiler.error.ErrorHandler;
+import compiler.interpreter.Interpreter;
+import compiler.lexical.Scanner;
+import compiler.symbol_table.SymbolTable;
+import compiler.syntax.Parser;
+import compiler.syntax.SyntaxAnalyzer;
+import compiler.syntax.TableDrivenParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+/**
+ * 各benchmark共用的工具方法
+ */
+class Benchmarks {
+
+    /**
+     * 丢弃所有输出
+     */
+    static final PrintStream NullPrinter = new PrintStream(OutputStream.nullOutputStream());
+
+    private Benchmarks() {
+    }
+
+    /**
+     * 编译一段源程序，编译过程中的调试输出被丢弃
+     *
+     * @param source 源程序
+     * @return 生成的代码
+     * @throws IllegalArgumentException 源程序有错
+     */
+    static Interpreter compile(String source) throws IOException {
+        return compile(source, false);
+    }
+
+    /**
+     * 编译一段源程序，编译过程中的调试输出被丢弃
+     *
+     * @param source      源程序
+     * @param tableDriven 是否使用表驱动的LL(1)语法分析器
+     * @return 生成的代码
+     * @throws IllegalArgumentException 源程序有错
+     */
+    static Interpreter compile(String source, boolean tableDriven) throws IOException {
+        PrintStream out = System.out;
+        System.setOut(NullPrinter);
+        try {
+            ErrorHandler errorHandler = new ErrorHandler(NullPrinter);
+            Interpreter interpreter = new Interpreter();
+            Scanner scanner = new Scanner(new BufferedReader(new StringReader(source)), errorHandler);
+            SyntaxAnalyzer parser = tableDriven ?
+                    new TableDrivenParser(scanner, new SymbolTable(), interpreter, errorHandler) :
+                    new Parser(scanner, new SymbolTable(), interpreter, errorHandler);
+            parser.parse();
+            if (parser.getErrorCount() != 0)
+                throw new IllegalArgumentException("benchmark program has " + parser.getErrorCount() + " errors");
+            return interpreter;
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * 生成一个大的合法程序：procedures个过程，每个过程有几个局部变量和一段循环
+     *
+     * @param procedures 过程个数
+     * @return 源程序
+     */
+    static String largeProgram(int procedures) {
+        StringBuilder source = new StringBuilder("const limit = 100, step = 3;\nvar total, counter;\n");
+        for (int i = 0; i < procedures; i++) {
+            source.append("procedure work").append(i).append(";\n")
+                    .append("    var alpha, beta, gamma;\n")
+                    .append("    begin\n")
+                    .append("        alpha := ").append(i).append("; beta := 0; gamma := alpha * step;\n")
+                    .append("        while beta < limit do\n")
+                    .append("        begin\n")
+                    .append("            if odd beta then gamma := gamma + (alpha - beta) / 2 else gamma := gamma - 1;\n")
+                    .append("            beta := beta + step\n")
+                    .append("        end;\n")
+                    .append("        total := total + gamma\n")
+                    .append("    end;\n");
+        }
+        source.append("begin\n    total := 0;\n");
+        for (int i = 0; i < procedures; i++)
+            source.append("    call work").append(i).append(";\n");
+        source.append("    write(total)\nend.\n");
+        return source.toString();
+    }
+
+    /**
+     * 一次测量
+     */
+    interface Task {
+        void run() throws IOException;
+    }
+
+    /**
+     * 先预热，再取多次运行中最快的一次
+     *
+     * @return 最短用时，单位毫秒
+     */
+    static double measure(Task task, int warmups, int runs) throws IOException {
+        for (int i = 0; i < warmups; i++)
+            task.run();
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+}
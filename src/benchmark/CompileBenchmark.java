@@ -0,0 +1,52 @@
+package benchmark;
+
+import java.io.IOException;
+
+/**
+ * 测量编译（词法、语法分析和代码生成）大程序所需的时间
+ * <p/>
+ * variables: 主程序中声明大量变量，并在赋值语句中反复引用，主要考察符号表查找
+ * procedures: Benchmarks.largeProgram生成的大量小过程
+ * <p/>
+ * 用法: java benchmark.CompileBenchmark [变量个数] [过程个数]
+ */
+public class CompileBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int variables = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int procedures = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        report("variables", manyVariables(variables, variables * 4));
+        report("procedures", Benchmarks.largeProgram(procedures));
+    }
+
+    private static void report(String name, final String source) throws IOException {
+        double time = Benchmarks.measure(new Benchmarks.Task() {
+            @Override
+            public void run() throws IOException {
+                Benchmarks.compile(source);
+            }
+        }, 2, 3);
+        System.out.printf("%-12s%10.2f MB%12.2f ms\n", name, source.length() / 1e6, time);
+    }
+
+    /**
+     * @param variables  变量个数
+     * @param statements 赋值语句条数，每条引用三个变量
+     */
+    private static String manyVariables(int variables, int statements) {
+        StringBuilder source = new StringBuilder("var v0");
+        for (int i = 1; i < variables; i++)
+            source.append(", v").append(i);
+        source.append(";\nbegin\n    v0 := 1");
+        for (int i = 1; i < statements; i++) {
+            int target = i % variables;
+            source.append(";\n    v").append(target)
+                    .append(" := v").append((i * 7) % variables)
+                    .append(" + v").append((i * 13) % variables)
+                    .append(" * 2");
+        }
+        source.append("\nend.\n");
+        return source.toString();
+    }
+}
@@ -0,0 +1,61 @@
+package benchmark;
+
+import compiler.interpreter.Interpreter;
+import compiler.symbol_table.SymbolTable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * 比较display与沿静态链查找两种方式访问非局部变量的开销
+ * <p/>
+ * 对嵌套深度0到SymbolTable.MAX_LEVEL，分别生成一个在最内层过程中循环读写主程序变量的程序，
+ * 循环体中的LOD/STO的层次差都等于嵌套深度。display一侧关闭超级指令和LOD/STO特化，只比较两种查找方式
+ * <p/>
+ * 用法: java benchmark.DisplayBenchmark [循环次数]
+ */
+public class DisplayBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+
+        System.out.printf("%6s%16s%16s%10s\n", "depth", "static link ms", "display ms", "speedup");
+        for (int depth = 0; depth <= SymbolTable.MAX_LEVEL; depth++) {
+            final Interpreter interpreter = Benchmarks.compile(program(depth, iterations));
+            interpreter.setInstructionFusion(false);
+            interpreter.setQuickening(false);
+
+            double staticLink = Benchmarks.measure(new Benchmarks.Task() {
+                @Override
+                public void run() throws IOException {
+                    interpreter.runWithStaticLinks(new ByteArrayInputStream(new byte[0]), Benchmarks.NullPrinter, 1000);
+                }
+            }, 3, 5);
+            double display = Benchmarks.measure(new Benchmarks.Task() {
+                @Override
+                public void run() throws IOException {
+                    interpreter.run(new ByteArrayInputStream(new byte[0]), Benchmarks.NullPrinter);
+                }
+            }, 3, 5);
+
+            System.out.printf("%6d%16.2f%16.2f%10.2f\n", depth, staticLink, display, staticLink / display);
+        }
+    }
+
+    /**
+     * 生成嵌套depth层过程的程序，最内层过程对主程序的变量做iterations次循环
+     */
+    private static String program(int depth, int iterations) {
+        StringBuilder source = new StringBuilder("var i, s, t;\n");
+        for (int level = 1; level <= depth; level++)
+            source.append("procedure p").append(level).append(";\n");
+
+        String loop = "begin i := 0; s := 0; while i < " + iterations +
+                " do begin t := s + i; s := t - i + 1; i := i + 1 end; write(s) end";
+        for (int level = depth; level >= 1; level--) {
+            source.append(level == depth ? loop : "call p" + (level + 1)).append(";\n");
+        }
+        source.append(depth == 0 ? loop : "call p1").append(".\n");
+        return source.toString();
+    }
+}
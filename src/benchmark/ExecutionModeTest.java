@@ -0,0 +1,122 @@
+package benchmark;
+
+import compiler.closure.ClosureCompiler;
+import compiler.interpreter.Interpreter;
+import compiler.interpreter.ObjectFile;
+import compiler.jit.JitCompiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 检查各执行方式对同一程序的输出是否一致，不一致时抛出IllegalStateException
+ * <p/>
+ * 测试程序中的变量先读后写，各执行方式都应把活动记录中的变量初始化为0，
+ * 而不是读到上一次调用或表达式求值留在运行栈中的值
+ * <p/>
+ * 用法: java benchmark.ExecutionModeTest
+ */
+public class ExecutionModeTest {
+
+    private static final String[] Programs = {
+            "procedure p;\n" +
+                    "  var x;\n" +
+                    "  begin write(x); x := 5 end;\n" +
+                    "begin call p; call p end.\n",
+            "var y;\n" +
+                    "procedure q;\n" +
+                    "  var a, b;\n" +
+                    "  begin write(a + b); a := 1; b := 2 end;\n" +
+                    "begin call q; y := 1 + (2 + (3 + (4 + 5))); call q end.\n",
+            "var n;\n" +
+                    "procedure outer;\n" +
+                    "  var shared, local;\n" +
+                    "  procedure inner;\n" +
+                    "    begin write(shared); shared := 7 end;\n" +
+                    "  begin write(local); call inner; local := 3; shared := 4; n := n - 1; if n > 0 then call outer end;\n" +
+                    "begin n := 2; call outer; call outer end.\n"
+    };
+
+    private static final String[] Expected = {
+            "0\n0\n",
+            "0\n0\n",
+            "0\n0\n0\n0\n0\n0\n"
+    };
+
+    public static void main(String[] args) throws IOException {
+        for (int i = 0; i < Programs.length; i++) {
+            final Interpreter interpreter = Benchmarks.compile(Programs[i]);
+
+            check(i, "interpreter", Expected[i], new Runner() {
+                @Override
+                public void run(InputStream input, PrintStream output) throws IOException {
+                    interpreter.run(input, output);
+                }
+            });
+            check(i, "top of stack cache", Expected[i], new Runner() {
+                @Override
+                public void run(InputStream input, PrintStream output) throws IOException {
+                    interpreter.runWithTopOfStackCache(input, output);
+                }
+            });
+            check(i, "static links", Expected[i], new Runner() {
+                @Override
+                public void run(InputStream input, PrintStream output) throws IOException {
+                    interpreter.runWithStaticLinks(input, output, 1000);
+                }
+            });
+            check(i, "closure", Expected[i], new Runner() {
+                @Override
+                public void run(InputStream input, PrintStream output) throws IOException {
+                    new ClosureCompiler(interpreter).compile().run(input, output);
+                }
+            });
+            check(i, "jit", Expected[i], new Runner() {
+                @Override
+                public void run(InputStream input, PrintStream output) throws IOException {
+                    new JitCompiler(interpreter).compile().run(input, output);
+                }
+            });
+
+            final Path objectFile = Files.createTempFile("test", ".p0c");
+            try {
+                ObjectFile object = new ObjectFile();
+                int mainEntry = interpreter.getArgumentAtIndex(0);//主程序开头的JMP跳到INT
+                object.addProcedure("", 0, mainEntry, interpreter.getArgumentAtIndex(mainEntry));
+                object.write(objectFile, interpreter);
+                check(i, "mapped", Expected[i], new Runner() {
+                    @Override
+                    public void run(InputStream input, PrintStream output) throws IOException {
+                        ObjectFile.map(objectFile).run(input, output);
+                    }
+                });
+            } finally {
+                Files.delete(objectFile);
+            }
+        }
+        System.out.println("all execution modes agree on " + Programs.length + " programs");
+    }
+
+    /**
+     * 一种执行方式
+     */
+    private interface Runner {
+        void run(InputStream input, PrintStream output) throws IOException;
+    }
+
+    private static void check(int program, String mode, String expected, Runner runner) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream output = new PrintStream(buffer, true, "UTF-8");
+        runner.run(new ByteArrayInputStream(new byte[0]), output);
+        String actual = new String(buffer.toByteArray(), StandardCharsets.UTF_8).replace(System.lineSeparator(), "\n");
+        if (!actual.equals(expected))
+            throw new IllegalStateException("program " + program + " " + mode + ": expected " +
+                    expected.replace('\n', ' ') + "but got " + actual.replace('\n', ' '));
+    }
+}
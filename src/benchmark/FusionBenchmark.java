@@ -0,0 +1,53 @@
+package benchmark;
+
+import compiler.interpreter.Interpreter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * 比较合并超级指令前后解释执行的耗时
+ * <p/>
+ * 用法: java benchmark.FusionBenchmark [循环次数]
+ */
+public class FusionBenchmark {
+
+    /**
+     * 典型的热循环：计数循环、累加、条件判断和变量复制
+     */
+    private static final String[] Programs = {
+            "var i, s;\n" +
+                    "begin i := 0; s := 0; while i < %d do begin s := s + i; i := i + 1 end; write(s) end.\n",
+            "var i, a, b, t;\n" +
+                    "begin i := 0; a := 0; b := 1;\n" +
+                    "  while i < %d do begin t := a + b; a := b; b := t - a * 2; if b < 0 then b := 0 - b; i := i + 2 end;\n" +
+                    "  write(a) end.\n",
+            "var n, c;\n" +
+                    "procedure count;\n" +
+                    "  var k;\n" +
+                    "  begin k := n; repeat k := k - 1; if odd k then c := c + 1 until k <= 0 end;\n" +
+                    "begin n := %d; c := 0; call count; write(c) end.\n"
+    };
+
+    public static void main(String[] args) throws IOException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+
+        System.out.printf("%8s%16s%16s%10s\n", "program", "plain ms", "fused ms", "speedup");
+        for (int i = 0; i < Programs.length; i++) {
+            final Interpreter interpreter = Benchmarks.compile(String.format(Programs[i], iterations));
+            Benchmarks.Task task = new Benchmarks.Task() {
+                @Override
+                public void run() throws IOException {
+                    interpreter.run(new ByteArrayInputStream(new byte[0]), Benchmarks.NullPrinter);
+                }
+            };
+
+            interpreter.setInstructionFusion(false);
+            double plain = Benchmarks.measure(task, 3, 5);
+            interpreter.setInstructionFusion(true);
+            double fused = Benchmarks.measure(task, 3, 5);
+
+            System.out.printf("%8d%16.2f%16.2f%10.2f\n", i, plain, fused, plain / fused);
+        }
+    }
+}
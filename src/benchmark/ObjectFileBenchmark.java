@@ -0,0 +1,64 @@
+package benchmark;
+
+import compiler.interpreter.Interpreter;
+import compiler.interpreter.ObjectFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 比较从源程序编译与映射目标文件的启动时间，以及Interpreter与MappedProgram的执行时间
+ * <p/>
+ * 用法: java benchmark.ObjectFileBenchmark [过程个数]
+ */
+public class ObjectFileBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int procedures = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        final String source = Benchmarks.largeProgram(procedures);
+        final Interpreter interpreter = Benchmarks.compile(source);
+
+        final Path objectFile = Files.createTempFile("benchmark", ".p0c");
+        try {
+            ObjectFile object = new ObjectFile();
+            int mainEntry = interpreter.getArgumentAtIndex(0);//主程序开头的JMP跳到INT
+            object.addProcedure("", 0, mainEntry, interpreter.getArgumentAtIndex(mainEntry));
+            object.write(objectFile, interpreter);
+
+            double compile = Benchmarks.measure(new Benchmarks.Task() {
+                @Override
+                public void run() throws IOException {
+                    Benchmarks.compile(source);
+                }
+            }, 3, 5);
+            double map = Benchmarks.measure(new Benchmarks.Task() {
+                @Override
+                public void run() throws IOException {
+                    ObjectFile.map(objectFile);
+                }
+            }, 3, 5);
+            System.out.printf("%d pcodes, %d bytes\n", interpreter.getCodeIndex(), Files.size(objectFile));
+            System.out.printf("compile    %10.3f ms\n", compile);
+            System.out.printf("map        %10.3f ms\n", map);
+
+            double interpreted = Benchmarks.measure(new Benchmarks.Task() {
+                @Override
+                public void run() throws IOException {
+                    interpreter.runWithStaticLinks(new ByteArrayInputStream(new byte[0]), Benchmarks.NullPrinter, 1000);
+                }
+            }, 3, 5);
+            double mapped = Benchmarks.measure(new Benchmarks.Task() {
+                @Override
+                public void run() throws IOException {
+                    ObjectFile.map(objectFile).run(new ByteArrayInputStream(new byte[0]), Benchmarks.NullPrinter);
+                }
+            }, 3, 5);
+            System.out.printf("run interpreter %10.3f ms\n", interpreted);
+            System.out.printf("run mapped      %10.3f ms\n", mapped);
+        } finally {
+            Files.delete(objectFile);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package benchmark;
+
+import compiler.error.ErrorHandler;
+import compiler.interpreter.Interpreter;
+import compiler.lexical.Scanner;
+import compiler.lexical.TokenStream;
+import compiler.symbol_table.SymbolTable;
+import compiler.syntax.ParallelParser;
+import compiler.syntax.Parser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 测量并行生成过程代码在不同线程数下的编译时间，以Parser顺序编译同一个TokenStream为基准
+ * 顺序编译的时间包含输出各分程序的符号表和PCode（输出被丢弃），并行编译不输出这些内容
+ * <p/>
+ * 用法: java benchmark.ParallelParserBenchmark [过程个数]
+ */
+public class ParallelParserBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int procedures = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final TokenStream tokens = TokenStream.scan(new Scanner(
+                new BufferedReader(new StringReader(Benchmarks.largeProgram(procedures))), new ErrorHandler(Benchmarks.NullPrinter)));
+        final int[] count = new int[1];
+
+        PrintStream out = System.out;
+        System.setOut(Benchmarks.NullPrinter);
+        try {
+            double sequential = Benchmarks.measure(new Benchmarks.Task() {
+                @Override
+                public void run() throws IOException {
+                    Interpreter interpreter = new Interpreter();
+                    new Parser(tokens.reader(), new SymbolTable(), interpreter, new ErrorHandler(Benchmarks.NullPrinter)).parse();
+                    count[0] = interpreter.getCodeIndex();
+                }
+            }, 3, 5);
+            out.printf("%d procedures, %d symbols, %d pcodes\n", procedures, tokens.size(), count[0]);
+            out.printf("sequential %10.2f ms\n", sequential);
+
+            int processors = Runtime.getRuntime().availableProcessors();
+            for (int threads = 1; threads <= processors; threads *= 2) {
+                final ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    double time = Benchmarks.measure(new Benchmarks.Task() {
+                        @Override
+                        public void run() throws IOException {
+                            Interpreter interpreter = new Interpreter();
+                            new ParallelParser(tokens, new SymbolTable(), interpreter, new ErrorHandler(Benchmarks.NullPrinter),
+                                    pool).parse();
+                            count[0] = interpreter.getCodeIndex();
+                        }
+                    }, 3, 5);
+                    out.printf("%2d threads %10.2f ms %6.2fx\n", threads, time, sequential / time);
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        } finally {
+            System.setOut(out);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package benchmark;
+
+import compiler.error.ErrorHandler;
+import compiler.lexical.Scanner;
+import compiler.lexical.TokenStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 测量并行词法分析在不同线程数下的扫描速度，以顺序扫描为基准
+ * <p/>
+ * 计时之前先检查并行扫描得到的单词、位置和报告的错误与顺序扫描完全相同，
+ * 包括词法错误（单独的':'）恰好是第一段最后一个字符的情况
+ * <p/>
+ * 用法: java benchmark.ParallelScannerBenchmark [过程个数]
+ */
+public class ParallelScannerBenchmark {
+
+    /**
+     * 检查用的线程数，与ParallelLexer的切分方式一起决定段的边界
+     */
+    private static final int CheckThreads = 4;
+
+    public static void main(String[] args) throws IOException {
+        int procedures = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        String source = Benchmarks.largeProgram(procedures);
+
+        //约1MB，4个线程时分为16段
+        byte[] checked = Benchmarks.largeProgram(4000).getBytes(StandardCharsets.US_ASCII);
+        compareScans("large program", checked);
+        compareScans("':' before the first chunk boundary", colonBeforeFirstBoundary(checked));
+        final ByteBuffer bytes = ByteBuffer.wrap(source.getBytes(StandardCharsets.US_ASCII));
+        final int[] count = new int[1];
+
+        double sequential = Benchmarks.measure(new Benchmarks.Task() {
+            @Override
+            public void run() throws IOException {
+                count[0] = TokenStream.scan(new Scanner(bytes, new ErrorHandler(Benchmarks.NullPrinter))).size();
+            }
+        }, 3, 5);
+
+        double megabytes = source.length() / 1e6;
+        System.out.printf("%.2f MB, %d symbols\n", megabytes, count[0]);
+        System.out.printf("sequential %10.2f ms %8.1f MB/s\n", sequential, megabytes / (sequential / 1e3));
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= processors; threads *= 2) {
+            final ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                double time = Benchmarks.measure(new Benchmarks.Task() {
+                    @Override
+                    public void run() throws IOException {
+                        count[0] = TokenStream.scan(new Scanner(bytes, new ErrorHandler(Benchmarks.NullPrinter)), pool).size();
+                    }
+                }, 3, 5);
+                System.out.printf("%2d threads %10.2f ms %8.1f MB/s %6.2fx\n", threads, time,
+                        megabytes / (time / 1e3), sequential / time);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * 分别顺序扫描和用CheckThreads个线程并行扫描source，比较单词、位置和错误信息
+     *
+     * @throws IllegalStateException 两者的结果不同
+     */
+    private static void compareScans(String name, byte[] source) throws IOException {
+        String sequential = scan(source, null);
+        ForkJoinPool pool = new ForkJoinPool(CheckThreads);
+        try {
+            String parallel = scan(source, pool);
+            if (!sequential.equals(parallel))
+                throw new IllegalStateException(name + ": parallel scan differs from sequential scan");
+        } finally {
+            pool.shutdown();
+        }
+        System.out.println(name + ": parallel == sequential");
+    }
+
+    /**
+     * @param pool 为null时顺序扫描
+     * @return 报告的错误，以及每个单词的类别、值和位置
+     */
+    private static String scan(byte[] source, ForkJoinPool pool) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        PrintStream printer = new PrintStream(result, true, "UTF-8");
+        Scanner scanner = new Scanner(ByteBuffer.wrap(source), new ErrorHandler(printer));
+        TokenStream tokens = pool == null ? TokenStream.scan(scanner) : TokenStream.scan(scanner, pool);
+        for (int i = 0; i < tokens.size(); i++)
+            printer.println(tokens.getKind(i) + " " + tokens.getValue(i) + " " + tokens.getLocation(i));
+        printer.println("end " + tokens.getLocation(tokens.size()));
+        return result.toString("UTF-8");
+    }
+
+    /**
+     * 把第一段最后一个字符改为':'，段的边界按ParallelLexer的方式计算：
+     * 源程序均分为CheckThreads * 4段，边界向后移到空白处
+     */
+    private static byte[] colonBeforeFirstBoundary(byte[] source) {
+        byte[] result = source.clone();
+        int boundary = source.length / (CheckThreads * 4);
+        while (boundary < source.length && !Character.isWhitespace(source[boundary]))
+            boundary++;
+        result[boundary - 1] = ':';
+        return result;
+    }
+}
@@ -0,0 +1,58 @@
+package benchmark;
+
+import compiler.interpreter.Interpreter;
+
+import java.io.IOException;
+
+/**
+ * 比较递归下降的Parser与表驱动的LL(1)语法分析器的编译速度
+ * <p/>
+ * procedures: Benchmarks.largeProgram生成的大量小过程
+ * expressions: 主程序中大量带括号的长表达式，主要考察表达式的分析
+ * <p/>
+ * 用法: java benchmark.ParserBenchmark [过程个数] [表达式条数]
+ */
+public class ParserBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int procedures = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int expressions = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        report("procedures", Benchmarks.largeProgram(procedures));
+        report("expressions", manyExpressions(expressions));
+    }
+
+    private static void report(String name, final String source) throws IOException {
+        //两种分析器生成的代码应当相同
+        Interpreter expected = Benchmarks.compile(source, false);
+        Interpreter actual = Benchmarks.compile(source, true);
+        if (expected.getCodeIndex() != actual.getCodeIndex())
+            throw new IllegalStateException(name + ": 生成的代码长度不同");
+
+        for (final boolean tableDriven : new boolean[]{false, true}) {
+            double time = Benchmarks.measure(new Benchmarks.Task() {
+                @Override
+                public void run() throws IOException {
+                    Benchmarks.compile(source, tableDriven);
+                }
+            }, 2, 3);
+            System.out.printf("%-12s%-14s%10.2f MB%12.2f ms\n", name, tableDriven ? "table-driven" : "recursive",
+                    source.length() / 1e6, time);
+        }
+    }
+
+    /**
+     * @param statements 赋值语句条数
+     */
+    private static String manyExpressions(int statements) {
+        StringBuilder source = new StringBuilder("var a, b, c;\nbegin\n    a := 1; b := 2; c := 3");
+        for (int i = 0; i < statements; i++) {
+            source.append(";\n    a := -(a + b * (c - ").append(i % 97)
+                    .append(")) / (b + 1) - (c * (a - (b + ").append(i % 13).append(")))");
+            if (i % 4 == 0)
+                source.append(";\n    if a + b > c * 2 then b := (b + c) / 2 else c := c - (a - b)");
+        }
+        source.append("\nend.\n");
+        return source.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package benchmark;
+
+import compiler.error.ErrorHandler;
+import compiler.lexical.Scanner;
+import compiler.lexical.TokenSource;
+import compiler.lexical.TokenStream;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 测量词法分析器扫描一个几MB的源程序所需的时间，分别从Reader和内存映射的文件读入；
+ * 以及预先扫描为TokenStream、之后再从TokenStream重新读取一遍所需的时间
+ * <p/>
+ * 用法: java benchmark.ScannerBenchmark [过程个数]
+ */
+public class ScannerBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int procedures = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        String source = Benchmarks.largeProgram(procedures);
+
+        File file = File.createTempFile("pl0", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), source.getBytes(StandardCharsets.US_ASCII));
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        final ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        channel.close();
+
+        final File sourceFile = file;
+        final int[] count = new int[1];
+        double reader = Benchmarks.measure(new Benchmarks.Task() {
+            @Override
+            public void run() throws IOException {
+                BufferedReader reader = new BufferedReader(new FileReader(sourceFile));
+                try {
+                    count[0] = scan(new Scanner(reader, new ErrorHandler(Benchmarks.NullPrinter)));
+                } finally {
+                    reader.close();
+                }
+            }
+        }, 3, 5);
+        double map = Benchmarks.measure(new Benchmarks.Task() {
+            @Override
+            public void run() throws IOException {
+                count[0] = scan(new Scanner(mapped, new ErrorHandler(Benchmarks.NullPrinter)));
+            }
+        }, 3, 5);
+
+        final TokenStream[] stream = new TokenStream[1];
+        double packed = Benchmarks.measure(new Benchmarks.Task() {
+            @Override
+            public void run() throws IOException {
+                stream[0] = TokenStream.scan(new Scanner(mapped, new ErrorHandler(Benchmarks.NullPrinter)));
+            }
+        }, 3, 5);
+        double replay = Benchmarks.measure(new Benchmarks.Task() {
+            @Override
+            public void run() throws IOException {
+                count[0] = scan(stream[0].reader());
+            }
+        }, 3, 5);
+
+        double megabytes = source.length() / 1e6;
+        System.out.printf("%.2f MB, %d symbols\n", megabytes, count[0]);
+        System.out.printf("reader %10.2f ms %8.1f MB/s\n", reader, megabytes / (reader / 1e3));
+        System.out.printf("mapped %10.2f ms %8.1f MB/s\n", map, megabytes / (map / 1e3));
+        System.out.printf("packed %10.2f ms %8.1f MB/s\n", packed, megabytes / (packed / 1e3));
+        System.out.printf("replay %10.2f ms %8.1f MB/s\n", replay, megabytes / (replay / 1e3));
+    }
+
+    private static int scan(TokenSource tokens) throws IOException {
+        int count = 0;
+        while (tokens.next() != null)
+            count++;
+        return count;
+    }
+}
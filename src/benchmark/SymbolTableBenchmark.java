@@ -0,0 +1,147 @@
+package benchmark;
+
+import compiler.error.ErrorHandler;
+import compiler.interpreter.Interpreter;
+import compiler.lexical.Scanner;
+import compiler.symbol_table.SymbolTable;
+import compiler.symbol_table.Tuple;
+import compiler.syntax.Parser;
+import compiler.syntax.SyntaxAnalyzer;
+import compiler.syntax.TableDrivenParser;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * 比较两种符号表存储方式的登录、查找速度和每条记录占用的内存
+ * <p/>
+ * 模拟Parser的用法：每个过程登录几个变量，查找若干次后退出作用域；主程序的变量一直保留
+ * <p/>
+ * 计时之前先用两种存储方式编译有错误的样例，检查两个语法分析器生成的代码和报告的错误都相同：
+ * 出错后Parser会对任意一条记录（可能是常量）setAddress，两种存储方式必须表现一致
+ * <p/>
+ * 用法: java benchmark.SymbolTableBenchmark [记录条数] [有错误的样例]
+ */
+public class SymbolTableBenchmark {
+
+    private static final int ScopeSize = 8;
+
+    /**
+     * 过程名缺失时，block对当前记录（常量c）setAddress
+     */
+    private static final String MissingProcedureName =
+            "const c = 5; procedure ; begin write(c) end; begin write(c) end.";
+
+    private static int checksum = 0;
+
+    public static void main(String[] args) throws IOException {
+        final int symbols = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        Path sample = Paths.get(args.length > 1 ? args[1] : "src/test_code/sample2_with_error");
+
+        compareStorages("missing procedure name", MissingProcedureName);
+        if (Files.exists(sample))
+            compareStorages(sample.getFileName().toString(), new String(Files.readAllBytes(sample), StandardCharsets.UTF_8));
+
+        for (final SymbolTable.Storage storage : SymbolTable.Storage.values()) {
+            double time = Benchmarks.measure(new Benchmarks.Task() {
+                @Override
+                public void run() {
+                    fill(new SymbolTable(storage), symbols);
+                }
+            }, 3, 5);
+            System.out.printf("%-8s%12.2f ms%10.1f bytes/symbol\n", storage, time, bytesPerSymbol(storage, symbols));
+        }
+        System.out.println("checksum " + checksum);
+    }
+
+    /**
+     * 分别用两种存储方式和两个语法分析器编译source，比较生成的代码和错误信息
+     *
+     * @throws IllegalStateException 两种存储方式的结果不同
+     */
+    private static void compareStorages(String name, String source) throws IOException {
+        for (boolean tableDriven : new boolean[]{false, true}) {
+            String tuples = compile(source, SymbolTable.Storage.TUPLES, tableDriven);
+            String arrays = compile(source, SymbolTable.Storage.ARRAYS, tableDriven);
+            if (!tuples.equals(arrays))
+                throw new IllegalStateException(name + ": TUPLES and ARRAYS differ\n" + tuples + "\n" + arrays);
+        }
+        System.out.println(name + ": TUPLES == ARRAYS");
+    }
+
+    /**
+     * @return 编译source报告的错误和生成的代码，源程序可以有错
+     */
+    private static String compile(String source, SymbolTable.Storage storage, boolean tableDriven) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        PrintStream printer = new PrintStream(result, true, "UTF-8");
+        PrintStream out = System.out;
+        System.setOut(Benchmarks.NullPrinter);
+        try {
+            ErrorHandler errorHandler = new ErrorHandler(printer);
+            Interpreter interpreter = new Interpreter();
+            Scanner scanner = new Scanner(new BufferedReader(new StringReader(source)), errorHandler);
+            SyntaxAnalyzer parser = tableDriven ?
+                    new TableDrivenParser(scanner, new SymbolTable(storage), interpreter, errorHandler) :
+                    new Parser(scanner, new SymbolTable(storage), interpreter, errorHandler);
+            parser.parse();
+            for (int i = 0; i < interpreter.getCodeIndex(); i++)
+                printer.println(i + ": " + interpreter.getPCodeAtIndex(i));
+        } finally {
+            System.setOut(out);
+        }
+        return result.toString("UTF-8");
+    }
+
+    /**
+     * 登录symbols条记录：大部分是主程序的变量，其余分布在依次打开、关闭的过程中
+     * 已关闭的过程的记录仍留在表中，之后的登录要把它们后移，因此过程部分不宜过多
+     */
+    private static SymbolTable fill(SymbolTable table, int symbols) {
+        int globals = symbols - symbols / 16;
+        table.setAddress(0, 0);//与Parser.block相同，先建立主程序使用的第0项
+        for (int i = 0; i < globals; i++)
+            table.enterVariable(i, 0, 3 + i);
+
+        for (int i = globals; i < symbols; i += ScopeSize) {
+            int scope = table.getTableIndex();
+            table.enterProcedure(i, 0);
+            for (int j = 1; j < ScopeSize; j++)
+                table.enterVariable(i + j, 1, 2 + j);
+
+            for (int j = 0; j < ScopeSize; j++) {
+                int index = table.position(i + j);
+                if (table.getKind(index) == Tuple.TupleType.VARIABLE)
+                    checksum += table.getAddress(index) + table.getLevel(index);
+                checksum += table.getAddress(table.position((i + j) % globals));
+            }
+            table.setTableIndex(scope + 1);
+        }
+        return table;
+    }
+
+    private static double bytesPerSymbol(SymbolTable.Storage storage, int symbols) {
+        SymbolTable[] tables = new SymbolTable[4];
+        long before = usedMemory();
+        for (int i = 0; i < tables.length; i++)
+            tables[i] = fill(new SymbolTable(storage), symbols);
+        long after = usedMemory();
+
+        checksum += tables[tables.length - 1].getTableSize();
+        return (after - before) / (double) tables.length / symbols;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
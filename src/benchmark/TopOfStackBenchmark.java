@@ -0,0 +1,95 @@
+package benchmark;
+
+import compiler.interpreter.Interpreter;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * 比较栈顶缓存与普通栈式执行循环的耗时
+ * <p/>
+ * 普通栈式循环为关闭超级指令的Interpreter.run，两者都使用display和按层次特化的代码。
+ * 测试程序包括src/test_code中能通过编译的样例和几个以算术运算为主的合成程序
+ * <p/>
+ * 用法: java benchmark.TopOfStackBenchmark [样例目录] [循环次数]
+ */
+public class TopOfStackBenchmark {
+
+    /**
+     * 样例程序的read输入
+     */
+    private static final byte[] SampleInput = "30\n0\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * 以算术运算为主的合成程序，%d为循环次数
+     */
+    private static final String[] Programs = {
+            "var i, s;\n" +
+                    "begin i := 0; s := 0;\n" +
+                    "  while i < %d do begin s := (s * 3 + i * 7 - (i / 5) * 2) / 2 - s; i := i + 1 end;\n" +
+                    "  write(s) end.\n",
+            "var i, a, b, c, d;\n" +
+                    "begin i := 0; a := 1; b := 2; c := 3; d := 0;\n" +
+                    "  while i < %d do begin\n" +
+                    "    d := ((a + b) * (c - a) + (b * c - a * d)) / (a + b + c);\n" +
+                    "    a := b; b := c; c := d - a + i; i := i + 1\n" +
+                    "  end;\n" +
+                    "  write(d) end.\n",
+            "var n, r;\n" +
+                    "procedure poly;\n" +
+                    "  var x, k;\n" +
+                    "  begin k := 0; r := 0;\n" +
+                    "    while k < n do begin x := k - k / 100 * 100; r := r + ((x * x + 3) * x - 7 * x) / (x + 1); k := k + 1 end\n" +
+                    "  end;\n" +
+                    "begin n := %d; call poly; write(r) end.\n"
+    };
+
+    public static void main(String[] args) throws IOException {
+        File samples = new File(args.length > 0 ? args[0] : "src/test_code");
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+
+        System.out.printf("%-20s%14s%14s%10s\n", "program", "stack ms", "cached ms", "speedup");
+
+        File[] files = samples.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Interpreter interpreter;
+                try {
+                    interpreter = Benchmarks.compile(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+                } catch (IllegalArgumentException e) {
+                    continue;//有错误的样例
+                }
+                //样例程序很短，重复多次执行
+                compare(file.getName(), interpreter, SampleInput, 10000);
+            }
+        }
+
+        for (int i = 0; i < Programs.length; i++)
+            compare("arithmetic" + i, Benchmarks.compile(String.format(Programs[i], iterations)), new byte[0], 1);
+    }
+
+    private static void compare(String name, final Interpreter interpreter, final byte[] input, final int repeat)
+            throws IOException {
+        interpreter.setInstructionFusion(false);
+
+        double stack = Benchmarks.measure(new Benchmarks.Task() {
+            @Override
+            public void run() throws IOException {
+                for (int i = 0; i < repeat; i++)
+                    interpreter.run(new ByteArrayInputStream(input), Benchmarks.NullPrinter);
+            }
+        }, 3, 5);
+        double cached = Benchmarks.measure(new Benchmarks.Task() {
+            @Override
+            public void run() throws IOException {
+                for (int i = 0; i < repeat; i++)
+                    interpreter.runWithTopOfStackCache(new ByteArrayInputStream(input), Benchmarks.NullPrinter);
+            }
+        }, 3, 5);
+
+        System.out.printf("%-20s%14.2f%14.2f%10.2f\n", name, stack, cached, stack / cached);
+    }
+}
@@ -1,36 +1,164 @@
 package compiler;
 
+import compiler.closure.ClosureCompiler;
 import compiler.error.ErrorHandler;
 import compiler.interpreter.Interpreter;
+import compiler.interpreter.LineTable;
+import compiler.interpreter.ObjectFile;
+import compiler.interpreter.PCodeFile;
+import compiler.jit.JitCompiler;
+import compiler.jit.JitProgram;
 import compiler.lexical.Scanner;
+import compiler.lexical.TokenSource;
+import compiler.lexical.TokenStream;
+import compiler.optimizer.PeepholeOptimizer;
 import compiler.symbol_table.SymbolTable;
+import compiler.symbol_table.Tuple;
+import compiler.syntax.ParallelParser;
 import compiler.syntax.Parser;
+import compiler.syntax.SyntaxAnalyzer;
+import compiler.syntax.TableDrivenParser;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Created by zhugongpu on 15/1/sample1.
  */
 public class PL0Compiler {
 
-    private Parser parser = null;
+    private Scanner scanner = null;
 
+    private ErrorHandler errorHandler = null;
+
+    private SyntaxAnalyzer parser = null;
+
+    private Interpreter interpreter = null;
+
+    private SymbolTable symbolTable = null;
+
+    /**
+     * 是否用表驱动的LL(1)语法分析器代替递归下降的Parser
+     */
+    private boolean tableDrivenParsing = false;
+
+    /**
+     * 是否在语法分析前先扫描出整个单词序列
+     */
+    private boolean preLexing = false;
+
+    /**
+     * 预先扫描时并行扫描所用的线程池，为null时顺序扫描
+     */
+    private ForkJoinPool lexingPool = null;
+
+    /**
+     * 并行生成各过程代码所用的线程池，为null时顺序生成
+     */
+    private ForkJoinPool codeGenerationPool = null;
+
+    /**
+     * 流式输出生成的代码所用的文件，为null时代码全部保留在内存中
+     */
+    private Path codeFile = null;
+
+    /**
+     * 编译成功后写出的目标文件，为null时不写
+     */
+    private Path objectFile = null;
+
+    /**
+     * 是否在输出代码前进行窥孔优化
+     */
+    private boolean peepholeOptimization = false;
+
+    /**
+     * 上次compile时窥孔优化删去的指令条数
+     */
+    private int removedPCodeCount = 0;
+
+    /**
+     * 执行生成代码的方式
+     */
+    private ExecutionMode executionMode = ExecutionMode.INTERPRETER;
 
     public PL0Compiler(BufferedReader sourceProgram, PrintStream errorPrinter) throws FileNotFoundException {
 
         ErrorHandler errorHandler = new ErrorHandler(errorPrinter);
 
+        initialize(new Scanner(sourceProgram, errorHandler), errorHandler);
+    }
 
-        Interpreter interpreter = new Interpreter();
-        parser = new Parser(
-                new Scanner(sourceProgram, errorHandler),
-                new SymbolTable(),
-                interpreter,
-                errorHandler
-        );
+    /**
+     * 编译源程序文件
+     * 纯ASCII的文件通过内存映射直接交给Scanner按字节扫描，不做字符集解码，也不在堆上复制源程序；
+     * 含有非ASCII字符时按默认字符集读入（与FileReader相同）
+     *
+     * @param sourcePath   源程序文件
+     * @param errorPrinter
+     * @throws IOException
+     */
+    public PL0Compiler(Path sourcePath, PrintStream errorPrinter) throws IOException {
+
+        ErrorHandler errorHandler = new ErrorHandler(errorPrinter);
+
+        ByteBuffer source = mapAsciiSource(sourcePath);
+        Scanner scanner = source != null ?
+                new Scanner(source, errorHandler) :
+                new Scanner(new BufferedReader(new InputStreamReader(Files.newInputStream(sourcePath), Charset.defaultCharset())),
+                        errorHandler);
+
+        initialize(scanner, errorHandler);
+    }
+
+    private void initialize(Scanner scanner, ErrorHandler errorHandler) {
+        this.scanner = scanner;
+        this.errorHandler = errorHandler;
+        interpreter = new Interpreter();
+        symbolTable = new SymbolTable();
+    }
+
+    /**
+     * 以只读方式映射整个文件
+     *
+     * @return 文件内容，文件中有非ASCII字节时返回null
+     */
+    private static ByteBuffer mapAsciiSource(Path sourcePath) throws IOException {
+        FileChannel channel = FileChannel.open(sourcePath, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("源程序过大: " + sourcePath);
+
+            //映射在channel关闭后仍然有效
+            ByteBuffer source = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            //每次检查8个字节的最高位
+            int length = (int) size;
+            int i = 0;
+            for (; i + 8 <= length; i += 8) {
+                if ((source.getLong(i) & 0x8080808080808080L) != 0)
+                    return null;
+            }
+            for (; i < length; i++) {
+                if (source.get(i) < 0)
+                    return null;
+            }
+            return source;
+        } finally {
+            channel.close();
+        }
     }
 
     /**
@@ -39,8 +167,239 @@ public class PL0Compiler {
      * @return 返回是否有错
      */
     public boolean compile(PrintStream pCodePrinter) throws IOException {
-        parser.parse(pCodePrinter);//开始语法分析过程（连同语法检查，目标代码生成）
+        TokenSource tokens = scanner;
+        TokenStream stream = null;
+        if (preLexing) {
+            stream = lexingPool != null ? TokenStream.scan(scanner, lexingPool) : TokenStream.scan(scanner);
+            tokens = stream.reader();
+        }
+        if (stream != null && codeGenerationPool != null && !tableDrivenParsing && codeFile != null)
+            errorHandler.printWarning("parallel code generation keeps all code in memory, not used with a code file");
+
+        if (tableDrivenParsing)
+            parser = new TableDrivenParser(tokens, symbolTable, interpreter, errorHandler);
+        else if (stream != null && codeGenerationPool != null && codeFile == null)
+            parser = new ParallelParser(stream, symbolTable, interpreter, errorHandler, codeGenerationPool);
+        else
+            parser = new Parser(tokens, symbolTable, interpreter, errorHandler);
+
+        //只有Parser记录行号
+        LineTable lineTable = null;
+        if (objectFile != null && parser instanceof Parser) {
+            lineTable = new LineTable();
+            ((Parser) parser).setLineTable(lineTable);
+        }
+
+        PCodeFile codeSink = null;
+        if (codeFile != null) {
+            codeSink = new PCodeFile(codeFile);
+            interpreter.setCodeSink(codeSink);
+        }
+        try {
+            parser.parse();//开始语法分析过程（连同语法检查，目标代码生成）
+            interpreter.flush();
+        } finally {
+            if (codeSink != null)
+                codeSink.close();
+        }
+
+        //有错误时生成的代码不完整，不做优化；流式输出的代码已不在内存中，也不做优化
+        removedPCodeCount = 0;
+        if (peepholeOptimization && parser.getErrorCount() == 0 && codeFile == null) {
+            removedPCodeCount = new PeepholeOptimizer(interpreter, symbolTable).optimize();
+            pCodePrinter.printf("peephole optimization removed %d pcodes\n", removedPCodeCount);
+            lineTable = null;//优化移动了代码，行号表不再对应
+        }
+
+        symbolTable.printTable();//打印符号表内所有信息
+        if (codeFile != null)//打印生成的PCode
+            PCodeFile.print(codeFile, pCodePrinter);
+        else
+            interpreter.printPCodes(pCodePrinter);
+
+        if (objectFile != null && parser.getErrorCount() == 0)
+            writeObjectFile(lineTable);
+
         return parser.getErrorCount() == 0;
     }
 
+    /**
+     * 把生成的代码、过程表和行号表写到objectFile
+     */
+    private void writeObjectFile(LineTable lineTable) throws IOException {
+        ObjectFile object = new ObjectFile();
+        for (int i = 0; i < symbolTable.getTableSize(); i++) {
+            if (i == 0) {//主程序的地址和大小记在0号记录中
+                object.addProcedure("", 0, symbolTable.getAddress(0), symbolTable.getSize(0));
+            } else if (symbolTable.getKind(i) == Tuple.TupleType.PROCEDURE) {
+                Tuple procedure = symbolTable.getTupleAtIndex(i);
+                object.addProcedure(procedure.name, procedure.level + 1, procedure.address, procedure.size);
+            }
+        }
+        object.setLineTable(lineTable);
+
+        if (codeFile != null)
+            object.write(objectFile, codeFile);
+        else
+            object.write(objectFile, interpreter);
+    }
+
+    /**
+     * 设置是否使用表驱动的LL(1)语法分析器，默认使用递归下降的Parser，两者生成的代码相同
+     *
+     * @param tableDrivenParsing
+     */
+    public void setTableDrivenParsing(boolean tableDrivenParsing) {
+        this.tableDrivenParsing = tableDrivenParsing;
+    }
+
+    /**
+     * 设置是否在语法分析前先把源程序扫描为TokenStream，默认边扫描边分析
+     * 预先扫描时词法错误在所有语法错误之前报告
+     *
+     * @param preLexing
+     */
+    public void setPreLexing(boolean preLexing) {
+        this.preLexing = preLexing;
+    }
+
+    /**
+     * 设置预先扫描时使用的线程池，大的源程序会被切分为若干段并行扫描，结果与顺序扫描相同
+     * 只在setPreLexing(true)时有效，默认为null，即顺序扫描
+     *
+     * @param lexingPool
+     */
+    public void setLexingPool(ForkJoinPool lexingPool) {
+        this.lexingPool = lexingPool;
+    }
+
+    /**
+     * 设置并行生成主程序中各过程代码所用的线程池，生成的代码和符号表与顺序编译相同，但不输出各分程序的符号表和PCode
+     * 只在setPreLexing(true)、不使用表驱动分析且没有setCodeFile时有效，默认为null，即顺序生成
+     *
+     * @param codeGenerationPool
+     */
+    public void setCodeGenerationPool(ForkJoinPool codeGenerationPool) {
+        this.codeGenerationPool = codeGenerationPool;
+    }
+
+    /**
+     * 设置流式输出生成的代码：语法分析中已完成的指令随时写到codeFile（格式见PCodeFile）并从内存中丢弃，
+     * 内存中只保留当前语句的代码和尚未回填的跳转，与程序的嵌套深度而不是大小成正比（Parser和TableDrivenParser都在每条语句后写出）
+     * 各过程的代码要全部生成后才能合并，因此设置了codeFile时不做并行代码生成，而是给出警告后顺序生成
+     * 此时不输出各分程序的PCode，也不做窥孔优化；run时从codeFile读回代码执行
+     * 默认为null，即代码全部保留在内存中
+     *
+     * @param codeFile
+     */
+    public void setCodeFile(Path codeFile) {
+        this.codeFile = codeFile;
+    }
+
+    /**
+     * 设置编译成功后写出的目标文件（格式见ObjectFile），之后可以用runObjectFile直接执行，不必重新编译
+     * 使用Parser且不做窥孔优化时，目标文件中带有语句的行号表
+     * 默认为null，即不写目标文件
+     *
+     * @param objectFile
+     */
+    public void setObjectFile(Path objectFile) {
+        this.objectFile = objectFile;
+    }
+
+    /**
+     * 映射并执行目标文件，不经过编译
+     *
+     * @param objectFile setObjectFile写出的目标文件
+     * @param input      read语句的输入
+     * @param output     write语句的输出
+     * @throws IOException 读取输入出错，或目标文件不正确
+     */
+    public static void runObjectFile(Path objectFile, InputStream input, PrintStream output) throws IOException {
+        ObjectFile.map(objectFile).run(input, output);
+    }
+
+    /**
+     * 设置是否在输出代码前进行窥孔优化，默认不优化
+     *
+     * @param peepholeOptimization
+     */
+    public void setPeepholeOptimization(boolean peepholeOptimization) {
+        this.peepholeOptimization = peepholeOptimization;
+    }
+
+    /**
+     * @return 上次compile时窥孔优化删去的指令条数，未做优化时为0
+     */
+    public int getRemovedPCodeCount() {
+        return removedPCodeCount;
+    }
+
+    /**
+     * 设置执行生成代码的方式，默认为解释执行
+     *
+     * @param executionMode
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    /**
+     * 执行编译生成的PCode，应在compile成功之后调用
+     *
+     * @param input  read语句的输入
+     * @param output write语句的输出
+     */
+    public void run(InputStream input, PrintStream output) throws IOException {
+        Interpreter interpreter = codeFile != null ? PCodeFile.load(codeFile) : this.interpreter;
+
+        if (executionMode == ExecutionMode.JIT) {
+            JitProgram program = null;
+            try {
+                program = new JitCompiler(interpreter).compile();
+            } catch (IllegalStateException e) {
+                //无法翻译的代码（如单个过程超过64K字节码）退回到解释执行
+                errorHandler.printWarning("jit: " + e.getMessage() + ", fall back to interpreter");
+            }
+
+            if (program != null) {
+                program.run(input, output);
+                return;
+            }
+        }
+
+        if (executionMode == ExecutionMode.CLOSURE) {
+            new ClosureCompiler(interpreter).compile().run(input, output);
+            return;
+        }
+
+        if (executionMode == ExecutionMode.TOP_OF_STACK_CACHE) {
+            interpreter.runWithTopOfStackCache(input, output);
+            return;
+        }
+
+        interpreter.run(input, output);
+    }
+
+    /**
+     * 生成代码的执行方式
+     */
+    public enum ExecutionMode {
+        /**
+         * 由Interpreter逐条解释执行
+         */
+        INTERPRETER,
+        /**
+         * 由Interpreter解释执行，栈顶元素缓存在局部变量中
+         */
+        TOP_OF_STACK_CACHE,
+        /**
+         * 预先将每条指令翻译为专门的节点对象后执行，执行时不再解码指令
+         */
+        CLOSURE,
+        /**
+         * 将每个过程翻译为JVM方法后执行
+         */
+        JIT
+    }
 }
@@ -0,0 +1,124 @@
+package compiler.closure;
+
+import compiler.interpreter.Interpreter;
+import compiler.interpreter.PCode;
+import compiler.interpreter.ProcedureLayout;
+
+/**
+ * 把Interpreter中的PCode预先翻译为节点数组
+ * <p/>
+ * 介于逐条解码的解释执行和JIT之间：每条指令对应一个专门的Node子类对象，
+ * 层次差在翻译时换算为绝对层次（与Interpreter.run的display方式相同），
+ * 当前过程和主程序的变量访问进一步特化为直接以b或0为基地址的节点
+ */
+public class ClosureCompiler {
+
+    private Interpreter interpreter = null;
+
+    public ClosureCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * 翻译全部代码
+     *
+     * @return 可执行的程序
+     * @throws IllegalStateException 代码不符合Parser生成的结构
+     */
+    public ClosureProgram compile() {
+        ProcedureLayout layout = new ProcedureLayout(interpreter);
+        int length = interpreter.getCodeIndex();
+
+        Node[] nodes = new Node[length];
+        for (int i = 0; i < length; i++) {
+            int owner = layout.getOwner(i);
+            if (owner < 0) {
+                //不属于任何可达过程体的指令（各分程序开头的JMP等），按原样执行跳转，其余不会被执行到
+                if (interpreter.getCodeTypeAtIndex(i) == PCode.CodeType.JMP)
+                    nodes[i] = new Node.Jump(i, interpreter.getArgumentAtIndex(i));
+                else
+                    nodes[i] = new Node.Illegal(i, "执行了不可达的指令");
+                continue;
+            }
+            nodes[i] = translate(i, layout.getLevel(owner), layout);
+        }
+
+        return new ClosureProgram(nodes, layout.getMaxLevel() + 2);
+    }
+
+    /**
+     * @param index 指令地址
+     * @param level 指令所在过程的层次
+     * @param layout 用于把CAL的目标直接定位到过程入口
+     */
+    private Node translate(int index, int level, ProcedureLayout layout) {
+        int levelDifference = interpreter.getLevelDifferenceAtIndex(index);
+        int argument = interpreter.getArgumentAtIndex(index);
+
+        switch (interpreter.getCodeTypeAtIndex(index)) {
+            case LIT:
+                return new Node.Literal(index, argument);
+            case OPR:
+                return translateOperation(index, level, argument);
+            case LOD:
+                if (levelDifference == 0)
+                    return new Node.LoadLocal(index, argument);
+                if (level - levelDifference == 0)
+                    return new Node.LoadGlobal(index, argument);
+                return new Node.LoadOuter(index, level - levelDifference, argument);
+            case STO:
+                if (levelDifference == 0)
+                    return new Node.StoreLocal(index, argument);
+                if (level - levelDifference == 0)
+                    return new Node.StoreGlobal(index, argument);
+                return new Node.StoreOuter(index, level - levelDifference, argument);
+            case CAL:
+                return new Node.Call(index, level - levelDifference + 1, layout.getProcedureEntry(argument));
+            case INT:
+                return new Node.Enter(index, argument, layout.getStackReserve(index));
+            case JMP:
+                return new Node.Jump(index, argument);
+            case JPC:
+                return new Node.JumpIfFalse(index, argument);
+            case RED:
+                return new Node.Read(index, level - levelDifference, argument);
+            case WRT:
+                return new Node.Write(index);
+            default:
+                return new Node.Illegal(index, "非法的指令");
+        }
+    }
+
+    private Node translateOperation(int index, int level, int operation) {
+        switch (operation) {
+            case 0://返回
+                return new Node.Return(index, level);
+            case 1://取反
+                return new Node.Negate(index);
+            case 2://加
+                return new Node.Add(index);
+            case 3://减
+                return new Node.Subtract(index);
+            case 4://乘
+                return new Node.Multiply(index);
+            case 5://除
+                return new Node.Divide(index);
+            case 6://判奇
+                return new Node.Odd(index);
+            case 8://=
+                return new Node.Equal(index);
+            case 9://<>
+                return new Node.NotEqual(index);
+            case 10://<
+                return new Node.Less(index);
+            case 11://<=
+                return new Node.LessEqual(index);
+            case 12://>
+                return new Node.Greater(index);
+            case 13://>=
+                return new Node.GreaterEqual(index);
+            default:
+                return new Node.Illegal(index, "非法的OPR指令: " + operation);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package compiler.closure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+/**
+ * ClosureCompiler翻译得到的节点数组
+ */
+public class ClosureProgram {
+
+    private static final int StackSize = 1000;
+
+    private final Node[] nodes;
+
+    /**
+     * display的大小
+     */
+    private final int displaySize;
+
+    ClosureProgram(Node[] nodes, int displaySize) {
+        this.nodes = nodes;
+        this.displaySize = displaySize;
+    }
+
+    /**
+     * 执行程序
+     *
+     * @param input  read语句的输入
+     * @param output write语句的输出
+     * @throws IOException 读取输入出错，或read时输入已结束
+     */
+    public void run(InputStream input, PrintStream output) throws IOException {
+        run(input, output, StackSize);
+    }
+
+    /**
+     * 执行程序
+     *
+     * @param input     read语句的输入
+     * @param output    write语句的输出
+     * @param stackSize 运行栈大小
+     * @throws IOException 读取输入出错，或read时输入已结束
+     */
+    public void run(InputStream input, PrintStream output, int stackSize) throws IOException {
+        Node[] nodes = this.nodes;
+        Machine machine = new Machine(stackSize, displaySize, input, output);
+
+        int p = 0;
+        while (p >= 0)
+            p = nodes[p].execute(machine);
+    }
+}
@@ -0,0 +1,38 @@
+package compiler.closure;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+
+/**
+ * 节点执行时共享的运行状态，与Interpreter.run中的局部变量一一对应
+ */
+final class Machine {
+
+    final int[] stack;
+
+    /**
+     * display[k]为当前可见的第k层过程的活动记录基地址
+     */
+    final int[] display;
+
+    /**
+     * 当前活动记录的基地址
+     */
+    int b = 0;
+
+    /**
+     * 栈顶指针，指向栈顶元素
+     */
+    int t = -1;
+
+    final InputStream input;
+
+    final PrintStream output;
+
+    Machine(int stackSize, int displaySize, InputStream input, PrintStream output) {
+        this.stack = new int[stackSize];
+        this.display = new int[displaySize];
+        this.input = input;
+        this.output = output;
+    }
+}
@@ -0,0 +1,524 @@
+package compiler.closure;
+
+import compiler.interpreter.Interpreter;
+
+import java.io.IOException;
+
+/**
+ * 由一条PCode翻译得到的可执行节点
+ * <p/>
+ * 操作码、层次和参数在翻译时就确定了节点的类型和字段，执行时不再解码指令。
+ * 每个节点执行完自己的操作后返回下一个要执行的节点的下标，返回-1表示程序结束
+ */
+abstract class Node {
+
+    /**
+     * 本节点的下一条指令
+     */
+    final int next;
+
+    Node(int index) {
+        this.next = index + 1;
+    }
+
+    abstract int execute(Machine m) throws IOException;
+
+    /**
+     * LIT 将常量放到栈顶
+     */
+    static final class Literal extends Node {
+        private final int value;
+
+        Literal(int index, int value) {
+            super(index);
+            this.value = value;
+        }
+
+        @Override
+        int execute(Machine m) {
+            m.stack[++m.t] = value;
+            return next;
+        }
+    }
+
+    /**
+     * LOD 读当前过程的局部变量
+     */
+    static final class LoadLocal extends Node {
+        private final int slot;
+
+        LoadLocal(int index, int slot) {
+            super(index);
+            this.slot = slot;
+        }
+
+        @Override
+        int execute(Machine m) {
+            int[] stack = m.stack;
+            stack[++m.t] = stack[m.b + slot];
+            return next;
+        }
+    }
+
+    /**
+     * LOD 读主程序的变量，主程序的活动记录基地址总是0
+     */
+    static final class LoadGlobal extends Node {
+        private final int slot;
+
+        LoadGlobal(int index, int slot) {
+            super(index);
+            this.slot = slot;
+        }
+
+        @Override
+        int execute(Machine m) {
+            int[] stack = m.stack;
+            stack[++m.t] = stack[slot];
+            return next;
+        }
+    }
+
+    /**
+     * LOD 通过display读外层过程的变量
+     */
+    static final class LoadOuter extends Node {
+        private final int level;
+        private final int slot;
+
+        LoadOuter(int index, int level, int slot) {
+            super(index);
+            this.level = level;
+            this.slot = slot;
+        }
+
+        @Override
+        int execute(Machine m) {
+            int[] stack = m.stack;
+            stack[++m.t] = stack[m.display[level] + slot];
+            return next;
+        }
+    }
+
+    /**
+     * STO 写当前过程的局部变量
+     */
+    static final class StoreLocal extends Node {
+        private final int slot;
+
+        StoreLocal(int index, int slot) {
+            super(index);
+            this.slot = slot;
+        }
+
+        @Override
+        int execute(Machine m) {
+            int[] stack = m.stack;
+            stack[m.b + slot] = stack[m.t--];
+            return next;
+        }
+    }
+
+    /**
+     * STO 写主程序的变量
+     */
+    static final class StoreGlobal extends Node {
+        private final int slot;
+
+        StoreGlobal(int index, int slot) {
+            super(index);
+            this.slot = slot;
+        }
+
+        @Override
+        int execute(Machine m) {
+            int[] stack = m.stack;
+            stack[slot] = stack[m.t--];
+            return next;
+        }
+    }
+
+    /**
+     * STO 通过display写外层过程的变量
+     */
+    static final class StoreOuter extends Node {
+        private final int level;
+        private final int slot;
+
+        StoreOuter(int index, int level, int slot) {
+            super(index);
+            this.level = level;
+            this.slot = slot;
+        }
+
+        @Override
+        int execute(Machine m) {
+            int[] stack = m.stack;
+            stack[m.display[level] + slot] = stack[m.t--];
+            return next;
+        }
+    }
+
+    /**
+     * RED 读入一个整数存入变量
+     */
+    static final class Read extends Node {
+        private final int level;
+        private final int slot;
+
+        Read(int index, int level, int slot) {
+            super(index);
+            this.level = level;
+            this.slot = slot;
+        }
+
+        @Override
+        int execute(Machine m) throws IOException {
+            m.stack[m.display[level] + slot] = Interpreter.readInteger(m.input);
+            return next;
+        }
+    }
+
+    /**
+     * WRT 输出栈顶的值
+     */
+    static final class Write extends Node {
+        Write(int index) {
+            super(index);
+        }
+
+        @Override
+        int execute(Machine m) {
+            m.output.println(m.stack[m.t--]);
+            return next;
+        }
+    }
+
+    /**
+     * OPR 0,1 取反
+     */
+    static final class Negate extends Node {
+        Negate(int index) {
+            super(index);
+        }
+
+        @Override
+        int execute(Machine m) {
+            m.stack[m.t] = -m.stack[m.t];
+            return next;
+        }
+    }
+
+    /**
+     * OPR 0,6 判奇
+     */
+    static final class Odd extends Node {
+        Odd(int index) {
+            super(index);
+        }
+
+        @Override
+        int execute(Machine m) {
+            m.stack[m.t] &= 1;
+            return next;
+        }
+    }
+
+    /**
+     * OPR 0,2 加
+     */
+    static final class Add extends Node {
+        Add(int index) {
+            super(index);
+        }
+
+        @Override
+        int execute(Machine m) {
+            int[] stack = m.stack;
+            int t = --m.t;
+            stack[t] = stack[t] + stack[t + 1];
+            return next;
+        }
+    }
+
+    /**
+     * OPR 0,3 减
+     */
+    static final class Subtract extends Node {
+        Subtract(int index) {
+            super(index);
+        }
+
+        @Override
+        int execute(Machine m) {
+            int[] stack = m.stack;
+            int t = --m.t;
+            stack[t] = stack[t] - stack[t + 1];
+            return next;
+        }
+    }
+
+    /**
+     * OPR 0,4 乘
+     */
+    static final class Multiply extends Node {
+        Multiply(int index) {
+            super(index);
+        }
+
+        @Override
+        int execute(Machine m) {
+            int[] stack = m.stack;
+            int t = --m.t;
+            stack[t] = stack[t] * stack[t + 1];
+            return next;
+        }
+    }
+
+    /**
+     * OPR 0,5 除
+     */
+    static final class Divide extends Node {
+        Divide(int index) {
+            super(index);
+        }
+
+        @Override
+        int execute(Machine m) {
+            int[] stack = m.stack;
+            int t = --m.t;
+            stack[t] = stack[t] / stack[t + 1];
+            return next;
+        }
+    }
+
+    /**
+     * OPR 0,8 =
+     */
+    static final class Equal extends Node {
+        Equal(int index) {
+            super(index);
+        }
+
+        @Override
+        int execute(Machine m) {
+            int[] stack = m.stack;
+            int t = --m.t;
+            stack[t] = stack[t] == stack[t + 1] ? 1 : 0;
+            return next;
+        }
+    }
+
+    /**
+     * OPR 0,9 <>
+     */
+    static final class NotEqual extends Node {
+        NotEqual(int index) {
+            super(index);
+        }
+
+        @Override
+        int execute(Machine m) {
+            int[] stack = m.stack;
+            int t = --m.t;
+            stack[t] = stack[t] != stack[t + 1] ? 1 : 0;
+            return next;
+        }
+    }
+
+    /**
+     * OPR 0,10 <
+     */
+    static final class Less extends Node {
+        Less(int index) {
+            super(index);
+        }
+
+        @Override
+        int execute(Machine m) {
+            int[] stack = m.stack;
+            int t = --m.t;
+            stack[t] = stack[t] < stack[t + 1] ? 1 : 0;
+            return next;
+        }
+    }
+
+    /**
+     * OPR 0,11 <=
+     */
+    static final class LessEqual extends Node {
+        LessEqual(int index) {
+            super(index);
+        }
+
+        @Override
+        int execute(Machine m) {
+            int[] stack = m.stack;
+            int t = --m.t;
+            stack[t] = stack[t] <= stack[t + 1] ? 1 : 0;
+            return next;
+        }
+    }
+
+    /**
+     * OPR 0,12 >
+     */
+    static final class Greater extends Node {
+        Greater(int index) {
+            super(index);
+        }
+
+        @Override
+        int execute(Machine m) {
+            int[] stack = m.stack;
+            int t = --m.t;
+            stack[t] = stack[t] > stack[t + 1] ? 1 : 0;
+            return next;
+        }
+    }
+
+    /**
+     * OPR 0,13 >=
+     */
+    static final class GreaterEqual extends Node {
+        GreaterEqual(int index) {
+            super(index);
+        }
+
+        @Override
+        int execute(Machine m) {
+            int[] stack = m.stack;
+            int t = --m.t;
+            stack[t] = stack[t] >= stack[t + 1] ? 1 : 0;
+            return next;
+        }
+    }
+
+    /**
+     * JMP
+     */
+    static final class Jump extends Node {
+        private final int target;
+
+        Jump(int index, int target) {
+            super(index);
+            this.target = target;
+        }
+
+        @Override
+        int execute(Machine m) {
+            return target;
+        }
+    }
+
+    /**
+     * JPC 栈顶为0时跳转
+     */
+    static final class JumpIfFalse extends Node {
+        private final int target;
+
+        JumpIfFalse(int index, int target) {
+            super(index);
+            this.target = target;
+        }
+
+        @Override
+        int execute(Machine m) {
+            return m.stack[m.t--] == 0 ? target : next;
+        }
+    }
+
+    /**
+     * CAL 调用第level层的过程，被覆盖的display项保存在新活动记录的SL单元中
+     */
+    static final class Call extends Node {
+        private final int level;
+        private final int target;
+
+        Call(int index, int level, int target) {
+            super(index);
+            this.level = level;
+            this.target = target;
+        }
+
+        @Override
+        int execute(Machine m) {
+            int[] stack = m.stack;
+            int b = m.t + 1;
+            stack[b] = m.display[level];
+            stack[b + 1] = m.b;
+            stack[b + 2] = next;
+            m.b = b;
+            m.display[level] = b;
+            return target;
+        }
+    }
+
+    /**
+     * INT 分配数据空间
+     */
+    static final class Enter extends Node {
+        private final int size;
+        /**
+         * 活动记录之上至少要留出的单元数，见ProcedureLayout.getStackReserve
+         */
+        private final int reserve;
+
+        Enter(int index, int size, int reserve) {
+            super(index);
+            this.size = size;
+            this.reserve = reserve;
+        }
+
+        @Override
+        int execute(Machine m) {
+            m.t += size;
+            if (m.t + reserve >= m.stack.length)
+                throw new IllegalStateException("运行栈溢出 at " + (next - 1));
+            Interpreter.clearVariables(m.stack, m.b, m.t);
+            return next;
+        }
+    }
+
+    /**
+     * OPR 0,0 从第level层的过程返回，主程序返回时程序结束
+     */
+    static final class Return extends Node {
+        private final int level;
+
+        Return(int index, int level) {
+            super(index);
+            this.level = level;
+        }
+
+        @Override
+        int execute(Machine m) {
+            int b = m.b;
+            if (b == 0)
+                return -1;
+
+            int[] stack = m.stack;
+            m.display[level] = stack[b];
+            m.t = b - 1;
+            m.b = stack[b + 1];
+            return stack[b + 2];
+        }
+    }
+
+    /**
+     * 不可达或无法执行的指令，执行到时报错
+     */
+    static final class Illegal extends Node {
+        private final String message;
+
+        Illegal(int index, String message) {
+            super(index);
+            this.message = message;
+        }
+
+        @Override
+        int execute(Machine m) {
+            throw new IllegalStateException(message + " at " + (next - 1));
+        }
+    }
+}
@@ -47,7 +47,7 @@ public class ErrorHandler {
             "33.read语句中应该为变量",
             "34.格式错误，应为左括号",
             "35.read()中的变量未声明",
-            "36.Not Defined Yet",
+            "36.除数为0",
             "37.Not Defined Yet",
             "38.Not Defined Yet",
             "39.Not Defined Yet",
@@ -80,6 +80,39 @@ public class ErrorHandler {
         printErrorInfo(errorMessage);
     }
 
+    /**
+     * 输出错误信息，出错位置只在这里才格式化为字符串
+     *
+     * @param errorCode 错误代码
+     * @param location  出错的位置，由location(行号, 列号)得到
+     */
+    public void printError(int errorCode, long location) {
+        printError(errorCode, formatLocation(location));
+    }
+
+    /**
+     * 把行号和列号合并为一个long：高32位为行号，低32位为列号
+     */
+    public static long location(int line, int column) {
+        return (long) line << 32 | column & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return 位置的文本形式 : (行号，列号)
+     */
+    public static String formatLocation(long location) {
+        return "(" + (int) (location >>> 32) + "," + (int) location + ")";
+    }
+
+    /**
+     * 输出不影响编译结果的提示信息，不计入错误个数
+     *
+     * @param message 提示信息
+     */
+    public void printWarning(String message) {
+        printErrorInfo("WARNING: " + message);
+    }
+
     /**
      * @return 返回总的错误个数
      */
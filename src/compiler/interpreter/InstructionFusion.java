@@ -0,0 +1,178 @@
+package compiler.interpreter;
+
+/**
+ * 超级指令：把Parser生成代码中常见的指令序列合并为一条指令，减少解释执行时的分派次数
+ * <p/>
+ * 在Interpreter.run执行前的代码副本上进行（已由prepareDisplayCodes换算为绝对层次），codes本身和打印结果不变。
+ * 合并后的指令仍放在序列第一条指令的位置，执行完跳过整个序列；被覆盖的指令原地保留，
+ * 合并指令从这些位置读取自己的其余操作数，因此不需要重定位任何地址。
+ * 序列中除第一条以外的指令都不能是跳转目标（包括CAL之后的返回地址），否则不合并
+ * <p/>
+ * 合并的序列：
+ * INC            LOD l,a; LIT k; OPR +/-; STO l,a  即 a := a + k
+ * LODLIT_CMP_JPC LOD l,a; LIT k; OPR 比较; JPC    即 while/if 中的 a 比较 k
+ * CMP_JPC        OPR 比较; JPC
+ * LOD_STO        LOD; STO                         即 a := b
+ * LODLIT_ADD     LOD l,a; LIT k; OPR +/-
+ * LODLIT_OPR     LOD l,a; LIT k; OPR 其他二元运算
+ * LOD_LOD_OPR    LOD; LOD; OPR 二元运算
+ */
+final class InstructionFusion {
+
+    /*
+     * 合并指令的操作码，接在CodeType的序号之后
+     */
+    static final int INC = 16;
+    static final int LODLIT_CMP_JPC = 17;
+    static final int CMP_JPC = 18;
+    static final int LOD_STO = 19;
+    static final int LODLIT_ADD = 20;
+    static final int LODLIT_OPR = 21;
+    static final int LOD_LOD_OPR = 22;
+
+    private static final int LIT = PCode.CodeType.LIT.ordinal();
+    private static final int OPR = PCode.CodeType.OPR.ordinal();
+    private static final int LOD = PCode.CodeType.LOD.ordinal();
+    private static final int STO = PCode.CodeType.STO.ordinal();
+    private static final int CAL = PCode.CodeType.CAL.ordinal();
+    private static final int JMP = PCode.CodeType.JMP.ordinal();
+    private static final int JPC = PCode.CodeType.JPC.ordinal();
+
+    private static final int CodeWidth = 2;
+
+    private final int[] codes;
+    private final int length;
+
+    /**
+     * 可能从别处转移过来的指令
+     */
+    private final boolean[] targets;
+
+    private InstructionFusion(int[] codes, int length) {
+        this.codes = codes;
+        this.length = length;
+        this.targets = new boolean[length + 1];
+    }
+
+    /**
+     * 在codes上原地合并指令序列
+     *
+     * @param codes  Interpreter格式的代码
+     * @param length 指令条数
+     * @return 合并掉的指令条数
+     */
+    static int fuse(int[] codes, int length) {
+        return new InstructionFusion(codes, length).fuse();
+    }
+
+    private int fuse() {
+        targets[0] = true;
+        for (int i = 0; i < length; i++) {
+            int type = type(i);
+            if (type == JMP || type == JPC || type == CAL)
+                targets[clamp(argument(i))] = true;
+            if (type == CAL)//返回地址
+                targets[i + 1] = true;
+        }
+
+        int fused = 0;
+        int i = 0;
+        while (i < length) {
+            int size = fuseAt(i);
+            fused += size - 1;
+            i += size;
+        }
+        return fused;
+    }
+
+    /**
+     * 尝试合并从index开始的序列
+     *
+     * @return 合并的指令条数，没有合并时为1
+     */
+    private int fuseAt(int index) {
+        if (matches(index, LOD, LIT, OPR, STO) && isAddOrSubtract(index + 2) &&
+                codes[index * CodeWidth] >> 8 == codes[(index + 3) * CodeWidth] >> 8 &&
+                argument(index) == argument(index + 3)) {
+            negateIfSubtract(index + 1);
+            setType(index, INC);
+            return 4;
+        }
+        if (matches(index, LOD, LIT, OPR, JPC) && isComparison(index + 2)) {
+            setType(index, LODLIT_CMP_JPC);
+            return 4;
+        }
+        if (matches(index, OPR, JPC) && isComparison(index)) {
+            setType(index, CMP_JPC);
+            return 2;
+        }
+        if (matches(index, LOD, STO)) {
+            setType(index, LOD_STO);
+            return 2;
+        }
+        if (matches(index, LOD, LIT, OPR) && isAddOrSubtract(index + 2)) {
+            negateIfSubtract(index + 1);
+            setType(index, LODLIT_ADD);
+            return 3;
+        }
+        if (matches(index, LOD, LIT, OPR) && isBinary(index + 2)) {
+            setType(index, LODLIT_OPR);
+            return 3;
+        }
+        if (matches(index, LOD, LOD, OPR) && isBinary(index + 2)) {
+            setType(index, LOD_LOD_OPR);
+            return 3;
+        }
+        return 1;
+    }
+
+    /**
+     * index开始的指令依次为types，且除第一条外都不是跳转目标
+     */
+    private boolean matches(int index, int... types) {
+        if (index + types.length > length)
+            return false;
+        for (int k = 0; k < types.length; k++) {
+            if (type(index + k) != types[k] || (k > 0 && targets[index + k]))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean isAddOrSubtract(int index) {
+        return argument(index) == 2 || argument(index) == 3;
+    }
+
+    private boolean isComparison(int index) {
+        return argument(index) >= 8 && argument(index) <= 13;
+    }
+
+    private boolean isBinary(int index) {
+        return (argument(index) >= 2 && argument(index) <= 5) || isComparison(index);
+    }
+
+    /**
+     * LIT k 之后是减法时改为 k 取反，合并指令统一做加法
+     * 对Integer.MIN_VALUE取反仍是它本身，补码下 a - MIN_VALUE == a + MIN_VALUE，结果不变
+     */
+    private void negateIfSubtract(int literal) {
+        if (argument(literal + 1) == 3)
+            codes[literal * CodeWidth + 1] = -codes[literal * CodeWidth + 1];
+    }
+
+    private int type(int index) {
+        return codes[index * CodeWidth] & 0xFF;
+    }
+
+    private int argument(int index) {
+        return codes[index * CodeWidth + 1];
+    }
+
+    private void setType(int index, int type) {
+        codes[index * CodeWidth] = (codes[index * CodeWidth] & ~0xFF) | type;
+    }
+
+    private int clamp(int address) {
+        return address < 0 ? 0 : address > length ? length : address;
+    }
+}
@@ -1,8 +1,11 @@
 package compiler.interpreter;
 
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * 目标代码的生成和解释执行
@@ -13,18 +16,80 @@ public class Interpreter {
     private static final int StackSize = 1000;
 
     /**
-     * 保存PCode
+     * 每个活动记录开头的三个单元：静态链SL、动态链DL、返回地址RA
      */
-    private ArrayList<PCode> pcodes = new ArrayList<PCode>();
+    public static final int FrameHeaderSize = 3;
+
+    /**
+     * 每条指令在codes中占用的int个数
+     */
+    private static final int CodeWidth = 2;
+
+    /**
+     * 紧凑存储的PCode，每条指令占两个int：
+     * codes[2i]   低8位为操作码(CodeType的序号)，其余位为层次差
+     * codes[2i+1] 参数
+     * PCode对象仅在需要打印或外部访问时临时创建
+     */
+    private int[] codes = new int[256 * CodeWidth];
+
+    /**
+     * 已生成的指令条数
+     */
+    private int codeCount = 0;
+
+    /**
+     * 流式输出时，已完成的指令由flush写到codeSink后从codes中丢弃，为null时保留全部指令
+     */
+    private PCodeSink codeSink = null;
+
+    /**
+     * codes中第一条指令的下标，之前的指令已经写出
+     */
+    private int codeBase = 0;
+
+    /*
+     * 流式输出时跳转地址尚未回填的指令的下标，按下标递增；
+     * 其中已移出codes的指令保存在pendingWords和pendingArguments中，回填后由下一次flush写出
+     * 跳转都是嵌套的，个数与嵌套深度成正比
+     */
+    private int[] pendingIndices = new int[16];
+    private int[] pendingWords = new int[16];
+    private int[] pendingArguments = new int[16];
+    private boolean[] pendingResolved = new boolean[16];
+    private int pendingCount = 0;
+
+    private static final PCode.CodeType[] CodeTypes = PCode.CodeType.values();
+
+    /**
+     * run执行前是否把常见指令序列合并为超级指令，见InstructionFusion
+     */
+    private boolean instructionFusion = true;
+
+    /**
+     * run和runWithTopOfStackCache执行前是否按层次特化LOD/STO，见Quickening
+     */
+    private boolean quickening = true;
+
+    /**
+     * 将操作码与层次差合并为一个int
+     */
+    private static int encode(int type, int levelDifference) {
+        return (levelDifference << 8) | type;
+    }
 
     /**
      * 获取pcodes中的指定元素
+     * 返回的是一个新建的PCode对象，修改它不会影响已生成的代码，需要时使用setPCodeAtIndex写回
      *
      * @param index
      * @return
      */
     public PCode getPCodeAtIndex(int index) {
-        return pcodes.get(index);
+        if (index < 0 || index >= codeCount)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + codeCount);
+
+        return new PCode(getCodeTypeAtIndex(index), getLevelDifferenceAtIndex(index), getArgumentAtIndex(index));
     }
 
     /**
@@ -34,8 +99,69 @@ public class Interpreter {
      * @param pcode
      */
     public void setPCodeAtIndex(int index, PCode pcode) {
-        if (index >= 0 && index < pcodes.size()) {
-            pcodes.set(index, pcode);
+        if (index >= codeBase && index < codeCount) {
+            codes[(index - codeBase) * CodeWidth] = encode(pcode.getCodeType().ordinal(), pcode.getLevelDifference());
+            codes[(index - codeBase) * CodeWidth + 1] = pcode.getArgument();
+        }
+    }
+
+    /**
+     * 设置pcode数组中的指定元素，不需要创建PCode对象
+     *
+     * @param index
+     * @param type            操作码
+     * @param levelDifference 层次差
+     * @param argument        参数
+     */
+    public void setPCodeAtIndex(int index, PCode.CodeType type, int levelDifference, int argument) {
+        if (index >= codeBase && index < codeCount) {
+            codes[(index - codeBase) * CodeWidth] = encode(type.ordinal(), levelDifference);
+            codes[(index - codeBase) * CodeWidth + 1] = argument;
+        }
+    }
+
+    /**
+     * 获取指定指令的操作码
+     *
+     * @param index
+     * @return
+     */
+    public PCode.CodeType getCodeTypeAtIndex(int index) {
+        return CodeTypes[codes[(index - codeBase) * CodeWidth] & 0xFF];
+    }
+
+    /**
+     * 获取指定指令的层次差
+     *
+     * @param index
+     * @return
+     */
+    public int getLevelDifferenceAtIndex(int index) {
+        return codes[(index - codeBase) * CodeWidth] >> 8;
+    }
+
+    /**
+     * 获取指定指令的参数
+     *
+     * @param index
+     * @return
+     */
+    public int getArgumentAtIndex(int index) {
+        return codes[(index - codeBase) * CodeWidth + 1];
+    }
+
+    /**
+     * 设置指定指令的参数，用于回填跳转地址
+     *
+     * @param index
+     * @param argument
+     */
+    public void setArgumentAtIndex(int index, int argument) {
+        if (codeSink != null)
+            resolve(index, argument);
+
+        if (index >= codeBase && index < codeCount) {
+            codes[(index - codeBase) * CodeWidth + 1] = argument;
         }
     }
 
@@ -46,7 +172,18 @@ public class Interpreter {
      * @return
      */
     public int getCodeIndex() {
-        return pcodes.size();
+        return codeCount;
+    }
+
+    /**
+     * 回退指令索引指针，丢弃codeIndex及之后的指令
+     * 用于优化时删除已生成的代码
+     *
+     * @param codeIndex 新的cx，不能大于当前cx
+     */
+    public void setCodeIndex(int codeIndex) {
+        if (codeIndex >= codeBase && codeIndex <= codeCount)
+            codeCount = codeIndex;
     }
 
     /**
@@ -57,7 +194,110 @@ public class Interpreter {
      * @param argument        参数
      */
     public void genPCode(PCode.CodeType type, int levelDifference, int argument) {
-        pcodes.add(new PCode(type, levelDifference, argument));
+        int offset = (codeCount - codeBase) * CodeWidth;
+        if (offset == codes.length)
+            codes = Arrays.copyOf(codes, codes.length * 2);
+
+        codes[offset] = encode(type.ordinal(), levelDifference);
+        codes[offset + 1] = argument;
+        codeCount++;
+    }
+
+    /**
+     * 生成跳转地址暂时为0、之后由setArgumentAtIndex回填的JMP或JPC
+     * 流式输出时该指令在回填之前不会写出
+     *
+     * @param type JMP或JPC
+     * @return 指令的下标
+     */
+    public int genJumpPlaceholder(PCode.CodeType type) {
+        int index = codeCount;
+        genPCode(type, 0, 0);
+
+        if (codeSink != null) {
+            if (pendingCount == pendingIndices.length) {
+                pendingIndices = Arrays.copyOf(pendingIndices, pendingCount * 2);
+                pendingWords = Arrays.copyOf(pendingWords, pendingCount * 2);
+                pendingArguments = Arrays.copyOf(pendingArguments, pendingCount * 2);
+                pendingResolved = Arrays.copyOf(pendingResolved, pendingCount * 2);
+            }
+            pendingIndices[pendingCount] = index;
+            pendingResolved[pendingCount] = false;
+            pendingCount++;
+        }
+        return index;
+    }
+
+    /**
+     * 回填一条尚未回填的跳转指令，已移出codes的在此保存其参数
+     */
+    private void resolve(int index, int argument) {
+        for (int i = pendingCount - 1; i >= 0; i--) {
+            if (pendingIndices[i] == index) {
+                pendingResolved[i] = true;
+                pendingArguments[i] = argument;
+                break;
+            }
+        }
+    }
+
+    /**
+     * 设置流式输出，应在生成代码之前调用
+     * 之后每次flush都把已完成的指令写到sink并从内存中丢弃，内存中只保留最近生成的指令和尚未回填的跳转，
+     * 因此写出的指令不再能访问、修改或执行，也不会由printPCodes打印
+     *
+     * @param sink 接收指令的输出，为null时恢复在内存中保留全部指令
+     */
+    public void setCodeSink(PCodeSink sink) {
+        this.codeSink = sink;
+    }
+
+    /**
+     * @return 是否设置了流式输出
+     */
+    public boolean hasCodeSink() {
+        return codeSink != null;
+    }
+
+    /**
+     * 把已完成的指令写到codeSink，没有设置流式输出时不做任何事
+     * 应在没有正在生成的表达式时调用（如一条语句结束后），之后不能再通过setCodeIndex回退到这之前
+     */
+    public void flush() throws IOException {
+        if (codeSink == null)
+            return;
+
+        //回填后的跳转先写出，并从pending中移除
+        int kept = 0;
+        for (int i = 0; i < pendingCount; i++) {
+            int index = pendingIndices[i];
+            if (pendingResolved[i] && index < codeBase) {
+                int word = pendingWords[i];
+                codeSink.write(index, CodeTypes[word & 0xFF], word >> 8, pendingArguments[i]);
+            } else if (!pendingResolved[i]) {
+                pendingIndices[kept] = index;
+                pendingWords[kept] = pendingWords[i];
+                pendingArguments[kept] = pendingArguments[i];
+                pendingResolved[kept] = false;
+                kept++;
+            }
+        }
+        pendingCount = kept;
+
+        //codes中除尚未回填的跳转外都已完成
+        int pending = 0;
+        while (pending < pendingCount && pendingIndices[pending] < codeBase)
+            pending++;
+        for (int index = codeBase; index < codeCount; index++) {
+            int offset = (index - codeBase) * CodeWidth;
+            if (pending < pendingCount && pendingIndices[pending] == index) {
+                pendingWords[pending] = codes[offset];
+                pending++;
+            } else {
+                codeSink.write(index, CodeTypes[codes[offset] & 0xFF], codes[offset] >> 8, codes[offset + 1]);
+            }
+        }
+        codeBase = codeCount;
     }
 
     /**
@@ -90,15 +330,675 @@ public class Interpreter {
      */
     private void printPCodes(int startIndex, PrintStream outputStream) {
 
-        int length = pcodes.size();
-
         System.out.println("--------------- PCodes ---------------");
-        for (int i = startIndex; i < length; i++) {
+        for (int i = Math.max(startIndex, codeBase); i < codeCount; i++) {
             outputStream.printf("%3d: ", i);//TODO PCode前的编号，可删去
-            pcodes.get(i).print(outputStream);
+            getPCodeAtIndex(i).print(outputStream);
         }
 
         System.out.println("--------------------------------------");
 
     }
+
+    /**
+     * 解释执行生成的PCode
+     *
+     * @param input  read指令的输入
+     * @param output write指令的输出
+     * @throws IOException 读取输入出错，或read时输入已结束
+     */
+    public void run(InputStream input, PrintStream output) throws IOException {
+        run(input, output, StackSize);
+    }
+
+    /**
+     * 解释执行生成的PCode，栈顶元素缓存在局部变量中
+     *
+     * @param input  read指令的输入
+     * @param output write指令的输出
+     * @throws IOException 读取输入出错，或read时输入已结束
+     */
+    public void runWithTopOfStackCache(InputStream input, PrintStream output) throws IOException {
+        runWithTopOfStackCache(input, output, StackSize);
+    }
+
+    /**
+     * 设置run执行前是否合并超级指令，默认合并
+     *
+     * @param instructionFusion
+     */
+    public void setInstructionFusion(boolean instructionFusion) {
+        this.instructionFusion = instructionFusion;
+    }
+
+    /**
+     * 设置run和runWithTopOfStackCache执行前是否特化LOD/STO，默认特化
+     * 关闭后非局部变量只经display访问，便于与runWithStaticLinks单独比较两种查找方式
+     *
+     * @param quickening
+     */
+    public void setQuickening(boolean quickening) {
+        this.quickening = quickening;
+    }
+
+    /**
+     * 解释执行生成的PCode，使用display访问非局部变量
+     * <p/>
+     * display[k]保存当前可见的第k层过程的活动记录基地址，LOD/STO/RED只需一次数组访问就能找到变量所在的活动记录，
+     * 与层次差无关。CAL时把被调用过程所在层的旧display项保存在新活动记录的SL单元中，返回时恢复。
+     * 执行前由prepareDisplayCodes生成一份层次差换算为绝对层次的代码，codes本身不变
+     * 并在副本上合并超级指令（见InstructionFusion，可用setInstructionFusion关闭），再按层次特化LOD/STO（见Quickening，可用setQuickening关闭）
+     *
+     * @param input     read指令的输入
+     * @param output    write指令的输出
+     * @param stackSize 运行栈大小
+     * @throws IOException 读取输入出错，或read时输入已结束
+     */
+    public void run(InputStream input, PrintStream output, int stackSize) throws IOException {
+
+        checkCodesInMemory();
+        ProcedureLayout layout = new ProcedureLayout(this);
+        int[] codes = prepareDisplayCodes(layout);
+        if (instructionFusion)
+            InstructionFusion.fuse(codes, codeCount);
+        if (quickening)
+            Quickening.quicken(codes, codeCount, layout);
+        int[] display = new int[layout.getMaxLevel() + 2];
+        int[] stack = new int[stackSize];
+        int p = 0;//指令指针
+        int b = 0;//当前活动记录的基地址
+        int t = -1;//栈顶指针，指向栈顶元素
+
+        //主程序的SL、DL、RA均为0，第0层的活动记录基地址为0
+        stack[0] = stack[1] = stack[2] = 0;
+        display[0] = 0;
+
+        while (true) {
+            int word = codes[p * CodeWidth];
+            int argument = codes[p * CodeWidth + 1];
+            int level = word >> 8;
+            p++;
+
+            switch (word & 0xFF) {
+                case 0://LIT 将常量放到栈顶
+                    stack[++t] = argument;
+                    break;
+                case 1://OPR 运算
+                    switch (argument) {
+                        case 0://返回
+                            if (b == 0)//主程序运行结束
+                                return;
+                            display[level] = stack[b];//level为本过程的层次，恢复被本过程覆盖的display项
+                            t = b - 1;
+                            p = stack[b + 2];
+                            b = stack[b + 1];
+                            break;
+                        case 1://取反
+                            stack[t] = -stack[t];
+                            break;
+                        case 2://加
+                            t--;
+                            stack[t] += stack[t + 1];
+                            break;
+                        case 3://减
+                            t--;
+                            stack[t] -= stack[t + 1];
+                            break;
+                        case 4://乘
+                            t--;
+                            stack[t] *= stack[t + 1];
+                            break;
+                        case 5://除
+                            t--;
+                            stack[t] /= stack[t + 1];
+                            break;
+                        case 6://判奇
+                            stack[t] &= 1;
+                            break;
+                        case 8://=
+                            t--;
+                            stack[t] = stack[t] == stack[t + 1] ? 1 : 0;
+                            break;
+                        case 9://<>
+                            t--;
+                            stack[t] = stack[t] != stack[t + 1] ? 1 : 0;
+                            break;
+                        case 10://<
+                            t--;
+                            stack[t] = stack[t] < stack[t + 1] ? 1 : 0;
+                            break;
+                        case 11://<=
+                            t--;
+                            stack[t] = stack[t] <= stack[t + 1] ? 1 : 0;
+                            break;
+                        case 12://>
+                            t--;
+                            stack[t] = stack[t] > stack[t + 1] ? 1 : 0;
+                            break;
+                        case 13://>=
+                            t--;
+                            stack[t] = stack[t] >= stack[t + 1] ? 1 : 0;
+                            break;
+                        default:
+                            throw new IllegalStateException("非法的OPR指令: " + argument + " at " + (p - 1));
+                    }
+                    break;
+                case 2://LOD 将变量放到栈顶，level为变量所在的层次
+                    stack[++t] = stack[display[level] + argument];
+                    break;
+                case 3://STO 将栈顶内容存入变量
+                    stack[display[level] + argument] = stack[t--];
+                    break;
+                case 4://CAL 调用过程，level为被调用过程的层次
+                    stack[t + 1] = display[level];
+                    stack[t + 2] = b;
+                    stack[t + 3] = p;
+                    b = t + 1;
+                    display[level] = b;
+                    p = argument;
+                    break;
+                case 5://INT 分配数据空间
+                    t += argument;
+                    if (t + layout.getStackReserve(p - 1) >= stackSize)//还要放下表达式和下一次调用的SL、DL、RA
+                        throw new IllegalStateException("运行栈溢出 at " + (p - 1));
+                    clearVariables(stack, b, t);
+                    break;
+                case 6://JMP
+                    p = argument;
+                    break;
+                case 7://JPC 栈顶为0时跳转
+                    if (stack[t--] == 0)
+                        p = argument;
+                    break;
+                case 8://RED 读入一个整数存入变量
+                    stack[display[level] + argument] = readInteger(input);
+                    break;
+                case 9://WRT 输出栈顶的值
+                    output.println(stack[t--]);
+                    break;
+
+                //以下为按层次特化的LOD/STO
+                case Quickening.LOD0://当前过程的变量
+                    stack[++t] = stack[b + argument];
+                    break;
+                case Quickening.LODG://主程序的变量
+                    stack[++t] = stack[argument];
+                    break;
+                case Quickening.STO0:
+                    stack[b + argument] = stack[t--];
+                    break;
+                case Quickening.STOG:
+                    stack[argument] = stack[t--];
+                    break;
+
+                //以下为超级指令，p指向序列的第二条指令，其余操作数从序列中后续指令的位置读取
+                case InstructionFusion.INC://LOD l,a; LIT k; OPR +; STO l,a
+                    stack[display[level] + argument] += codes[p * CodeWidth + 1];
+                    p += 3;
+                    break;
+                case InstructionFusion.LODLIT_CMP_JPC://LOD l,a; LIT k; OPR 比较; JPC
+                    if (operate(codes[(p + 1) * CodeWidth + 1], stack[display[level] + argument], codes[p * CodeWidth + 1]) == 0)
+                        p = codes[(p + 2) * CodeWidth + 1];
+                    else
+                        p += 3;
+                    break;
+                case InstructionFusion.CMP_JPC://OPR 比较; JPC
+                    t -= 2;
+                    if (operate(argument, stack[t + 1], stack[t + 2]) == 0)
+                        p = codes[p * CodeWidth + 1];
+                    else
+                        p++;
+                    break;
+                case InstructionFusion.LOD_STO://LOD; STO
+                    stack[display[codes[p * CodeWidth] >> 8] + codes[p * CodeWidth + 1]] = stack[display[level] + argument];
+                    p++;
+                    break;
+                case InstructionFusion.LODLIT_ADD://LOD l,a; LIT k; OPR +
+                    stack[++t] = stack[display[level] + argument] + codes[p * CodeWidth + 1];
+                    p += 2;
+                    break;
+                case InstructionFusion.LODLIT_OPR://LOD l,a; LIT k; OPR op
+                    stack[++t] = operate(codes[(p + 1) * CodeWidth + 1], stack[display[level] + argument], codes[p * CodeWidth + 1]);
+                    p += 2;
+                    break;
+                case InstructionFusion.LOD_LOD_OPR://LOD; LOD; OPR op
+                    stack[++t] = operate(codes[(p + 1) * CodeWidth + 1], stack[display[level] + argument],
+                            stack[display[codes[p * CodeWidth] >> 8] + codes[p * CodeWidth + 1]]);
+                    p += 2;
+                    break;
+                default:
+                    throw new IllegalStateException("非法指令 at " + (p - 1));
+            }
+        }
+    }
+
+    /**
+     * 解释执行生成的PCode，栈顶元素缓存在局部变量top中
+     * <p/>
+     * 与run相同使用display和按层次特化的代码，但不合并超级指令。
+     * 约定：逻辑上的stack[t]保存在top中，stack[0..t-1]总是与内存一致，内存中的stack[t]可能已过时。
+     * 压栈时先把top写回stack[t]，二元运算只读一次内存(次栈顶)，不再写回结果；
+     * 出栈后新的栈顶从内存重新装入top。语句之间表达式栈为空，此时stack[t]是变量，内存与top一致，
+     * 因此LOD/STO可以直接访问内存中的变量，只有RED可能写到stack[t]，写后需要重新装入top
+     *
+     * @param input     read指令的输入
+     * @param output    write指令的输出
+     * @param stackSize 运行栈大小
+     * @throws IOException 读取输入出错，或read时输入已结束
+     */
+    public void runWithTopOfStackCache(InputStream input, PrintStream output, int stackSize) throws IOException {
+
+        checkCodesInMemory();
+        ProcedureLayout layout = new ProcedureLayout(this);
+        int[] codes = prepareDisplayCodes(layout);
+        if (quickening)
+            Quickening.quicken(codes, codeCount, layout);
+        int[] display = new int[layout.getMaxLevel() + 2];
+        int[] stack = new int[stackSize];
+        int p = 0;//指令指针
+        int b = 0;//当前活动记录的基地址
+        int t = -1;//栈顶指针，指向栈顶元素
+        int top = 0;//逻辑上的stack[t]
+
+        while (true) {
+            int word = codes[p * CodeWidth];
+            int argument = codes[p * CodeWidth + 1];
+            int level = word >> 8;
+            p++;
+
+            switch (word & 0xFF) {
+                case 0://LIT 将常量放到栈顶
+                    stack[t++] = top;
+                    top = argument;
+                    break;
+                case 1://OPR 运算
+                    switch (argument) {
+                        case 0://返回
+                            if (b == 0)//主程序运行结束
+                                return;
+                            display[level] = stack[b];
+                            t = b - 1;
+                            p = stack[b + 2];
+                            b = stack[b + 1];
+                            top = stack[t];
+                            break;
+                        case 1://取反
+                            top = -top;
+                            break;
+                        case 2://加
+                            top = stack[--t] + top;
+                            break;
+                        case 3://减
+                            top = stack[--t] - top;
+                            break;
+                        case 4://乘
+                            top = stack[--t] * top;
+                            break;
+                        case 5://除
+                            top = stack[--t] / top;
+                            break;
+                        case 6://判奇
+                            top &= 1;
+                            break;
+                        case 8://=
+                            top = stack[--t] == top ? 1 : 0;
+                            break;
+                        case 9://<>
+                            top = stack[--t] != top ? 1 : 0;
+                            break;
+                        case 10://<
+                            top = stack[--t] < top ? 1 : 0;
+                            break;
+                        case 11://<=
+                            top = stack[--t] <= top ? 1 : 0;
+                            break;
+                        case 12://>
+                            top = stack[--t] > top ? 1 : 0;
+                            break;
+                        case 13://>=
+                            top = stack[--t] >= top ? 1 : 0;
+                            break;
+                        default:
+                            throw new IllegalStateException("非法的OPR指令: " + argument + " at " + (p - 1));
+                    }
+                    break;
+                case 2://LOD
+                    stack[t++] = top;
+                    top = stack[display[level] + argument];
+                    break;
+                case 3://STO
+                    stack[display[level] + argument] = top;
+                    top = stack[--t];
+                    break;
+                case 4://CAL 调用时表达式栈为空，top与内存一致
+                    stack[t + 1] = display[level];
+                    stack[t + 2] = b;
+                    stack[t + 3] = p;
+                    b = t + 1;
+                    display[level] = b;
+                    p = argument;
+                    break;
+                case 5://INT
+                    t += argument;
+                    if (t + layout.getStackReserve(p - 1) >= stackSize)//还要放下表达式和下一次调用的SL、DL、RA
+                        throw new IllegalStateException("运行栈溢出 at " + (p - 1));
+                    clearVariables(stack, b, t);
+                    top = stack[t];
+                    break;
+                case 6://JMP
+                    p = argument;
+                    break;
+                case 7://JPC
+                    if (top == 0)
+                        p = argument;
+                    top = stack[--t];
+                    break;
+                case 8://RED
+                    stack[display[level] + argument] = readInteger(input);
+                    top = stack[t];
+                    break;
+                case 9://WRT
+                    output.println(top);
+                    top = stack[--t];
+                    break;
+                case Quickening.LOD0:
+                    stack[t++] = top;
+                    top = stack[b + argument];
+                    break;
+                case Quickening.LODG:
+                    stack[t++] = top;
+                    top = stack[argument];
+                    break;
+                case Quickening.STO0:
+                    stack[b + argument] = top;
+                    top = stack[--t];
+                    break;
+                case Quickening.STOG:
+                    stack[argument] = top;
+                    top = stack[--t];
+                    break;
+                default:
+                    throw new IllegalStateException("非法指令 at " + (p - 1));
+            }
+        }
+    }
+
+    /**
+     * 超级指令中的二元运算
+     *
+     * @param operation OPR指令的参数，2~5或8~13
+     * @param a         左操作数
+     * @param b         右操作数
+     * @return 运算结果，比较运算为1或0
+     */
+    private static int operate(int operation, int a, int b) {
+        switch (operation) {
+            case 2://加
+                return a + b;
+            case 3://减
+                return a - b;
+            case 4://乘
+                return a * b;
+            case 5://除
+                return a / b;
+            case 8://=
+                return a == b ? 1 : 0;
+            case 9://<>
+                return a != b ? 1 : 0;
+            case 10://<
+                return a < b ? 1 : 0;
+            case 11://<=
+                return a <= b ? 1 : 0;
+            case 12://>
+                return a > b ? 1 : 0;
+            case 13://>=
+                return a >= b ? 1 : 0;
+            default:
+                throw new IllegalStateException("非法的OPR指令: " + operation);
+        }
+    }
+
+    /**
+     * 流式输出的代码已经不在内存中，不能执行
+     */
+    private void checkCodesInMemory() {
+        if (codeSink != null)
+            throw new IllegalStateException("代码已流式输出，不在内存中");
+    }
+
+    /**
+     * 生成供display方式执行的代码副本：
+     * LOD/STO/RED的层次差换算为变量所在的层次，CAL的层次差换算为被调用过程的层次，
+     * 返回指令OPR 0,0的层次字段填入所在过程的层次
+     *
+     * @param layout 各过程的分布
+     * @return 与codes格式相同的新数组
+     */
+    private int[] prepareDisplayCodes(ProcedureLayout layout) {
+        int[] prepared = Arrays.copyOf(codes, codeCount * CodeWidth);
+
+        for (int i = 0; i < codeCount; i++) {
+            int owner = layout.getOwner(i);
+            if (owner < 0)//不可达的代码
+                continue;
+
+            int word = prepared[i * CodeWidth];
+            int type = word & 0xFF;
+            int level = layout.getLevel(owner);
+
+            if (type == PCode.CodeType.LOD.ordinal() || type == PCode.CodeType.STO.ordinal() ||
+                    type == PCode.CodeType.RED.ordinal()) {
+                prepared[i * CodeWidth] = encode(type, level - (word >> 8));
+            } else if (type == PCode.CodeType.CAL.ordinal()) {
+                prepared[i * CodeWidth] = encode(type, level - (word >> 8) + 1);
+            } else if (type == PCode.CodeType.OPR.ordinal() && prepared[i * CodeWidth + 1] == 0) {
+                prepared[i * CodeWidth] = encode(type, level);
+            }
+        }
+        return prepared;
+    }
+
+    /**
+     * 解释执行生成的PCode，每次访问非局部变量都沿静态链查找活动记录
+     * <p/>
+     * 这是最直接的实现，作为其他执行方式的参照
+     * 直接在紧凑存储的codes上执行，执行循环中只做数组访问和switch分派，不再产生任何对象
+     *
+     * @param input     read指令的输入
+     * @param output    write指令的输出
+     * @param stackSize 运行栈大小
+     * @throws IOException 读取输入出错，或read时输入已结束
+     */
+    public void runWithStaticLinks(InputStream input, PrintStream output, int stackSize) throws IOException {
+
+        checkCodesInMemory();
+        int[] codes = this.codes;
+        ProcedureLayout layout = new ProcedureLayout(this);//只用于INT时检查运行栈
+        int[] stack = new int[stackSize];
+        int p = 0;//指令指针
+        int b = 0;//当前活动记录的基地址
+        int t = -1;//栈顶指针，指向栈顶元素
+
+        //主程序的SL、DL、RA均为0
+        stack[0] = stack[1] = stack[2] = 0;
+
+        while (true) {
+            int word = codes[p * CodeWidth];
+            int argument = codes[p * CodeWidth + 1];
+            int level = word >> 8;
+            p++;
+
+            switch (word & 0xFF) {
+                case 0://LIT 将常量放到栈顶
+                    stack[++t] = argument;
+                    break;
+                case 1://OPR 运算
+                    switch (argument) {
+                        case 0://返回
+                            if (b == 0)//主程序运行结束
+                                return;
+                            t = b - 1;
+                            p = stack[b + 2];
+                            b = stack[b + 1];
+                            break;
+                        case 1://取反
+                            stack[t] = -stack[t];
+                            break;
+                        case 2://加
+                            t--;
+                            stack[t] += stack[t + 1];
+                            break;
+                        case 3://减
+                            t--;
+                            stack[t] -= stack[t + 1];
+                            break;
+                        case 4://乘
+                            t--;
+                            stack[t] *= stack[t + 1];
+                            break;
+                        case 5://除
+                            t--;
+                            stack[t] /= stack[t + 1];
+                            break;
+                        case 6://判奇
+                            stack[t] &= 1;
+                            break;
+                        case 8://=
+                            t--;
+                            stack[t] = stack[t] == stack[t + 1] ? 1 : 0;
+                            break;
+                        case 9://<>
+                            t--;
+                            stack[t] = stack[t] != stack[t + 1] ? 1 : 0;
+                            break;
+                        case 10://<
+                            t--;
+                            stack[t] = stack[t] < stack[t + 1] ? 1 : 0;
+                            break;
+                        case 11://<=
+                            t--;
+                            stack[t] = stack[t] <= stack[t + 1] ? 1 : 0;
+                            break;
+                        case 12://>
+                            t--;
+                            stack[t] = stack[t] > stack[t + 1] ? 1 : 0;
+                            break;
+                        case 13://>=
+                            t--;
+                            stack[t] = stack[t] >= stack[t + 1] ? 1 : 0;
+                            break;
+                        default:
+                            throw new IllegalStateException("非法的OPR指令: " + argument + " at " + (p - 1));
+                    }
+                    break;
+                case 2://LOD 将变量放到栈顶
+                    stack[++t] = stack[base(stack, b, level) + argument];
+                    break;
+                case 3://STO 将栈顶内容存入变量
+                    stack[base(stack, b, level) + argument] = stack[t--];
+                    break;
+                case 4://CAL 调用过程
+                    stack[t + 1] = base(stack, b, level);
+                    stack[t + 2] = b;
+                    stack[t + 3] = p;
+                    b = t + 1;
+                    p = argument;
+                    break;
+                case 5://INT 分配数据空间
+                    t += argument;
+                    if (t + layout.getStackReserve(p - 1) >= stackSize)//还要放下表达式和下一次调用的SL、DL、RA
+                        throw new IllegalStateException("运行栈溢出 at " + (p - 1));
+                    clearVariables(stack, b, t);
+                    break;
+                case 6://JMP
+                    p = argument;
+                    break;
+                case 7://JPC 栈顶为0时跳转
+                    if (stack[t--] == 0)
+                        p = argument;
+                    break;
+                case 8://RED 读入一个整数存入变量
+                    stack[base(stack, b, level) + argument] = readInteger(input);
+                    break;
+                case 9://WRT 输出栈顶的值
+                    output.println(stack[t--]);
+                    break;
+                default:
+                    throw new IllegalStateException("非法指令 at " + (p - 1));
+            }
+        }
+    }
+
+    /**
+     * 沿静态链向上查找层次差为levelDifference的活动记录的基地址
+     *
+     * @param stack           运行栈
+     * @param b               当前活动记录的基地址
+     * @param levelDifference 层次差
+     * @return 基地址
+     */
+    private static int base(int[] stack, int b, int levelDifference) {
+        while (levelDifference > 0) {
+            b = stack[b];
+            levelDifference--;
+        }
+        return b;
+    }
+
+    /**
+     * INT指令分配活动记录后将其中的变量清零
+     * 各执行方式都按这一规则初始化变量（JIT的局部变量和活动记录本来就是0），
+     * 先读后写的变量因此不会读到运行栈中残留的值
+     *
+     * @param stack 运行栈
+     * @param b     活动记录的基地址
+     * @param t     活动记录的最后一个单元
+     */
+    public static void clearVariables(int[] stack, int b, int t) {
+        for (int i = b + FrameHeaderSize; i <= t; i++)
+            stack[i] = 0;
+    }
+
+    /**
+     * 从输入中读取一个整数，跳过前面的空白
+     * read指令的实现，其他执行方式也使用这个方法以保证行为一致
+     *
+     * @param input 输入
+     * @return 读到的整数
+     * @throws IOException 输入已结束，读到的不是整数，或整数超出int的范围
+     */
+    public static int readInteger(InputStream input) throws IOException {
+        int c = input.read();
+        while (Character.isWhitespace(c))
+            c = input.read();
+
+        if (c == -1)
+            throw new EOFException("read指令没有可读入的整数");
+
+        boolean negative = c == '-';
+        if (negative)
+            c = input.read();
+        if (c < '0' || c > '9')
+            throw new IOException("read指令读入的不是整数");
+
+        //按负数累加，Integer.MIN_VALUE也能读入
+        int value = 0;
+        while (c >= '0' && c <= '9') {
+            try {
+                value = Math.subtractExact(Math.multiplyExact(value, 10), c - '0');
+            } catch (ArithmeticException e) {
+                throw new IOException("read指令读入的整数超出范围");
+            }
+            c = input.read();
+        }
+        if (c != -1 && !Character.isWhitespace(c))
+            throw new IOException("read指令读入的不是整数");
+
+        if (!negative) {
+            if (value == Integer.MIN_VALUE)
+                throw new IOException("read指令读入的整数超出范围");
+            value = -value;
+        }
+        return value;
+    }
 }
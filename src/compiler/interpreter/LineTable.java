@@ -0,0 +1,49 @@
+package compiler.interpreter;
+
+import java.util.Arrays;
+
+/**
+ * 调试用的行号表：记录每条语句的代码从哪条指令开始、位于源程序的哪一行
+ * 只在行号变化处记录一项，按指令下标递增
+ */
+public final class LineTable {
+
+    private int[] codeIndices = new int[64];
+    private int[] lines = new int[64];
+    private int size = 0;
+
+    /**
+     * 记录从codeIndex开始的代码位于第line行
+     * codeIndex与上一项相同时（如复合语句与其中第一条语句）以后记录的为准
+     */
+    public void add(int codeIndex, int line) {
+        if (size > 0 && codeIndices[size - 1] == codeIndex) {
+            lines[size - 1] = line;
+            if (size > 1 && lines[size - 2] == line)
+                size--;
+            return;
+        }
+        if (size > 0 && (lines[size - 1] == line || codeIndices[size - 1] > codeIndex))
+            return;
+
+        if (size == codeIndices.length) {
+            codeIndices = Arrays.copyOf(codeIndices, size * 2);
+            lines = Arrays.copyOf(lines, size * 2);
+        }
+        codeIndices[size] = codeIndex;
+        lines[size] = line;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCodeIndex(int index) {
+        return codeIndices[index];
+    }
+
+    public int getLine(int index) {
+        return lines[index];
+    }
+}
@@ -0,0 +1,397 @@
+package compiler.interpreter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 由ObjectFile.map装入的目标文件
+ * <p/>
+ * 不复制、不解码，执行时每条指令直接从映射的缓冲区中读取，因此装入的时间只有映射和一遍校验。
+ * 校验保证操作码合法、跳转和调用的目标都在代码范围内、执行不会越过代码末尾，执行循环中不再检查；
+ * 校验时顺序扫描一遍各过程体，记下每条INT之后要留出的运行栈单元数（见ProcedureLayout.getStackReserve）
+ * 行号表和过程表只在运行出错时用来指出出错的位置
+ */
+public final class MappedProgram {
+
+    private static final int StackSize = 1000;
+
+    private static final int LIT = PCode.CodeType.LIT.ordinal();
+    private static final int OPR = PCode.CodeType.OPR.ordinal();
+    private static final int LOD = PCode.CodeType.LOD.ordinal();
+    private static final int STO = PCode.CodeType.STO.ordinal();
+    private static final int CAL = PCode.CodeType.CAL.ordinal();
+    private static final int INT = PCode.CodeType.INT.ordinal();
+    private static final int JMP = PCode.CodeType.JMP.ordinal();
+    private static final int JPC = PCode.CodeType.JPC.ordinal();
+    private static final int WRT = PCode.CodeType.WRT.ordinal();
+    private static final int CodeTypeCount = PCode.CodeType.values().length;
+
+    private ByteBuffer buffer = null;
+
+    private int codeCount = 0;
+    private int procedureCount = 0;
+    private int lineCount = 0;
+
+    /*
+     * 过程表、行号表和名字区在文件中的位置
+     */
+    private int procedureOffset = 0;
+    private int lineOffset = 0;
+    private int nameOffset = 0;
+
+    /**
+     * 各INT指令的地址（递增）和该过程要在活动记录之上留出的运行栈单元数
+     */
+    private int[] reserveEntries = new int[16];
+    private int[] reserves = new int[16];
+    private int reserveCount = 0;
+    private int maxReserve = Interpreter.FrameHeaderSize;
+
+    MappedProgram(ByteBuffer buffer, String source) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < ObjectFile.HeaderSize || buffer.getInt(0) != ObjectFile.Magic)
+            throw new IOException("不是p0c目标文件: " + source);
+        int version = buffer.getInt(4);
+        if (version != ObjectFile.Version)
+            throw new IOException("不支持的目标文件版本" + version + ": " + source);
+
+        codeCount = buffer.getInt(12);
+        procedureCount = buffer.getInt(16);
+        lineCount = (buffer.getInt(8) & ObjectFile.HasLineTable) != 0 ? buffer.getInt(20) : 0;
+
+        long procedures = ObjectFile.HeaderSize + (long) codeCount * PCodeFile.RecordSize;
+        long lines = procedures + (long) procedureCount * ObjectFile.ProcedureRecordSize;
+        long names = lines + (long) lineCount * ObjectFile.LineRecordSize;
+        if (codeCount <= 0 || procedureCount < 0 || lineCount < 0 || names > buffer.limit())
+            throw new IOException("目标文件不完整: " + source);
+        procedureOffset = (int) procedures;
+        lineOffset = (int) lines;
+        nameOffset = (int) names;
+
+        verify(source);
+    }
+
+    /**
+     * 检查每条指令的操作码，以及跳转和调用的目标
+     */
+    private void verify(String source) throws IOException {
+        for (int i = 0; i < codeCount; i++) {
+            int word = buffer.getInt(ObjectFile.HeaderSize + i * PCodeFile.RecordSize);
+            int argument = buffer.getInt(ObjectFile.HeaderSize + i * PCodeFile.RecordSize + 4);
+            int type = word & 0xFF;
+            if (type >= CodeTypeCount || (word >> 8) < 0)
+                throw new IOException("目标文件中有非法的指令 at " + i + ": " + source);
+            if ((type == JMP || type == JPC || type == CAL) && (argument < 0 || argument >= codeCount))
+                throw new IOException("目标文件中的跳转地址越界 at " + i + ": " + source);
+        }
+        findStackReserves();
+
+        //最后一条指令是返回或跳转，执行不会越过代码的末尾
+        int last = ObjectFile.HeaderSize + (codeCount - 1) * PCodeFile.RecordSize;
+        int type = buffer.getInt(last) & 0xFF;
+        if (!(type == JMP || type == OPR && buffer.getInt(last + 4) == 0))
+            throw new IOException("目标文件中的代码不完整: " + source);
+    }
+
+    /**
+     * 过程体(INT ... OPR 0,0)之间不交叉，语句之间表达式栈为空，顺序扫描即可得到每个过程表达式栈的最大深度
+     */
+    private void findStackReserves() {
+        int depth = 0;
+        int maxDepth = 0;
+        for (int i = 0; i < codeCount; i++) {
+            int type = buffer.getInt(ObjectFile.HeaderSize + i * PCodeFile.RecordSize) & 0xFF;
+            int argument = buffer.getInt(ObjectFile.HeaderSize + i * PCodeFile.RecordSize + 4);
+            if (type == INT) {
+                if (reserveCount == reserves.length) {
+                    reserveEntries = Arrays.copyOf(reserveEntries, reserveCount * 2);
+                    reserves = Arrays.copyOf(reserves, reserveCount * 2);
+                }
+                reserveEntries[reserveCount] = i;
+                reserves[reserveCount++] = Interpreter.FrameHeaderSize;
+                depth = maxDepth = 0;
+            } else if (type == LIT || type == LOD) {
+                depth++;
+            } else if (type == STO || type == JPC || type == WRT ||
+                    (type == OPR && ((argument >= 2 && argument <= 5) || (argument >= 8 && argument <= 13)))) {
+                depth = Math.max(depth - 1, 0);
+            }
+            maxDepth = Math.max(maxDepth, depth);
+            if (reserveCount > 0 && maxDepth > reserves[reserveCount - 1]) {
+                reserves[reserveCount - 1] = maxDepth;
+                maxReserve = Math.max(maxReserve, maxDepth);
+            }
+        }
+    }
+
+    /**
+     * @param entry INT指令的地址
+     * @return 该过程要在活动记录之上留出的运行栈单元数
+     */
+    private int getStackReserve(int entry) {
+        int index = Arrays.binarySearch(reserveEntries, 0, reserveCount, entry);
+        return index >= 0 ? reserves[index] : Interpreter.FrameHeaderSize;
+    }
+
+    /**
+     * @return 指令条数
+     */
+    public int getCodeCount() {
+        return codeCount;
+    }
+
+    /**
+     * @return 过程个数（含主程序）
+     */
+    public int getProcedureCount() {
+        return procedureCount;
+    }
+
+    /**
+     * @param index 过程按入口地址排序后的序号
+     * @return 过程名，主程序为空串
+     */
+    public String getProcedureName(int index) {
+        int offset = nameOffset + buffer.getInt(procedureOffset + index * ObjectFile.ProcedureRecordSize + 12);
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = buffer.get(offset + 4 + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return 过程的入口地址，即过程体INT指令的位置
+     */
+    public int getProcedureEntry(int index) {
+        return buffer.getInt(procedureOffset + index * ObjectFile.ProcedureRecordSize);
+    }
+
+    /**
+     * @return 过程活动记录的大小
+     */
+    public int getProcedureSize(int index) {
+        return buffer.getInt(procedureOffset + index * ObjectFile.ProcedureRecordSize + 4);
+    }
+
+    /**
+     * @return 过程体所在的层次
+     */
+    public int getProcedureLevel(int index) {
+        return buffer.getInt(procedureOffset + index * ObjectFile.ProcedureRecordSize + 8);
+    }
+
+    /**
+     * @return 是否有行号表
+     */
+    public boolean hasLineTable() {
+        return lineCount > 0;
+    }
+
+    /**
+     * @return 指令所在的源程序行号，没有行号表时为-1
+     */
+    public int getLine(int codeIndex) {
+        //最后一个起始指令不大于codeIndex的项
+        int low = 0;
+        int high = lineCount - 1;
+        int line = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (buffer.getInt(lineOffset + middle * ObjectFile.LineRecordSize) <= codeIndex) {
+                line = buffer.getInt(lineOffset + middle * ObjectFile.LineRecordSize + 4);
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return line;
+    }
+
+    /**
+     * @return 指令所属过程的序号，即入口地址不大于codeIndex的最后一个过程；嵌套过程的代码在外层过程体之前，因此不会混淆
+     */
+    public int getProcedureIndex(int codeIndex) {
+        int low = 0;
+        int high = procedureCount - 1;
+        int index = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (getProcedureEntry(middle) <= codeIndex) {
+                index = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return 用于错误信息的位置描述：指令下标，以及能找到时所在的过程和行号
+     */
+    public String describe(int codeIndex) {
+        StringBuilder description = new StringBuilder().append(codeIndex);
+        int procedure = getProcedureIndex(codeIndex);
+        if (procedure >= 0) {
+            String name = getProcedureName(procedure);
+            description.append(" in ").append(name.isEmpty() ? "<main>" : name);
+        }
+        int line = getLine(codeIndex);
+        if (line >= 0)
+            description.append(" line ").append(line);
+        return description.toString();
+    }
+
+    /**
+     * 执行装入的代码
+     *
+     * @param input  read指令的输入
+     * @param output write指令的输出
+     * @throws IOException 读取输入出错，或read时输入已结束
+     */
+    public void run(InputStream input, PrintStream output) throws IOException {
+        run(input, output, StackSize);
+    }
+
+    /**
+     * 直接在映射的缓冲区上执行，非局部变量沿静态链查找，与Interpreter.runWithStaticLinks相同
+     *
+     * @param input     read指令的输入
+     * @param output    write指令的输出
+     * @param stackSize 运行栈大小
+     * @throws IOException 读取输入出错，或read时输入已结束
+     */
+    public void run(InputStream input, PrintStream output, int stackSize) throws IOException {
+
+        ByteBuffer codes = buffer;
+        int[] stack = new int[stackSize];
+        int p = 0;//指令指针
+        int b = 0;//当前活动记录的基地址
+        int t = -1;//栈顶指针，指向栈顶元素
+
+        //主程序的SL、DL、RA均为0
+        stack[0] = stack[1] = stack[2] = 0;
+
+        try {
+            while (true) {
+                int offset = ObjectFile.HeaderSize + p * PCodeFile.RecordSize;
+                int word = codes.getInt(offset);
+                int argument = codes.getInt(offset + 4);
+                int level = word >> 8;
+                p++;
+
+                switch (word & 0xFF) {
+                    case 0://LIT 将常量放到栈顶
+                        stack[++t] = argument;
+                        break;
+                    case 1://OPR 运算
+                        switch (argument) {
+                            case 0://返回
+                                if (b == 0)//主程序运行结束
+                                    return;
+                                t = b - 1;
+                                p = stack[b + 2];
+                                b = stack[b + 1];
+                                break;
+                            case 1://取反
+                                stack[t] = -stack[t];
+                                break;
+                            case 2://加
+                                t--;
+                                stack[t] += stack[t + 1];
+                                break;
+                            case 3://减
+                                t--;
+                                stack[t] -= stack[t + 1];
+                                break;
+                            case 4://乘
+                                t--;
+                                stack[t] *= stack[t + 1];
+                                break;
+                            case 5://除
+                                t--;
+                                stack[t] /= stack[t + 1];
+                                break;
+                            case 6://判奇
+                                stack[t] &= 1;
+                                break;
+                            case 8://=
+                                t--;
+                                stack[t] = stack[t] == stack[t + 1] ? 1 : 0;
+                                break;
+                            case 9://<>
+                                t--;
+                                stack[t] = stack[t] != stack[t + 1] ? 1 : 0;
+                                break;
+                            case 10://<
+                                t--;
+                                stack[t] = stack[t] < stack[t + 1] ? 1 : 0;
+                                break;
+                            case 11://<=
+                                t--;
+                                stack[t] = stack[t] <= stack[t + 1] ? 1 : 0;
+                                break;
+                            case 12://>
+                                t--;
+                                stack[t] = stack[t] > stack[t + 1] ? 1 : 0;
+                                break;
+                            case 13://>=
+                                t--;
+                                stack[t] = stack[t] >= stack[t + 1] ? 1 : 0;
+                                break;
+                            default:
+                                throw new IllegalStateException("非法的OPR指令: " + argument + " at " + describe(p - 1));
+                        }
+                        break;
+                    case 2://LOD 将变量放到栈顶
+                        stack[++t] = stack[base(stack, b, level) + argument];
+                        break;
+                    case 3://STO 将栈顶内容存入变量
+                        stack[base(stack, b, level) + argument] = stack[t--];
+                        break;
+                    case 4://CAL 调用过程
+                        stack[t + 1] = base(stack, b, level);
+                        stack[t + 2] = b;
+                        stack[t + 3] = p;
+                        b = t + 1;
+                        p = argument;
+                        break;
+                    case 5://INT 分配数据空间
+                        t += argument;
+                        //先按最大的留出量粗查，接近栈顶时才查找本过程的留出量
+                        if (t + maxReserve >= stackSize && t + getStackReserve(p - 1) >= stackSize)
+                            throw new IllegalStateException("运行栈溢出 at " + describe(p - 1));
+                        Interpreter.clearVariables(stack, b, t);
+                        break;
+                    case 6://JMP
+                        p = argument;
+                        break;
+                    case 7://JPC 栈顶为0时跳转
+                        if (stack[t--] == 0)
+                            p = argument;
+                        break;
+                    case 8://RED 读入一个整数存入变量
+                        stack[base(stack, b, level) + argument] = Interpreter.readInteger(input);
+                        break;
+                    case 9://WRT 输出栈顶的值
+                        output.println(stack[t--]);
+                        break;
+                }
+            }
+        } catch (ArithmeticException e) {//除以0
+            throw new ArithmeticException(e.getMessage() + " at " + describe(p - 1));
+        }
+    }
+
+    private static int base(int[] stack, int b, int levelDifference) {
+        while (levelDifference > 0) {
+            b = stack[b];
+            levelDifference--;
+        }
+        return b;
+    }
+}
@@ -0,0 +1,167 @@
+package compiler.interpreter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 编译结果的二进制目标文件(.p0c)，可以不经重新编译直接由map装入执行
+ * <p/>
+ * 文件中的int都是大端序，依次为：
+ * 1. 文件头：魔数"P0C\0"、版本号、标志（第0位表示有行号表）、指令条数、过程个数、行号表项数，共24字节
+ * 2. 指令：每条8字节，格式与PCodeFile相同
+ * 3. 过程表：每个过程16字节，依次为入口地址（INT指令的位置）、活动记录大小、过程体所在的层次、过程名在名字区中的偏移，按入口地址递增
+ * 4. 行号表：每项8字节，依次为指令下标、行号，按指令下标递增
+ * 5. 名字区：每个过程名为一个int长度和UTF-8编码的字节，主程序的名字为空串
+ */
+public final class ObjectFile {
+
+    static final int Magic = 0x50304300;//"P0C\0"
+    static final int Version = 1;
+
+    /**
+     * 标志位：文件中有行号表
+     */
+    static final int HasLineTable = 1;
+
+    static final int HeaderSize = 24;
+    static final int ProcedureRecordSize = 16;
+    static final int LineRecordSize = 8;
+
+    /*
+     * 过程表，写出时按入口地址排序
+     */
+    private String[] names = new String[16];
+    private int[] entries = new int[16];
+    private int[] sizes = new int[16];
+    private int[] levels = new int[16];
+    private int procedureCount = 0;
+
+    private LineTable lineTable = null;
+
+    /**
+     * 登记一个过程
+     *
+     * @param name  过程名，主程序为空串
+     * @param level 过程体所在的层次，主程序为0
+     * @param entry 入口地址，即过程体INT指令的位置
+     * @param size  活动记录的大小（含SL、DL、RA）
+     */
+    public void addProcedure(String name, int level, int entry, int size) {
+        if (procedureCount == names.length) {
+            names = Arrays.copyOf(names, procedureCount * 2);
+            entries = Arrays.copyOf(entries, procedureCount * 2);
+            sizes = Arrays.copyOf(sizes, procedureCount * 2);
+            levels = Arrays.copyOf(levels, procedureCount * 2);
+        }
+        names[procedureCount] = name;
+        entries[procedureCount] = entry;
+        sizes[procedureCount] = size;
+        levels[procedureCount] = level;
+        procedureCount++;
+    }
+
+    /**
+     * 设置写入的行号表，为null时不写行号表
+     */
+    public void setLineTable(LineTable lineTable) {
+        this.lineTable = lineTable;
+    }
+
+    /**
+     * 写出interpreter中的全部代码
+     */
+    public void write(Path path, Interpreter interpreter) throws IOException {
+        try (DataOutputStream output = open(path)) {
+            int codeCount = interpreter.getCodeIndex();
+            writeHeader(output, codeCount);
+            for (int i = 0; i < codeCount; i++) {
+                output.writeInt((interpreter.getLevelDifferenceAtIndex(i) << 8) | interpreter.getCodeTypeAtIndex(i).ordinal());
+                output.writeInt(interpreter.getArgumentAtIndex(i));
+            }
+            writeTables(output);
+        }
+    }
+
+    /**
+     * 写出流式输出到PCodeFile中的代码，代码按字节复制，不读入内存
+     */
+    public void write(Path path, Path codeFile) throws IOException {
+        try (DataOutputStream output = open(path)) {
+            writeHeader(output, (int) (Files.size(codeFile) / PCodeFile.RecordSize));
+            Files.copy(codeFile, output);
+            writeTables(output);
+        }
+    }
+
+    private static DataOutputStream open(Path path) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+    }
+
+    private void writeHeader(DataOutputStream output, int codeCount) throws IOException {
+        output.writeInt(Magic);
+        output.writeInt(Version);
+        output.writeInt(lineTable != null ? HasLineTable : 0);
+        output.writeInt(codeCount);
+        output.writeInt(procedureCount);
+        output.writeInt(lineTable != null ? lineTable.size() : 0);
+    }
+
+    private void writeTables(DataOutputStream output) throws IOException {
+        //按入口地址排序，装入后可以二分查找指令所属的过程
+        long[] keys = new long[procedureCount];
+        for (int i = 0; i < procedureCount; i++)
+            keys[i] = ((long) entries[i] << 32) | i;
+        Arrays.sort(keys);
+        int[] order = new int[procedureCount];
+        for (int i = 0; i < procedureCount; i++)
+            order[i] = (int) keys[i];
+
+        byte[][] encodedNames = new byte[procedureCount][];
+        int nameOffset = 0;
+        for (int i : order) {
+            encodedNames[i] = names[i].getBytes(StandardCharsets.UTF_8);
+            output.writeInt(entries[i]);
+            output.writeInt(sizes[i]);
+            output.writeInt(levels[i]);
+            output.writeInt(nameOffset);
+            nameOffset += 4 + encodedNames[i].length;
+        }
+
+        if (lineTable != null) {
+            for (int i = 0; i < lineTable.size(); i++) {
+                output.writeInt(lineTable.getCodeIndex(i));
+                output.writeInt(lineTable.getLine(i));
+            }
+        }
+
+        for (int i : order) {
+            output.writeInt(encodedNames[i].length);
+            output.write(encodedNames[i]);
+        }
+    }
+
+    /**
+     * 以只读方式映射目标文件，代码直接在映射的缓冲区上执行
+     *
+     * @throws IOException 不是目标文件、版本不支持或内容不完整
+     */
+    public static MappedProgram map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("目标文件过大: " + path);
+
+            //映射在channel关闭后仍然有效
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new MappedProgram(buffer, path.toString());
+        }
+    }
+}
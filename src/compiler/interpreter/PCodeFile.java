@@ -0,0 +1,132 @@
+package compiler.interpreter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 按下标定长存放指令的文件，用作流式输出的PCodeSink
+ * <p/>
+ * 第i条指令位于第i*8个字节，与Interpreter内部的紧凑格式相同：
+ * 一个int的低8位为操作码，其余位为层次差；一个int为参数
+ * 顺序到达的指令先攒在缓冲区中成批写出，回填后才到达的跳转直接写到文件中的对应位置
+ */
+public final class PCodeFile implements PCodeSink, Closeable {
+
+    /**
+     * 每条指令占用的字节数
+     */
+    static final int RecordSize = 8;
+
+    private static final int BufferSize = 1 << 16;
+
+    private static final PCode.CodeType[] CodeTypes = PCode.CodeType.values();
+
+    private FileChannel channel = null;
+
+    /**
+     * 尚未写到文件的一段连续的指令，第一条的下标为bufferStart
+     */
+    private ByteBuffer buffer = ByteBuffer.allocate(BufferSize);
+    private int bufferStart = 0;
+
+    public PCodeFile(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public void write(int index, PCode.CodeType type, int levelDifference, int argument) throws IOException {
+        int word = (levelDifference << 8) | type.ordinal();
+        int bufferEnd = bufferStart + buffer.position() / RecordSize;
+
+        if (index >= bufferStart && index < bufferEnd) {//缓冲区中留下的空位
+            buffer.putInt((index - bufferStart) * RecordSize, word);
+            buffer.putInt((index - bufferStart) * RecordSize + 4, argument);
+            return;
+        }
+        if (index < bufferStart) {//已经写到文件的一段中留下的空位
+            ByteBuffer record = ByteBuffer.allocate(RecordSize);
+            record.putInt(word).putInt(argument).flip();
+            writeFully(record, (long) index * RecordSize);
+            return;
+        }
+
+        if (index != bufferEnd || !buffer.hasRemaining()) {
+            drain();
+            bufferStart = index;
+        }
+        buffer.putInt(word).putInt(argument);
+    }
+
+    /**
+     * 把缓冲区中的指令写到文件中
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        writeFully(buffer, (long) bufferStart * RecordSize);
+        bufferStart += buffer.limit() / RecordSize;
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer source, long position) throws IOException {
+        while (source.hasRemaining())
+            position += channel.write(source, position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * 顺序读出文件中的指令，按Interpreter.printPCodes的格式打印
+     */
+    public static void print(Path path, PrintStream outputStream) throws IOException {
+        System.out.println("--------------- PCodes ---------------");
+        try (FileChannel input = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BufferSize);
+            int index = 0;
+            while (input.read(buffer) >= 0) {
+                buffer.flip();
+                for (; buffer.remaining() >= RecordSize; index++) {
+                    int word = buffer.getInt();
+                    int argument = buffer.getInt();
+                    outputStream.printf("%3d: ", index);
+                    new PCode(CodeTypes[word & 0xFF], word >> 8, argument).print(outputStream);
+                }
+                buffer.compact();
+            }
+        }
+        System.out.println("--------------------------------------");
+    }
+
+    /**
+     * 读入文件中的全部指令
+     *
+     * @return 可以执行的Interpreter
+     */
+    public static Interpreter load(Path path) throws IOException {
+        Interpreter interpreter = new Interpreter();
+        try (FileChannel input = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BufferSize);
+            while (input.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.remaining() >= RecordSize) {
+                    int word = buffer.getInt();
+                    interpreter.genPCode(CodeTypes[word & 0xFF], word >> 8, buffer.getInt());
+                }
+                buffer.compact();
+            }
+        }
+        return interpreter;
+    }
+}
@@ -0,0 +1,20 @@
+package compiler.interpreter;
+
+import java.io.IOException;
+
+/**
+ * 流式输出生成的指令，见Interpreter.setCodeSink
+ */
+public interface PCodeSink {
+
+    /**
+     * 写出一条不会再改变的指令
+     * 每条指令恰好写出一次，但不一定按下标顺序：向前的跳转在回填后才写出，晚于其后的指令
+     *
+     * @param index           指令的下标
+     * @param type            操作码
+     * @param levelDifference 层次差
+     * @param argument        参数
+     */
+    void write(int index, PCode.CodeType type, int levelDifference, int argument) throws IOException;
+}
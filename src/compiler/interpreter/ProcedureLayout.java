@@ -0,0 +1,237 @@
+package compiler.interpreter;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * 生成代码中各过程的分布
+ * <p/>
+ * Parser.block为每个分程序生成 JMP(跳过嵌套过程) ... INT ... OPR 0,0 的代码，
+ * 因此从INT指令开始、到其后第一条OPR 0,0为止就是一个过程的过程体，嵌套过程的代码不会出现在其中。
+ * 主程序的入口沿着0号指令的JMP找到，其余过程的入口是CAL指令的目标。
+ * 过程体内递归调用自己（或嵌套过程调用外层过程）时，过程的INT还未生成，CAL的目标是分程序开头的JMP，同样沿JMP找到入口。
+ * 过程体所在的层次从主程序(第0层)开始沿CAL推算：被调用过程的层次 = 调用者的层次 - CAL的层次差 + 1
+ * <p/>
+ * 语句之间表达式栈为空，跳转也只发生在语句之间，因此顺序扫描过程体即可得到表达式栈的最大深度（类似JVM的max_stack）
+ */
+public class ProcedureLayout {
+
+    private static final int LIT = PCode.CodeType.LIT.ordinal();
+    private static final int OPR = PCode.CodeType.OPR.ordinal();
+    private static final int LOD = PCode.CodeType.LOD.ordinal();
+    private static final int STO = PCode.CodeType.STO.ordinal();
+    private static final int CAL = PCode.CodeType.CAL.ordinal();
+    private static final int INT = PCode.CodeType.INT.ordinal();
+    private static final int JMP = PCode.CodeType.JMP.ordinal();
+    private static final int JPC = PCode.CodeType.JPC.ordinal();
+    private static final int WRT = PCode.CodeType.WRT.ordinal();
+
+    /**
+     * 主程序过程体的入口地址
+     */
+    private int mainEntry;
+
+    /**
+     * 每条指令所属过程的入口地址，不属于任何可达过程体的指令为-1
+     */
+    private int[] owners;
+
+    /**
+     * 以入口地址为下标：过程体的结束地址(OPR 0,0所在位置)，非入口为-1
+     */
+    private int[] ends;
+
+    /**
+     * 以入口地址为下标：过程体所在的层次
+     */
+    private int[] levels;
+
+    /**
+     * 以入口地址为下标：过程执行时活动记录之上至少要留出的运行栈单元数
+     */
+    private int[] stackReserves;
+
+    /**
+     * 按发现顺序排列的所有过程入口，第一个是主程序
+     */
+    private int[] entries;
+
+    private int procedureCount = 0;
+
+    private int maxLevel = 0;
+
+    private int[] types;
+    private int[] arguments;
+
+    /**
+     * 分析interpreter中已生成的代码
+     *
+     * @param interpreter
+     * @throws IllegalStateException 代码不符合Parser生成的结构
+     */
+    public ProcedureLayout(Interpreter interpreter) {
+        int length = interpreter.getCodeIndex();
+        int[] levelDifferences = new int[length];
+        types = new int[length];
+        arguments = new int[length];
+        for (int i = 0; i < length; i++) {
+            types[i] = interpreter.getCodeTypeAtIndex(i).ordinal();
+            levelDifferences[i] = interpreter.getLevelDifferenceAtIndex(i);
+            arguments[i] = interpreter.getArgumentAtIndex(i);
+        }
+
+        owners = new int[length];
+        ends = new int[length];
+        levels = new int[length];
+        stackReserves = new int[length];
+        entries = new int[8];
+        Arrays.fill(owners, -1);
+        Arrays.fill(ends, -1);
+
+        //沿JMP找到主程序的INT
+        mainEntry = getProcedureEntry(0);
+
+        ArrayDeque<Integer> pending = new ArrayDeque<Integer>();
+        addProcedure(mainEntry, 0, length);
+        pending.add(mainEntry);
+
+        while (!pending.isEmpty()) {
+            int entry = pending.poll();
+            int level = levels[entry];
+            for (int i = entry; i <= ends[entry]; i++) {
+                if (types[i] != CAL)
+                    continue;
+
+                int callee = getProcedureEntry(arguments[i]);
+                int calleeLevel = level - levelDifferences[i] + 1;
+
+                if (ends[callee] < 0) {
+                    addProcedure(callee, calleeLevel, length);
+                    pending.add(callee);
+                } else if (levels[callee] != calleeLevel) {
+                    throw new IllegalStateException("过程" + callee + "的层次不一致 at " + i);
+                }
+            }
+        }
+    }
+
+    private void addProcedure(int entry, int level, int length) {
+        if (entry < 0 || entry >= length || types[entry] != INT)
+            throw new IllegalStateException("过程入口处应为INT指令: " + entry);
+        if (level < 0)
+            throw new IllegalStateException("过程" + entry + "的层次为负");
+
+        int end = entry;
+        while (end < length && !(types[end] == OPR && arguments[end] == 0))
+            end++;
+        if (end == length)
+            throw new IllegalStateException("过程" + entry + "缺少返回指令");
+
+        ends[entry] = end;
+        levels[entry] = level;
+        stackReserves[entry] = Math.max(maxOperandDepth(entry, end), Interpreter.FrameHeaderSize);
+        for (int i = entry; i <= end; i++)
+            owners[i] = entry;
+
+        if (procedureCount == entries.length)
+            entries = Arrays.copyOf(entries, entries.length * 2);
+        entries[procedureCount++] = entry;
+        maxLevel = Math.max(maxLevel, level);
+    }
+
+    /**
+     * @return 过程体中表达式栈的最大深度
+     */
+    private int maxOperandDepth(int entry, int end) {
+        int depth = 0;
+        int maxDepth = 0;
+        for (int i = entry + 1; i < end; i++) {
+            int type = types[i];
+            if (type == LIT || type == LOD)
+                depth++;
+            else if (type == STO || type == JPC || type == WRT ||
+                    (type == OPR && ((arguments[i] >= 2 && arguments[i] <= 5) || (arguments[i] >= 8 && arguments[i] <= 13))))
+                depth = Math.max(depth - 1, 0);
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        return maxDepth;
+    }
+
+    /**
+     * 沿JMP找到address处开始执行的过程体入口
+     *
+     * @param address 0号指令或CAL的目标地址
+     * @return 过程入口，即INT指令的地址
+     */
+    public int getProcedureEntry(int address) {
+        for (int hops = 0; address >= 0 && address < types.length && types[address] == JMP && hops < types.length; hops++)
+            address = arguments[address];
+
+        if (address < 0 || address >= types.length)
+            throw new IllegalStateException("过程地址越界: " + address);
+        return address;
+    }
+
+    /**
+     * @return 主程序过程体的入口地址
+     */
+    public int getMainEntry() {
+        return mainEntry;
+    }
+
+    /**
+     * @return 可达过程的个数（包括主程序）
+     */
+    public int getProcedureCount() {
+        return procedureCount;
+    }
+
+    /**
+     * @param index 0为主程序
+     * @return 第index个过程的入口地址
+     */
+    public int getEntry(int index) {
+        return entries[index];
+    }
+
+    /**
+     * @param entry 过程入口地址
+     * @return 过程体的结束地址，即OPR 0,0所在位置
+     */
+    public int getEnd(int entry) {
+        return ends[entry];
+    }
+
+    /**
+     * @param entry 过程入口地址
+     * @return 过程体所在的层次，主程序为0
+     */
+    public int getLevel(int entry) {
+        return levels[entry];
+    }
+
+    /**
+     * INT指令分配活动记录后，运行栈中还要能放下本过程最深的表达式，以及调用其他过程时的SL、DL、RA
+     *
+     * @param entry 过程入口地址
+     * @return 活动记录之上至少要留出的运行栈单元数，不小于Interpreter.FrameHeaderSize
+     */
+    public int getStackReserve(int entry) {
+        return stackReserves[entry];
+    }
+
+    /**
+     * @param index 指令地址
+     * @return 指令所属过程的入口地址，不可达的指令返回-1
+     */
+    public int getOwner(int index) {
+        return owners[index];
+    }
+
+    /**
+     * @return 最深的过程层次
+     */
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+}
@@ -0,0 +1,58 @@
+package compiler.interpreter;
+
+/**
+ * 加载时按层次特化指令(quickening)
+ * <p/>
+ * 在Interpreter.run执行前的代码副本上进行，codes本身和printPCodes的输出不变：
+ * LOD0/STO0 访问当前过程的变量，直接以b为基地址
+ * LODG/STOG 访问主程序的变量，主程序的基地址总是0
+ * CAL的目标沿JMP链直接换算为过程入口的INT
+ * 其余LOD/STO（外层过程的变量）仍经由display访问，display方式下层次差为1和更大时的开销相同，不再单独特化
+ */
+final class Quickening {
+
+    /*
+     * 特化指令的操作码，接在InstructionFusion的操作码之后
+     */
+    static final int LOD0 = 24;
+    static final int LODG = 25;
+    static final int STO0 = 26;
+    static final int STOG = 27;
+
+    private static final int LOD = PCode.CodeType.LOD.ordinal();
+    private static final int STO = PCode.CodeType.STO.ordinal();
+    private static final int CAL = PCode.CodeType.CAL.ordinal();
+
+    private static final int CodeWidth = 2;
+
+    private Quickening() {
+    }
+
+    /**
+     * 在codes上原地特化指令
+     *
+     * @param codes  已由prepareDisplayCodes换算为绝对层次的代码
+     * @param length 指令条数
+     * @param layout 各过程的分布
+     */
+    static void quicken(int[] codes, int length, ProcedureLayout layout) {
+        for (int i = 0; i < length; i++) {
+            int owner = layout.getOwner(i);
+            if (owner < 0)//不可达的代码
+                continue;
+
+            int word = codes[i * CodeWidth];
+            int type = word & 0xFF;
+            int level = word >> 8;
+
+            if (type == LOD || type == STO) {
+                if (level == 0)
+                    codes[i * CodeWidth] = (word & ~0xFF) | (type == LOD ? LODG : STOG);
+                else if (level == layout.getLevel(owner))
+                    codes[i * CodeWidth] = (word & ~0xFF) | (type == LOD ? LOD0 : STO0);
+            } else if (type == CAL) {
+                codes[i * CodeWidth + 1] = layout.getProcedureEntry(codes[i * CodeWidth + 1]);
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package compiler.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * 最简单的class文件生成器，只支持JitCompiler用到的部分：
+ * 常量池中的Utf8、Integer、Class、NameAndType、Methodref，以及只有Code属性的静态方法
+ * <p/>
+ * 生成的class文件版本为49(Java 5)，不需要StackMapTable，由类型推导校验器校验
+ */
+class ClassFileWriter {
+
+    private static final int Version = 49;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_Utf8 = 1;
+    private static final int CONSTANT_Integer = 3;
+    private static final int CONSTANT_Class = 7;
+    private static final int CONSTANT_Methodref = 10;
+    private static final int CONSTANT_NameAndType = 12;
+
+    private final ByteArrayOutputStream constantPoolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream constantPool = new DataOutputStream(constantPoolBytes);
+    private final HashMap<String, Integer> constants = new HashMap<String, Integer>();
+    private int constantCount = 1;
+
+    private final ArrayList<byte[]> methods = new ArrayList<byte[]>();
+
+    private final int thisClass;
+    private final int superClass;
+
+    /**
+     * @param className 内部形式的类名，如compiler/jit/PL0Program
+     */
+    ClassFileWriter(String className) {
+        thisClass = classConstant(className);
+        superClass = classConstant("java/lang/Object");
+    }
+
+    int utf8Constant(String value) {
+        Integer index = constants.get("U" + value);
+        if (index != null)
+            return index;
+
+        try {
+            constantPool.writeByte(CONSTANT_Utf8);
+            constantPool.writeUTF(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return register("U" + value);
+    }
+
+    int integerConstant(int value) {
+        Integer index = constants.get("I" + value);
+        if (index != null)
+            return index;
+
+        try {
+            constantPool.writeByte(CONSTANT_Integer);
+            constantPool.writeInt(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return register("I" + value);
+    }
+
+    int classConstant(String className) {
+        Integer index = constants.get("C" + className);
+        if (index != null)
+            return index;
+
+        int name = utf8Constant(className);
+        try {
+            constantPool.writeByte(CONSTANT_Class);
+            constantPool.writeShort(name);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return register("C" + className);
+    }
+
+    int methodConstant(String className, String methodName, String descriptor) {
+        String key = "M" + className + "." + methodName + descriptor;
+        Integer index = constants.get(key);
+        if (index != null)
+            return index;
+
+        int owner = classConstant(className);
+        int name = utf8Constant(methodName);
+        int type = utf8Constant(descriptor);
+        try {
+            constantPool.writeByte(CONSTANT_NameAndType);
+            constantPool.writeShort(name);
+            constantPool.writeShort(type);
+            int nameAndType = constantCount++;
+
+            constantPool.writeByte(CONSTANT_Methodref);
+            constantPool.writeShort(owner);
+            constantPool.writeShort(nameAndType);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return register(key);
+    }
+
+    private int register(String key) {
+        if (constantCount >= 0xFFFF)
+            throw new IllegalStateException("常量池已满");
+
+        constants.put(key, constantCount);
+        return constantCount++;
+    }
+
+    /**
+     * 添加一个public static方法
+     *
+     * @param name       方法名
+     * @param descriptor 方法描述符
+     * @param code       字节码
+     * @param codeLength 字节码长度
+     * @param maxStack   操作数栈深度
+     * @param maxLocals  局部变量个数
+     */
+    void addStaticMethod(String name, String descriptor, byte[] code, int codeLength, int maxStack, int maxLocals) {
+        if (codeLength > 0xFFFF)
+            throw new IllegalStateException("方法" + name + "的字节码超过64K");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(codeLength + 32);
+        DataOutputStream method = new DataOutputStream(bytes);
+        try {
+            method.writeShort(ACC_PUBLIC | ACC_STATIC);
+            method.writeShort(utf8Constant(name));
+            method.writeShort(utf8Constant(descriptor));
+            method.writeShort(1);//attributes_count
+
+            method.writeShort(utf8Constant("Code"));
+            method.writeInt(12 + codeLength);
+            method.writeShort(maxStack);
+            method.writeShort(maxLocals);
+            method.writeInt(codeLength);
+            method.write(code, 0, codeLength);
+            method.writeShort(0);//exception_table_length
+            method.writeShort(0);//attributes_count
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methods.add(bytes.toByteArray());
+    }
+
+    /**
+     * @return 完整的class文件
+     */
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);//minor_version
+            out.writeShort(Version);
+            out.writeShort(constantCount);
+            constantPoolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);//interfaces_count
+            out.writeShort(0);//fields_count
+            out.writeShort(methods.size());
+            for (byte[] method : methods)
+                out.write(method);
+            out.writeShort(0);//attributes_count
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
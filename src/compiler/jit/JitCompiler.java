@@ -0,0 +1,498 @@
+package compiler.jit;
+
+import compiler.interpreter.Interpreter;
+import compiler.interpreter.PCode;
+import compiler.interpreter.ProcedureLayout;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+/**
+ * 将PCode翻译为JVM字节码
+ * <p/>
+ * 每个过程体(INT ... OPR 0,0)翻译为隐藏类中的一个静态方法 p入口地址(int[][] display, JitRuntime runtime)，
+ * CAL翻译为对该方法的invokestatic，交给HotSpot继续编译优化。
+ * <p/>
+ * 变量的存放：
+ * 1. 只在本过程内(层次差为0)访问的变量放在JVM局部变量中，局部变量号就是变量在活动记录中的偏移
+ * 2. 被嵌套过程访问到的变量放在本过程的int[]活动记录中，活动记录通过display[层次]访问，
+ * 过程进入时将自己的活动记录放入display，返回时恢复，以支持递归
+ */
+public class JitCompiler {
+
+    private static final String ClassName = "compiler/jit/PL0Program";
+    private static final String RuntimeClassName = "compiler/jit/JitRuntime";
+    private static final String ProcedureDescriptor = "([[IL" + RuntimeClassName + ";)V";
+
+    private static final int LIT = PCode.CodeType.LIT.ordinal();
+    private static final int OPR = PCode.CodeType.OPR.ordinal();
+    private static final int LOD = PCode.CodeType.LOD.ordinal();
+    private static final int STO = PCode.CodeType.STO.ordinal();
+    private static final int CAL = PCode.CodeType.CAL.ordinal();
+    private static final int INT = PCode.CodeType.INT.ordinal();
+    private static final int JMP = PCode.CodeType.JMP.ordinal();
+    private static final int JPC = PCode.CodeType.JPC.ordinal();
+    private static final int RED = PCode.CodeType.RED.ordinal();
+    private static final int WRT = PCode.CodeType.WRT.ordinal();
+
+    /**
+     * 活动记录中SL、DL、RA占用的单元，变量从3开始，对应的局部变量号0~2用来存放display、runtime和活动记录
+     */
+    private static final int FrameHeaderSize = 3;
+
+    private int length;
+    private int[] types;
+    private int[] levelDifferences;
+    private int[] arguments;
+
+    private ProcedureLayout layout = null;
+
+    /**
+     * escapes[level][address]：该层过程中偏移为address的变量是否被嵌套过程访问
+     */
+    private boolean[][] escapes;
+
+    public JitCompiler(Interpreter interpreter) {
+        length = interpreter.getCodeIndex();
+        types = new int[length];
+        levelDifferences = new int[length];
+        arguments = new int[length];
+        for (int i = 0; i < length; i++) {
+            types[i] = interpreter.getCodeTypeAtIndex(i).ordinal();
+            levelDifferences[i] = interpreter.getLevelDifferenceAtIndex(i);
+            arguments[i] = interpreter.getArgumentAtIndex(i);
+        }
+        layout = new ProcedureLayout(interpreter);
+    }
+
+    /**
+     * 翻译所有可达的过程，并作为隐藏类加载
+     *
+     * @return 可执行的程序
+     * @throws IllegalStateException 代码无法翻译，如单个过程的字节码超过64K，或生成的类无法加载
+     */
+    public JitProgram compile() {
+        findEscapes();
+
+        ClassFileWriter writer = new ClassFileWriter(ClassName);
+        for (int i = 0; i < layout.getProcedureCount(); i++)
+            compileProcedure(writer, layout.getEntry(i));
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(writer.toByteArray(), true);
+            MethodHandle main = lookup.findStatic(lookup.lookupClass(),
+                    procedureName(layout.getMainEntry()),
+                    MethodType.methodType(void.class, int[][].class, JitRuntime.class));
+            return new JitProgram(main, layout.getMaxLevel() + 1);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        } catch (LinkageError e) {//生成的类未通过校验，如VerifyError、ClassFormatError
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String procedureName(int entry) {
+        return "p" + entry;
+    }
+
+    /**
+     * 找出所有被嵌套过程（层次差大于0）访问的变量
+     */
+    private void findEscapes() {
+        int maxLevel = layout.getMaxLevel();
+        escapes = new boolean[maxLevel + 1][];
+
+        for (int i = 0; i < length; i++) {
+            int owner = layout.getOwner(i);
+            if (owner < 0 || levelDifferences[i] <= 0 ||
+                    (types[i] != LOD && types[i] != STO && types[i] != RED))
+                continue;
+
+            int level = layout.getLevel(owner) - levelDifferences[i];
+            if (level < 0)
+                throw new IllegalStateException("层次差超出了主程序 at " + i);
+
+            int address = arguments[i];
+            if (escapes[level] == null)
+                escapes[level] = new boolean[Math.max(address + 1, 16)];
+            else if (address >= escapes[level].length)
+                escapes[level] = Arrays.copyOf(escapes[level], Math.max(address + 1, escapes[level].length * 2));
+            escapes[level][address] = true;
+        }
+    }
+
+    private boolean isEscaping(int level, int address) {
+        return escapes[level] != null && address < escapes[level].length && escapes[level][address];
+    }
+
+    /**
+     * 翻译一个过程体
+     *
+     * @param writer
+     * @param entry  过程入口，即INT指令的地址
+     */
+    private void compileProcedure(ClassFileWriter writer, int entry) {
+        int end = layout.getEnd(entry);
+        int level = layout.getLevel(entry);
+
+        //局部变量个数以及操作数栈深度
+        int localCount = Math.max(arguments[entry], FrameHeaderSize);
+        int depth = 0;
+        int maxDepth = 0;
+        boolean[] targets = new boolean[end - entry + 1];
+        for (int i = entry + 1; i <= end; i++) {
+            int type = types[i];
+            if ((type == LOD || type == STO || type == RED) && levelDifferences[i] == 0)
+                localCount = Math.max(localCount, arguments[i] + 1);
+
+            if (type == JMP || type == JPC) {
+                if (arguments[i] < entry || arguments[i] > end)
+                    throw new IllegalStateException("跳转到了过程体之外 at " + i);
+                targets[arguments[i] - entry] = true;
+            }
+
+            if (type == LIT || type == LOD)
+                depth++;
+            else if (type == STO || type == JPC || type == WRT || (type == OPR && isBinaryOperation(arguments[i])))
+                depth--;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        boolean usesFrame = false;
+        for (int address = FrameHeaderSize; address < localCount; address++)
+            usesFrame |= isEscaping(level, address);
+        int savedDisplayLocal = localCount;
+
+        CodeBuffer code = new CodeBuffer(entry, end);
+
+        //序言：按INT指令计入运行栈，局部变量初始化为0（与Interpreter.clearVariables一致），需要时建立活动记录并放入display
+        code.u1(0x2b);//aload_1
+        code.pushInt(writer, arguments[entry]);
+        code.pushInt(writer, layout.getStackReserve(entry));
+        code.pushInt(writer, entry);
+        code.u1(0xb6);//invokevirtual
+        code.u2(writer.methodConstant(RuntimeClassName, "enter", "(III)V"));
+        for (int address = FrameHeaderSize; address < localCount; address++) {
+            if (!isEscaping(level, address)) {
+                code.u1(0x03);//iconst_0
+                code.local(0x36, address);//istore
+            }
+        }
+        if (usesFrame) {
+            code.pushInt(writer, localCount);
+            code.u1(0xbc);//newarray
+            code.u1(10);//T_INT
+            code.u1(0x4d);//astore_2
+
+            code.u1(0x2a);//aload_0
+            code.pushInt(writer, level);
+            code.u1(0x32);//aaload
+            code.local(0x3a, savedDisplayLocal);//astore
+
+            code.u1(0x2a);//aload_0
+            code.pushInt(writer, level);
+            code.u1(0x2c);//aload_2
+            code.u1(0x53);//aastore
+        }
+
+        code.mark(entry);
+        for (int i = entry + 1; i <= end; i++) {
+            code.mark(i);
+
+            int type = types[i];
+            int argument = arguments[i];
+
+            if (type == LIT) {
+                code.pushInt(writer, argument);
+            } else if (type == LOD) {
+                loadVariable(writer, code, level, levelDifferences[i], argument);
+            } else if (type == STO) {
+                storeVariable(writer, code, level, levelDifferences[i], argument);
+            } else if (type == RED) {
+                code.u1(0x2b);//aload_1
+                code.u1(0xb6);//invokevirtual
+                code.u2(writer.methodConstant(RuntimeClassName, "read", "()I"));
+                storeVariable(writer, code, level, levelDifferences[i], argument);
+            } else if (type == WRT) {
+                code.u1(0x2b);//aload_1
+                code.u1(0x5f);//swap
+                code.u1(0xb6);//invokevirtual
+                code.u2(writer.methodConstant(RuntimeClassName, "write", "(I)V"));
+            } else if (type == CAL) {
+                code.u1(0x2a);//aload_0
+                code.u1(0x2b);//aload_1
+                code.u1(0xb8);//invokestatic
+                code.u2(writer.methodConstant(ClassName, procedureName(layout.getProcedureEntry(argument)), ProcedureDescriptor));
+            } else if (type == JMP) {
+                code.branch(0xa7, argument);//goto
+            } else if (type == JPC) {
+                code.branch(0x99, argument);//ifeq
+            } else if (type == INT) {
+                throw new IllegalStateException("过程体中出现INT指令 at " + i);
+            } else if (type == OPR) {
+                if (argument == 0) {//返回，恢复display并释放运行栈
+                    code.u1(0x2b);//aload_1
+                    code.pushInt(writer, arguments[entry]);
+                    code.u1(0xb6);//invokevirtual
+                    code.u2(writer.methodConstant(RuntimeClassName, "leave", "(I)V"));
+                    if (usesFrame) {
+                        code.u1(0x2a);//aload_0
+                        code.pushInt(writer, level);
+                        code.local(0x19, savedDisplayLocal);//aload
+                        code.u1(0x53);//aastore
+                    }
+                    code.u1(0xb1);//return
+                } else if (argument >= 8 && argument <= 13 && i < end &&
+                        types[i + 1] == JPC && !targets[i + 1 - entry]) {
+                    //比较之后紧跟JPC，合并为一条条件跳转：条件不成立时跳转
+                    code.branch(negatedComparison(argument), arguments[i + 1]);
+                    i++;
+                    code.mark(i);
+                } else {
+                    operation(code, argument, i);
+                }
+            } else {
+                throw new IllegalStateException("无法翻译的指令 at " + i);
+            }
+        }
+
+        code.resolveBranches();
+        //序言中调用enter时操作数栈上有4项
+        writer.addStaticMethod(procedureName(entry), ProcedureDescriptor,
+                code.bytes, code.length, Math.max(maxDepth + 3, 4), savedDisplayLocal + 1);
+    }
+
+    private static boolean isBinaryOperation(int operation) {
+        return (operation >= 2 && operation <= 5) || (operation >= 8 && operation <= 13);
+    }
+
+    private void operation(CodeBuffer code, int operation, int index) {
+        switch (operation) {
+            case 1:
+                code.u1(0x74);//ineg
+                break;
+            case 2:
+                code.u1(0x60);//iadd
+                break;
+            case 3:
+                code.u1(0x64);//isub
+                break;
+            case 4:
+                code.u1(0x68);//imul
+                break;
+            case 5:
+                code.u1(0x6c);//idiv
+                break;
+            case 6:
+                code.u1(0x04);//iconst_1
+                code.u1(0x7e);//iand
+                break;
+            case 8:
+            case 9:
+            case 10:
+            case 11:
+            case 12:
+            case 13:
+                //if_icmpXX +7; iconst_0; goto +4; iconst_1
+                code.u1(comparison(operation));
+                code.u2(7);
+                code.u1(0x03);
+                code.u1(0xa7);
+                code.u2(4);
+                code.u1(0x04);
+                break;
+            default:
+                throw new IllegalStateException("非法的OPR指令: " + operation + " at " + index);
+        }
+    }
+
+    /**
+     * @return 关系运算成立时跳转的if_icmp指令
+     */
+    private static int comparison(int operation) {
+        switch (operation) {
+            case 8:
+                return 0x9f;//if_icmpeq
+            case 9:
+                return 0xa0;//if_icmpne
+            case 10:
+                return 0xa1;//if_icmplt
+            case 11:
+                return 0xa4;//if_icmple
+            case 12:
+                return 0xa3;//if_icmpgt
+            default:
+                return 0xa2;//if_icmpge
+        }
+    }
+
+    /**
+     * @return 关系运算不成立时跳转的if_icmp指令
+     */
+    private static int negatedComparison(int operation) {
+        switch (operation) {
+            case 8:
+                return 0xa0;//if_icmpne
+            case 9:
+                return 0x9f;//if_icmpeq
+            case 10:
+                return 0xa2;//if_icmpge
+            case 11:
+                return 0xa3;//if_icmpgt
+            case 12:
+                return 0xa4;//if_icmple
+            default:
+                return 0xa1;//if_icmplt
+        }
+    }
+
+    private void loadVariable(ClassFileWriter writer, CodeBuffer code, int level, int levelDifference, int address) {
+        if (levelDifference == 0 && !isEscaping(level, address)) {
+            code.local(0x15, address);//iload
+            return;
+        }
+
+        frameReference(writer, code, level, levelDifference);
+        code.pushInt(writer, address);
+        code.u1(0x2e);//iaload
+    }
+
+    /**
+     * 将栈顶的值存入变量
+     */
+    private void storeVariable(ClassFileWriter writer, CodeBuffer code, int level, int levelDifference, int address) {
+        if (levelDifference == 0 && !isEscaping(level, address)) {
+            code.local(0x36, address);//istore
+            return;
+        }
+
+        //value, frame -> frame, value -> frame, value, address -> frame, address, value
+        frameReference(writer, code, level, levelDifference);
+        code.u1(0x5f);//swap
+        code.pushInt(writer, address);
+        code.u1(0x5f);//swap
+        code.u1(0x4f);//iastore
+    }
+
+    /**
+     * 将层次差为levelDifference的活动记录压栈
+     */
+    private void frameReference(ClassFileWriter writer, CodeBuffer code, int level, int levelDifference) {
+        if (levelDifference == 0) {
+            code.u1(0x2c);//aload_2
+        } else {
+            code.u1(0x2a);//aload_0
+            code.pushInt(writer, level - levelDifference);
+            code.u1(0x32);//aaload
+        }
+    }
+
+    /**
+     * 一个方法的字节码，以及对应每条PCode的字节码位置，用于回填跳转偏移
+     */
+    private static class CodeBuffer {
+        byte[] bytes = new byte[256];
+        int length = 0;
+
+        /**
+         * offsets[i - entry]为第i条PCode对应字节码的起始位置
+         */
+        int[] offsets;
+
+        /**
+         * 待回填的跳转：跳转指令位置、目标PCode地址
+         */
+        int[] branchPositions = new int[16];
+        int[] branchTargets = new int[16];
+        int branchCount = 0;
+
+        /**
+         * 过程入口地址
+         */
+        final int entry;
+
+        CodeBuffer(int entry, int end) {
+            this.entry = entry;
+            offsets = new int[end - entry + 1];
+        }
+
+        void u1(int value) {
+            if (length == bytes.length)
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            bytes[length++] = (byte) value;
+        }
+
+        void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        void mark(int pcodeIndex) {
+            offsets[pcodeIndex - entry] = length;
+        }
+
+        /**
+         * iload/istore/aload/astore，局部变量号超过255时使用wide
+         */
+        void local(int opcode, int index) {
+            if (index > 0xFF) {
+                u1(0xc4);//wide
+                u1(opcode);
+                u2(index);
+            } else {
+                u1(opcode);
+                u1(index);
+            }
+        }
+
+        void pushInt(ClassFileWriter writer, int value) {
+            if (value >= -1 && value <= 5) {
+                u1(0x03 + value);//iconst_<n>
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(0x10);//bipush
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(0x11);//sipush
+                u2(value);
+            } else {
+                int index = writer.integerConstant(value);
+                if (index <= 0xFF) {
+                    u1(0x12);//ldc
+                    u1(index);
+                } else {
+                    u1(0x13);//ldc_w
+                    u2(index);
+                }
+            }
+        }
+
+        void branch(int opcode, int target) {
+            if (branchCount == branchPositions.length) {
+                branchPositions = Arrays.copyOf(branchPositions, branchCount * 2);
+                branchTargets = Arrays.copyOf(branchTargets, branchCount * 2);
+            }
+            branchPositions[branchCount] = length;
+            branchTargets[branchCount] = target;
+            branchCount++;
+
+            u1(opcode);
+            u2(0);
+        }
+
+        void resolveBranches() {
+            for (int i = 0; i < branchCount; i++) {
+                int position = branchPositions[i];
+                int offset = offsets[branchTargets[i] - entry] - position;
+                if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                    throw new IllegalStateException("跳转距离超出了64K");
+
+                bytes[position + 1] = (byte) (offset >> 8);
+                bytes[position + 2] = (byte) offset;
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package compiler.jit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+
+/**
+ * JitCompiler翻译得到的可执行程序
+ */
+public class JitProgram {
+
+    private static final int StackSize = 1000;
+
+    /**
+     * 主程序对应的方法
+     */
+    private final MethodHandle main;
+
+    /**
+     * display的大小，即最深层次+1
+     */
+    private final int displaySize;
+
+    JitProgram(MethodHandle main, int displaySize) {
+        this.main = main;
+        this.displaySize = displaySize;
+    }
+
+    /**
+     * 执行程序
+     *
+     * @param input  read语句的输入
+     * @param output write语句的输出
+     * @throws IOException 读取输入出错，或read时输入已结束
+     */
+    public void run(InputStream input, PrintStream output) throws IOException {
+        run(input, output, StackSize);
+    }
+
+    /**
+     * 执行程序，运行栈的大小按解释执行时的活动记录计算
+     *
+     * @param input     read语句的输入
+     * @param output    write语句的输出
+     * @param stackSize 运行栈大小
+     * @throws IOException 读取输入出错，或read时输入已结束
+     */
+    public void run(InputStream input, PrintStream output, int stackSize) throws IOException {
+        try {
+            main.invokeExact(new int[displaySize][], new JitRuntime(input, output, stackSize));
+        } catch (StackOverflowError e) {//stackSize很大时JVM的栈先耗尽
+            throw new IllegalStateException("运行栈溢出", e);
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
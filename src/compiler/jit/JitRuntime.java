@@ -0,0 +1,65 @@
+package compiler.jit;
+
+import compiler.interpreter.Interpreter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+/**
+ * JIT生成的代码在运行时调用的read/write实现，以及运行栈的计数
+ * 生成的每个方法都以本类的实例作为第二个参数
+ */
+public final class JitRuntime {
+
+    private final InputStream input;
+
+    private final PrintStream output;
+
+    private final int stackSize;
+
+    /**
+     * 解释执行时运行栈中已占用的单元数，即各层活动记录大小之和
+     */
+    private int top = 0;
+
+    JitRuntime(InputStream input, PrintStream output, int stackSize) {
+        this.input = input;
+        this.output = output;
+        this.stackSize = stackSize;
+    }
+
+    /**
+     * 过程入口的INT指令，与解释执行在同一处报告运行栈溢出
+     *
+     * @param size    活动记录的大小
+     * @param reserve 活动记录之上至少要留出的单元数，见ProcedureLayout.getStackReserve
+     * @param entry   INT指令的地址
+     */
+    public void enter(int size, int reserve, int entry) {
+        top += size;
+        if (top - 1 + reserve >= stackSize)
+            throw new IllegalStateException("运行栈溢出 at " + entry);
+    }
+
+    /**
+     * 过程返回，释放活动记录
+     */
+    public void leave(int size) {
+        top -= size;
+    }
+
+    /**
+     * RED指令
+     */
+    public int read() throws IOException {
+        return Interpreter.readInteger(input);
+    }
+
+    /**
+     * WRT指令
+     */
+    public void write(int value) {
+        output.println(value);
+    }
+}
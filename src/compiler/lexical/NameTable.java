@@ -0,0 +1,115 @@
+package compiler.lexical;
+
+import java.util.Arrays;
+
+/**
+ * 标识符名字表
+ * <p/>
+ * 一次编译中出现的每个不同的标识符对应一个从0开始的整数编号，名字只保存一份。
+ * Scanner扫描到标识符时在这里查找或登记，Parser和SymbolTable之后只比较编号
+ */
+public class NameTable {
+
+    /**
+     * 以编号为下标：名字
+     */
+    private String[] names = new String[256];
+
+    /**
+     * 以编号为下标：名字的散列值
+     */
+    private int[] hashes = new int[256];
+
+    /**
+     * 以编号为下标：同一个桶中的下一个编号，没有则为-1
+     */
+    private int[] nextInBucket = new int[256];
+
+    /**
+     * 每个桶中第一个名字的编号，空桶为-1，桶的个数为2的幂
+     */
+    private int[] buckets = new int[512];
+
+    private int count = 0;
+
+    public NameTable() {
+        Arrays.fill(buckets, -1);
+    }
+
+    /**
+     * @param hash 名字的散列值，同一个名字必须总是给出相同的值
+     * @return 散列值为hash的桶中第一个名字的编号，空桶返回-1
+     */
+    public int first(int hash) {
+        return buckets[bucket(hash)];
+    }
+
+    /**
+     * @param id 名字编号
+     * @return 同一个桶中的下一个编号，没有则返回-1
+     */
+    public int next(int id) {
+        return nextInBucket[id];
+    }
+
+    /**
+     * @param id 名字编号
+     * @return 登记时给出的散列值
+     */
+    public int getHash(int id) {
+        return hashes[id];
+    }
+
+    /**
+     * @param id 名字编号
+     * @return 名字
+     */
+    public String getName(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return 已登记的名字个数
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * 登记一个新名字，调用者应先用first/next确认其不存在
+     *
+     * @param name 名字
+     * @param hash 名字的散列值
+     * @return 新名字的编号
+     */
+    public int add(String name, int hash) {
+        if (count == names.length) {
+            names = Arrays.copyOf(names, count * 2);
+            hashes = Arrays.copyOf(hashes, count * 2);
+            nextInBucket = Arrays.copyOf(nextInBucket, count * 2);
+        }
+        if (count * 2 >= buckets.length)
+            rehash(buckets.length * 2);
+
+        int id = count++;
+        names[id] = name;
+        hashes[id] = hash;
+        nextInBucket[id] = buckets[bucket(hash)];
+        buckets[bucket(hash)] = id;
+        return id;
+    }
+
+    private void rehash(int size) {
+        buckets = new int[size];
+        Arrays.fill(buckets, -1);
+        for (int id = 0; id < count; id++) {
+            nextInBucket[id] = buckets[bucket(hashes[id])];
+            buckets[bucket(hashes[id])] = id;
+        }
+    }
+
+    private int bucket(int hash) {
+        hash *= 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (buckets.length - 1);
+    }
+}
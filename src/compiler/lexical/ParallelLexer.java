@@ -0,0 +1,205 @@
+package compiler.lexical;
+
+import compiler.error.ErrorHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 并行词法分析
+ * <p/>
+ * PL/0中没有注释和字符串，任何空白字符都是单词的边界。把源程序在空白处切分为若干段，
+ * 每段由独立的Scanner（各自的名字表）在ForkJoinPool中扫描，最后按顺序拼接：
+ * 1. 名字编号按拼接时首次出现的顺序重新登记到原Scanner的名字表中，与顺序扫描的编号相同
+ * 2. 段内的位置从第1行开始计，加上该段之前的行数；第一行的列号还要加上该段开头之前同一行的字符数
+ * 3. 某一段报告了词法错误或因无法识别的字符提前结束时，拼接到此为止，该段报告的词法错误此时才报告
+ */
+final class ParallelLexer {
+
+    /**
+     * 每段至少的字符数，源程序不足两段或线程池只有一个线程时顺序扫描
+     */
+    private static final int MinChunkLength = 1 << 16;
+
+    /**
+     * 每个线程分到的段数，多分几段以平衡各段的扫描时间
+     */
+    private static final int ChunksPerThread = 4;
+
+    private static final PrintStream NullPrinter = new PrintStream(OutputStream.nullOutputStream());
+
+    private Scanner scanner = null;
+    private ForkJoinPool pool = null;
+
+    ParallelLexer(Scanner scanner, ForkJoinPool pool) {
+        this.scanner = scanner;
+        this.pool = pool;
+    }
+
+    TokenStream scan() throws IOException {
+        scanner.loadSource();
+        int length = scanner.getSourceLength();
+        int chunkCount = Math.min(pool.getParallelism() * ChunksPerThread, length / MinChunkLength);
+        if (pool.getParallelism() < 2 || chunkCount < 2)//只有一个线程时拼接只会增加开销
+            return TokenStream.scan(scanner);
+
+        //在空白处切分，每段从一个空白字符开始（第一段除外）
+        final Chunk[] chunks = new Chunk[chunkCount];
+        int count = 0;
+        int start = 0;
+        for (int i = 1; i <= chunkCount; i++) {
+            int end = (int) ((long) length * i / chunkCount);
+            while (end < length && !isWhitespace(scanner.charAt(end)))
+                end++;
+            if (end > start) {
+                chunks[count++] = new Chunk(start, end);
+                start = end;
+            }
+        }
+
+        final Chunk[] tasks = Arrays.copyOf(chunks, count);
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        return merge(tasks);
+    }
+
+    /**
+     * 按顺序拼接各段的单词
+     */
+    private TokenStream merge(Chunk[] chunks) {
+        NameTable nameTable = scanner.getNameTable();
+        TokenStream stream = new TokenStream(nameTable);
+        int identifier = Symbol.SymbolClassCode.IDENTIFIER.ordinal();
+
+        int lineBase = 0;//该段之前的换行个数
+        int lastNewLine = -1;//该段之前最后一个换行的位置
+        for (Chunk chunk : chunks) {
+            TokenStream tokens = chunk.tokens;
+            NameTable names = chunk.scanner.getNameTable();
+            int[] nameIds = new int[names.size()];
+            Arrays.fill(nameIds, -1);
+
+            for (int i = 0; i < tokens.size(); i++) {
+                int kind = tokens.getKind(i);
+                int value = tokens.getValue(i);
+                if (kind == identifier) {
+                    if (nameIds[value] < 0)
+                        nameIds[value] = intern(nameTable, names.getName(value), names.getHash(value));
+                    value = nameIds[value];
+                }
+                stream.add(kind, value, relocate(tokens.getLocation(i), chunk.start, lineBase, lastNewLine));
+            }
+
+            long end = relocate(tokens.getLocation(tokens.size()), chunk.start, lineBase, lastNewLine);
+            stream.setEndLocation(end);
+            if (chunk.failure != null)
+                throw chunk.failure;
+            if (chunk.errorCode != 0)
+                scanner.getErrorHandler().printError(chunk.errorCode, end);
+            //出错或遇到无法识别的字符，顺序扫描也在此结束；出错的字符可能恰好是段内最后一个字符，此时atEnd()也为真
+            if (chunk.errorCode != 0 || !chunk.scanner.atEnd())
+                break;
+
+            lineBase += chunk.newLines;
+            if (chunk.lastNewLine >= 0)
+                lastNewLine = chunk.lastNewLine;
+        }
+        return stream;
+    }
+
+    /**
+     * 把段内的位置换算为整个源程序中的位置
+     *
+     * @param start       该段在源程序中的起始位置
+     * @param lineBase    该段之前的换行个数
+     * @param lastNewLine 该段之前最后一个换行的位置，没有时为-1
+     */
+    private static long relocate(long location, int start, int lineBase, int lastNewLine) {
+        int line = (int) (location >>> 32);
+        int column = (int) location;
+        if (line == 1)//与该段之前的字符在同一行
+            column += start - lastNewLine - 1;
+        return ErrorHandler.location(line + lineBase, column);
+    }
+
+    private static int intern(NameTable nameTable, String name, int hash) {
+        for (int id = nameTable.first(hash); id >= 0; id = nameTable.next(id)) {
+            if (nameTable.getHash(id) == hash && nameTable.getName(id).equals(name))
+                return id;
+        }
+        return nameTable.add(name, hash);
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    /**
+     * 扫描源程序中的一段
+     */
+    private final class Chunk extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private int start = 0;
+        private int end = 0;
+
+        private Scanner scanner = null;
+        private TokenStream tokens = null;
+
+        /**
+         * 段内报告的词法错误，没有时为0；扫描在出错处结束，因此至多一个
+         */
+        private int errorCode = 0;
+        /**
+         * 扫描时抛出的异常（如数字溢出），拼接到这一段时再抛出
+         */
+        private RuntimeException failure = null;
+
+        /**
+         * 段内的换行个数和最后一个换行的位置
+         */
+        private int newLines = 0;
+        private int lastNewLine = -1;
+
+        Chunk(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            scanner = new Scanner(ParallelLexer.this.scanner, start, end, new ErrorHandler(NullPrinter) {
+                @Override
+                public void printError(int errorCode, long location) {
+                    Chunk.this.errorCode = errorCode;
+                }
+            });
+            try {
+                tokens = TokenStream.scan(scanner);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                failure = e;
+                tokens = new TokenStream(scanner.getNameTable());
+                tokens.setEndLocation(scanner.getLocation());
+            }
+
+            for (int i = start; i < end; i++) {
+                if (scanner.charAt(i) == '\n') {
+                    newLines++;
+                    lastNewLine = i;
+                }
+            }
+        }
+    }
+}
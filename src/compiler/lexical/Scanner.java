@@ -5,6 +5,8 @@ import compiler.error.ErrorHandler;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 /**
@@ -14,12 +16,82 @@ import java.util.Arrays;
  * 主要功能：
  * 1. 跳过源程序中的空格字符
  * sample1. 从源程序正文字符序列中识别出单词符号，并把该单词符号的类别以相应枚举值的形式（即内部编码）送入变量sym中
- * 3. 用变量id存放标识符，用二分法查找保留字表，识别诸如begin、end等保留字
+ * 3. 用变量id存放标识符，用完美散列查找保留字表(KeywordTable)，识别诸如begin、end等保留字
  * 4. 如取来的单词为无符号整数，则将该整数数字字符串转换为整数值存入变量num中
  * <p/>
  * Created by zhugongpu on 14/12/1.
  */
-public class Scanner {
+public class Scanner implements TokenSource {
+
+    /*
+     * 运算符、界符和保留字没有需要单独保存的属性，每种只用一个共享的Symbol
+     */
+    private static final Symbol AssignSymbol = new Symbol(Symbol.SymbolClassCode.ASSIGN, ":=");
+    private static final Symbol EqualSymbol = new Symbol(Symbol.SymbolClassCode.EQUAL, "=");
+    private static final Symbol LessThanOrEqualSymbol = new Symbol(Symbol.SymbolClassCode.LESS_THAN_OR_EQUAL, "<=");
+    private static final Symbol NotEqualSymbol = new Symbol(Symbol.SymbolClassCode.NOT_EQUAL, "<>");
+    private static final Symbol LessThanSymbol = new Symbol(Symbol.SymbolClassCode.LESS_THAN, "<");
+    private static final Symbol GreaterThanOrEqualSymbol = new Symbol(Symbol.SymbolClassCode.GREATER_THAN_OR_EQUAL, ">=");
+    private static final Symbol GreaterThanSymbol = new Symbol(Symbol.SymbolClassCode.GREATER_THAN, ">");
+    private static final Symbol PlusSymbol = new Symbol(Symbol.SymbolClassCode.PLUS, "+");
+    private static final Symbol MinusSymbol = new Symbol(Symbol.SymbolClassCode.MINUS, "-");
+    private static final Symbol MultiplySymbol = new Symbol(Symbol.SymbolClassCode.MULTIPLY, "*");
+    private static final Symbol LeftParenthesisSymbol = new Symbol(Symbol.SymbolClassCode.LEFT_PARENTHESIS, "(");
+    private static final Symbol RightParenthesisSymbol = new Symbol(Symbol.SymbolClassCode.RIGHT_PARENTHESIS, ")");
+    private static final Symbol CommaSymbol = new Symbol(Symbol.SymbolClassCode.COMMA, ",");
+    private static final Symbol SemicolonSymbol = new Symbol(Symbol.SymbolClassCode.SEMICOLON, ";");
+    private static final Symbol DivideSymbol = new Symbol(Symbol.SymbolClassCode.DIVIDE, "/");
+    private static final Symbol PeriodSymbol = new Symbol(Symbol.SymbolClassCode.PERIOD, ".");
+
+    /**
+     * 与Symbol.ReservedWords一一对应
+     */
+    private static final Symbol[] ReservedWordSymbols = new Symbol[Symbol.ReservedWords.length];
+
+    /*
+     * 保留字的完美散列：hash = hash * 7 + c，槽位 = (hash >>> 4) & 31
+     * 这两个参数是对16个保留字离线搜索得到的，32个槽位中16个保留字互不冲突
+     */
+    private static final int KeywordHashMultiplier = 7;
+    private static final int KeywordHashShift = 4;
+
+    /**
+     * 以散列槽位为下标：对应保留字在Symbol.ReservedWords中的下标，空槽为-1
+     */
+    private static final int[] KeywordTable = new int[32];
+
+    static {
+        Arrays.fill(KeywordTable, -1);
+        for (int i = 0; i < ReservedWordSymbols.length; i++) {
+            ReservedWordSymbols[i] = new Symbol(Symbol.ReservedWordCodes[i], Symbol.ReservedWords[i]);
+
+            int slot = (keywordHash(Symbol.ReservedWords[i]) >>> KeywordHashShift) & (KeywordTable.length - 1);
+            if (KeywordTable[slot] >= 0)//修改保留字表后需要重新选择散列参数
+                throw new IllegalStateException("保留字散列冲突: " + Symbol.ReservedWords[i]);
+            KeywordTable[slot] = i;
+        }
+    }
+
+    /*
+     * next()返回的标识符和数字，具体的名字和值由getToken、getValue取得
+     */
+    private static final Symbol IdentifierSymbol = new Symbol(Symbol.SymbolClassCode.IDENTIFIER, (String) null);
+    private static final Symbol NumberSymbol = new Symbol(Symbol.SymbolClassCode.NUMBER, 0);
+
+    /**
+     * 以SymbolClassCode的序号为下标：next()对该类单词返回的共享Symbol
+     */
+    private static final Symbol[] SharedSymbols = new Symbol[Symbol.SymbolClassCode.values().length];
+
+    static {
+        for (Symbol symbol : new Symbol[]{AssignSymbol, EqualSymbol, LessThanOrEqualSymbol, NotEqualSymbol,
+                LessThanSymbol, GreaterThanOrEqualSymbol, GreaterThanSymbol, PlusSymbol, MinusSymbol, MultiplySymbol,
+                LeftParenthesisSymbol, RightParenthesisSymbol, CommaSymbol, SemicolonSymbol, DivideSymbol, PeriodSymbol,
+                IdentifierSymbol, NumberSymbol})
+            SharedSymbols[symbol.getSymbolClassCode().ordinal()] = symbol;
+        for (Symbol symbol : ReservedWordSymbols)
+            SharedSymbols[symbol.getSymbolClassCode().ordinal()] = symbol;
+    }
 
     /**
      * 存放当前读进的字符
@@ -27,6 +99,32 @@ public class Scanner {
      */
     private char currentChar = ' ';
 
+    /**
+     * 最近一个单词在源程序中的起止位置[tokenStart, tokenEnd)
+     */
+    private int tokenStart = 0;
+    private int tokenEnd = 0;
+
+    /**
+     * 最近一个单词的散列值，见scanWhile
+     */
+    private int tokenHash = 0;
+
+    /**
+     * 本次编译的标识符名字表
+     */
+    private NameTable nameTable = new NameTable();
+
+    /**
+     * 最近一个标识符在nameTable中的编号
+     */
+    private int nameId = -1;
+
+    /**
+     * 最近一个数字的值
+     */
+    private int value = 0;
+
     /**
      * 当前扫描的行号
      */
@@ -36,6 +134,26 @@ public class Scanner {
      * 处理文件输入
      */
     private BufferedReader bufferedReader = null;
+
+    /**
+     * 整个源程序，首次读字符时从bufferedReader一次读入
+     */
+    private char[] source = null;
+
+    /**
+     * 以ByteBuffer（如内存映射的文件）给出的纯ASCII源程序，每个字节就是一个字符，不为null时不使用source
+     */
+    private ByteBuffer sourceBytes = null;
+
+    /**
+     * source或sourceBytes中有效字符的个数
+     */
+    private int sourceLength = 0;
+
+    /**
+     * 下一个要读的字符在source中的位置，currentChar位于position-1
+     */
+    private int position = 0;
     /**
      * 处理错误信息
      */
@@ -47,6 +165,30 @@ public class Scanner {
         this.errorHandler = errorHandler;
     }
 
+    /**
+     * 直接从字节中扫描纯ASCII的源程序，不经过字符集解码，也不复制源程序
+     *
+     * @param asciiSource  从0到limit为源程序，调用者需保证其中没有非ASCII字节
+     * @param errorHandler
+     */
+    public Scanner(ByteBuffer asciiSource, ErrorHandler errorHandler) {
+        this.sourceBytes = asciiSource;
+        this.sourceLength = asciiSource.limit();
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * 扫描whole的源程序中[start, end)的一段，用于并行扫描，见ParallelLexer
+     * 使用自己的名字表；行号从1开始计，列号的计法与从源程序开头扫描到start处相同的一段相同
+     */
+    Scanner(Scanner whole, int start, int end, ErrorHandler errorHandler) {
+        this.source = whole.source;
+        this.sourceBytes = whole.sourceBytes;
+        this.sourceLength = end;
+        this.position = start;
+        this.errorHandler = errorHandler;
+    }
+
     private static boolean isSpace(char currentChar) {
         return currentChar == ' ';
     }
@@ -121,8 +263,26 @@ public class Scanner {
 
     /**
      * 词法分析器
+     * 每次返回一个独立的Symbol，标识符和数字的Symbol中带有名字和值
      */
     public Symbol getSymbol() throws IOException {
+        Symbol symbol = next();
+        if (symbol == IdentifierSymbol)
+            return new Symbol(Symbol.SymbolClassCode.IDENTIFIER, getToken());
+        if (symbol == NumberSymbol)
+            return new Symbol(Symbol.SymbolClassCode.NUMBER, value);
+        return symbol;
+    }
+
+    /**
+     * 读取下一个单词，不为单词分配对象
+     * 返回的Symbol是共享的，只表示单词的类别（运算符、界符和保留字也带有其文本）；
+     * 标识符的名字（及其编号）和数字的值通过getToken（getNameId）、getValue取得，在下一次调用next之前有效
+     *
+     * @return 无法识别或到达源程序末尾时返回null
+     */
+    @Override
+    public Symbol next() throws IOException {
 
         Symbol currentSymbol = null;
 
@@ -138,7 +298,7 @@ public class Scanner {
             if (isEqual(currentChar))//为 赋值符号
             {
                 getChar();
-                currentSymbol = new Symbol(Symbol.SymbolClassCode.ASSIGN, ":=");
+                currentSymbol = AssignSymbol;
             } else {//PL0文法中没有单独':'的情况，因此这种情况下算作出错
                 error(26);//TODO 错误未定义
 
@@ -146,51 +306,51 @@ public class Scanner {
 
         } else if (isEqual(currentChar)) {
             getChar();
-            currentSymbol = new Symbol(Symbol.SymbolClassCode.EQUAL, "=");
+            currentSymbol = EqualSymbol;
         } else if (isLessThan(currentChar)) {//为 小于号或小于等于号
             getChar();
             if (isEqual(currentChar)) {
                 getChar();
-                currentSymbol = new Symbol(Symbol.SymbolClassCode.LESS_THAN_OR_EQUAL, "<=");
+                currentSymbol = LessThanOrEqualSymbol;
             } else if (isGreaterThan(currentChar)) {
                 getChar();
-                currentSymbol = new Symbol(Symbol.SymbolClassCode.NOT_EQUAL, "<>");
+                currentSymbol = NotEqualSymbol;
             } else
-                currentSymbol = new Symbol(Symbol.SymbolClassCode.LESS_THAN, "<");
+                currentSymbol = LessThanSymbol;
         } else if (isGreaterThan(currentChar)) {
             getChar();
             if (isEqual(currentChar)) {
                 getChar();
-                currentSymbol = new Symbol(Symbol.SymbolClassCode.GREATER_THAN_OR_EQUAL, ">=");
+                currentSymbol = GreaterThanOrEqualSymbol;
             } else
-                currentSymbol = new Symbol(Symbol.SymbolClassCode.GREATER_THAN, ">");
+                currentSymbol = GreaterThanSymbol;
         } else if (isPlus(currentChar)) {
             getChar();
-            currentSymbol = new Symbol(Symbol.SymbolClassCode.PLUS, "+");
+            currentSymbol = PlusSymbol;
         } else if (isMinus(currentChar)) {
             getChar();
-            currentSymbol = new Symbol(Symbol.SymbolClassCode.MINUS, "-");
+            currentSymbol = MinusSymbol;
         } else if (isStar(currentChar)) {
             getChar();
-            currentSymbol = new Symbol(Symbol.SymbolClassCode.MULTIPLY, "*");
+            currentSymbol = MultiplySymbol;
         } else if (isLeftParenthesis(currentChar)) {
             getChar();
-            currentSymbol = new Symbol(Symbol.SymbolClassCode.LEFT_PARENTHESIS, "(");
+            currentSymbol = LeftParenthesisSymbol;
         } else if (isRightParenthesis(currentChar)) {
             getChar();
-            currentSymbol = new Symbol(Symbol.SymbolClassCode.RIGHT_PARENTHESIS, ")");
+            currentSymbol = RightParenthesisSymbol;
         } else if (isComma(currentChar)) {
             getChar();
-            currentSymbol = new Symbol(Symbol.SymbolClassCode.COMMA, ",");
+            currentSymbol = CommaSymbol;
         } else if (isSemicolon(currentChar)) {
             getChar();
-            currentSymbol = new Symbol(Symbol.SymbolClassCode.SEMICOLON, ";");
+            currentSymbol = SemicolonSymbol;
         } else if (isDivide(currentChar)) {//由于PL0文法中没有注释，因此不需要考虑这种情况
             getChar();
-            currentSymbol = new Symbol(Symbol.SymbolClassCode.DIVIDE, "/");
+            currentSymbol = DivideSymbol;
         } else if (isPeriod(currentChar)) {
             getChar();
-            currentSymbol = new Symbol(Symbol.SymbolClassCode.PERIOD, ".");
+            currentSymbol = PeriodSymbol;
         } else if (currentChar == -1) {
 
             error(26);//TODO 错误未定义
@@ -201,27 +361,51 @@ public class Scanner {
 
     /**
      * 获取关键字或标识符
+     * 用扫描时算出的散列值在KeywordTable中找到唯一可能的保留字，再直接与源程序比较，不截取文本；
+     * 标识符登记到nameTable中，同一个名字只截取一次
      *
      * @return
      * @throws IOException
      */
     private Symbol getKeyWordOrIdentifier() throws IOException {
-        StringBuffer buffer = new StringBuffer();
-        do {
-            buffer.append(currentChar);
-            getChar();
-        } while (isLetter(currentChar) || isDigit(currentChar));
-
-        String token = buffer.toString();
-        int indexInReservedWords = Arrays.binarySearch(Symbol.ReservedWords, token);//二分查找，检查当前token是否为保留字
-        Symbol.SymbolClassCode classCode;
-        if (indexInReservedWords < 0) {//标识符
-            classCode = Symbol.SymbolClassCode.IDENTIFIER;
-        } else {//保留字
-            classCode = Symbol.ReservedWordCodes[indexInReservedWords];
-        }
+        tokenStart = position - 1;
+        tokenEnd = scanWhile(tokenStart, true);
+
+        int indexInReservedWords = KeywordTable[(tokenHash >>> KeywordHashShift) & (KeywordTable.length - 1)];
+        if (indexInReservedWords >= 0 && matchesSource(Symbol.ReservedWords[indexInReservedWords], tokenStart, tokenEnd))
+            return ReservedWordSymbols[indexInReservedWords];//保留字
+
+        //标识符，在名字表中查找，第一次出现时才截取文本
+        int id = nameTable.first(tokenHash);
+        while (id >= 0 && !(nameTable.getHash(id) == tokenHash && matchesSource(nameTable.getName(id), tokenStart, tokenEnd)))
+            id = nameTable.next(id);
+        if (id < 0)
+            id = nameTable.add(slice(tokenStart, tokenEnd), tokenHash);
+        nameId = id;
+        return IdentifierSymbol;
+    }
+
+    /**
+     * 保留字的散列值，与scanWhile中的计算相同
+     */
+    private static int keywordHash(String word) {
+        int hash = 0;
+        for (int i = 0; i < word.length(); i++)
+            hash = hash * KeywordHashMultiplier + word.charAt(i);
+        return hash;
+    }
 
-        return new Symbol(classCode, token);
+    /**
+     * @return 源程序中[start, end)的文本是否为word
+     */
+    private boolean matchesSource(String word, int start, int end) {
+        if (word.length() != end - start)
+            return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (word.charAt(i) != charAt(start + i))
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -231,16 +415,99 @@ public class Scanner {
      * @throws IOException
      */
     private Symbol getNumber() throws IOException {
-        StringBuffer buffer = new StringBuffer();
+        int start = position - 1;
+        int end = scanWhile(start, false);
+        tokenStart = start;
+        tokenEnd = end;
+
+        int number;
+        if (end - start > 9)//可能溢出，与逐字符读入时一样交给parseInt（溢出时抛出NumberFormatException）
+            number = Integer.parseInt(slice(start, end));
+        else {
+            number = 0;
+            for (int i = start; i < end; i++)
+                number = number * 10 + (charAt(i) - '0');
+        }
 
-        do {
-            buffer.append(currentChar);
-            getChar();
-        } while (isDigit(currentChar));
+        value = number;
+        return NumberSymbol;
+    }
+
+    /**
+     * @return next()最近返回的标识符的名字
+     */
+    @Override
+    public String getToken() {
+        return nameTable.getName(nameId);
+    }
+
+    /**
+     * @return next()最近返回的标识符在名字表中的编号
+     */
+    @Override
+    public int getNameId() {
+        return nameId;
+    }
+
+    /**
+     * @return next()对kind类单词返回的共享Symbol
+     */
+    static Symbol sharedSymbol(int kind) {
+        return SharedSymbols[kind];
+    }
 
-        int number = Integer.parseInt(buffer.toString());
+    /**
+     * @return 本次编译的标识符名字表
+     */
+    @Override
+    public NameTable getNameTable() {
+        return nameTable;
+    }
+
+    /**
+     * @return next()最近返回的数字的值
+     */
+    @Override
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * 从currentChar(位于start)开始，直接在源程序上向后扫描字母和数字（letters为false时只扫描数字），
+     * 扫描结束后currentChar为第一个不符合的字符，效果与逐个调用getChar相同。
+     * 扫描的同时计算保留字的散列值，存入tokenHash
+     *
+     * @return 第一个不符合的字符的位置
+     */
+    private int scanWhile(int start, boolean letters) {
+        int end = start + 1;
+        int hash = currentChar;
+        if (sourceBytes != null) {
+            ByteBuffer source = sourceBytes;
+            while (end < sourceLength) {
+                char c = (char) source.get(end);
+                if (!isDigit(c) && !(letters && isLetter(c)))
+                    break;
+                hash = hash * KeywordHashMultiplier + c;
+                end++;
+            }
+        } else {
+            char[] source = this.source;
+            while (end < sourceLength) {
+                char c = source[end];
+                if (!isDigit(c) && !(letters && isLetter(c)))
+                    break;
+                hash = hash * KeywordHashMultiplier + c;
+                end++;
+            }
+        }
+        tokenHash = hash;
 
-        return new Symbol(Symbol.SymbolClassCode.NUMBER, number);
+        //单词中不会有换行，行号不变
+        currentChar = end < sourceLength ? charAt(end) : (char) -1;
+        position = end + 1;
+        currentColumnIndex += end - start;
+        return end;
     }
 
     /**
@@ -254,24 +521,76 @@ public class Scanner {
             currentLineNumber++;
             currentColumnIndex = 1;
         }
-        currentChar = (char) bufferedReader.read();
+        if (source == null && sourceBytes == null)
+            readSource();
+        currentChar = position < sourceLength ? charAt(position) : (char) -1;
+        position++;
         currentColumnIndex++;
-        printDebugInfo("get char " + currentChar + "(" + (int) currentChar + ")" + " at line#(" + currentLineNumber + "," + currentColumnIndex + ")");
 
         return currentChar;
     }
 
+    char charAt(int index) {
+        return sourceBytes != null ? (char) sourceBytes.get(index) : source[index];
+    }
+
     /**
-     * 输出错误信息
+     * @return 源程序中[start, end)的文本
      */
-    private void error(int errorCode) {
-        errorHandler.printError(errorCode, getCurrentLocation());
+    private String slice(int start, int end) {
+        if (sourceBytes == null)
+            return new String(source, start, end - start);
+
+        byte[] bytes = new byte[end - start];
+        sourceBytes.get(start, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * 还没有读入源程序时先把它读入，之后可以用charAt、getSourceLength直接访问
+     */
+    void loadSource() throws IOException {
+        if (source == null && sourceBytes == null)
+            readSource();
+    }
+
+    /**
+     * @return 源程序的长度，需要先调用loadSource
+     */
+    int getSourceLength() {
+        return sourceLength;
+    }
+
+    ErrorHandler getErrorHandler() {
+        return errorHandler;
+    }
+
+    /**
+     * @return 是否已扫描到源程序末尾；next()返回null而此时不在末尾，说明遇到了无法识别的字符
+     */
+    boolean atEnd() {
+        return position > sourceLength;
+    }
 
+    /**
+     * 把整个源程序读入source
+     */
+    private void readSource() throws IOException {
+        source = new char[8192];
+        int count;
+        while ((count = bufferedReader.read(source, sourceLength, source.length - sourceLength)) != -1) {
+            sourceLength += count;
+            if (sourceLength == source.length)
+                source = Arrays.copyOf(source, source.length * 2);
+        }
     }
 
-    private void printDebugInfo(String message) {
-//        System.out.println(message);
-//        System.out.flush();
+    /**
+     * 输出错误信息
+     */
+    private void error(int errorCode) {
+        errorHandler.printError(errorCode, getLocation());
+
     }
 
     /**
@@ -280,7 +599,17 @@ public class Scanner {
      * @return
      */
     public String getCurrentLocation() {
-        return String.format("(%d,%d)", currentLineNumber, currentColumnIndex);
+        return ErrorHandler.formatLocation(getLocation());
+    }
+
+    /**
+     * 返回当前字符的位置，不格式化
+     *
+     * @return
+     */
+    @Override
+    public long getLocation() {
+        return ErrorHandler.location(currentLineNumber, currentColumnIndex);
     }
 
     /**
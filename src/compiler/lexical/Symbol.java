@@ -1,12 +1,13 @@
 package compiler.lexical;
 
 /**
+ * 单词符号，创建后不可修改，运算符、界符和保留字的Symbol由Scanner共享
  * Created by zhugongpu on 14/12/1.
  */
 public class Symbol {
     /**
      * 保留字
-     * 按照字母顺序，便于折半查找
+     * 按照字母顺序
      */
     public static final String[] ReservedWords = new String[]{
             "begin",
@@ -50,15 +51,15 @@ public class Symbol {
     /**
      * 若为标识符，保存表字符名称
      */
-    private String token = null;
+    private final String token;
     /**
      * 若为整型，保存整数值
      */
-    private int value;
+    private final int value;
     /**
      * Symbol的类型编码
      */
-    private SymbolClassCode symbolClassCode;
+    private final SymbolClassCode symbolClassCode;
 
     /**
      * 用于表示标识符
@@ -69,17 +70,18 @@ public class Symbol {
     public Symbol(SymbolClassCode symbolClassCode, String token) {
         this.symbolClassCode = symbolClassCode;
         this.token = token;
+        this.value = 0;
     }
 
     /**
      * 用于表示整型
-     * 整形变量/常量的标识符可以通过set方法设置
      *
      * @param symbolClassCode
      * @param value
      */
     public Symbol(SymbolClassCode symbolClassCode, int value) {
         this.symbolClassCode = symbolClassCode;
+        this.token = null;
         this.value = value;
     }
 
@@ -87,18 +89,10 @@ public class Symbol {
         return token;
     }
 
-    public void setToken(String token) {
-        this.token = token;
-    }
-
     public int getValue() {
         return value;
     }
 
-    public void setValue(int value) {
-        this.value = value;
-    }
-
     public SymbolClassCode getSymbolClassCode() {
         return symbolClassCode;
     }
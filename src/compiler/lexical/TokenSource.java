@@ -0,0 +1,42 @@
+package compiler.lexical;
+
+import java.io.IOException;
+
+/**
+ * 语法分析器读取单词的来源：边扫描边分析的Scanner，或预先扫描好的TokenStream
+ */
+public interface TokenSource {
+
+    /**
+     * 读取下一个单词
+     * 返回的Symbol是共享的，只表示单词的类别；标识符的名字和数字的值通过getToken、getNameId、getValue取得
+     *
+     * @return 无法识别或到达源程序末尾时返回null
+     */
+    Symbol next() throws IOException;
+
+    /**
+     * @return next()最近返回的标识符的名字
+     */
+    String getToken();
+
+    /**
+     * @return next()最近返回的标识符在名字表中的编号
+     */
+    int getNameId();
+
+    /**
+     * @return next()最近返回的数字的值
+     */
+    int getValue();
+
+    /**
+     * @return 当前位置，见ErrorHandler.location，报错时才格式化
+     */
+    long getLocation();
+
+    /**
+     * @return 本次编译的标识符名字表，getNameId返回的编号在其中登记
+     */
+    NameTable getNameTable();
+}
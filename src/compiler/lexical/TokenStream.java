@@ -0,0 +1,239 @@
+package compiler.lexical;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 预先扫描得到的整个单词序列
+ * <p/>
+ * 按列存放在几个基本类型数组中：单词的类别、标识符的编号或数字的值、单词之后的位置，不为每个单词分配对象。
+ * 位置以ErrorHandler.location的形式保存，只在报错时才格式化。
+ * 语法分析器通过reader()按下标读取，可以向前查看任意个单词，也可以回到之前的位置重新分析
+ */
+public final class TokenStream {
+
+    private static final int Identifier = Symbol.SymbolClassCode.IDENTIFIER.ordinal();
+    private static final int Number = Symbol.SymbolClassCode.NUMBER.ordinal();
+
+    /**
+     * 单词的类别，即SymbolClassCode的序号
+     */
+    private int[] kinds = new int[1024];
+    /**
+     * 标识符在名字表中的编号，或数字的值
+     */
+    private int[] values = new int[1024];
+    /**
+     * Scanner读完该单词之后的位置，与边扫描边分析时getCurrentLocation的结果相同
+     */
+    private long[] locations = new long[1024];
+    private int size = 0;
+
+    /**
+     * 最后一个单词之后，Scanner返回null时的位置
+     */
+    private long endLocation = 0;
+
+    /**
+     * 标识符的名字表
+     */
+    private NameTable nameTable = null;
+
+    TokenStream(NameTable nameTable) {
+        this.nameTable = nameTable;
+    }
+
+    /**
+     * 扫描整个源程序，直到scanner返回null（源程序结束或无法识别的字符）为止
+     * 扫描中的词法错误此时就会报告
+     */
+    public static TokenStream scan(Scanner scanner) throws IOException {
+        TokenStream stream = new TokenStream(scanner.getNameTable());
+
+        Symbol symbol;
+        while ((symbol = scanner.next()) != null) {
+            int kind = symbol.getSymbolClassCode().ordinal();
+            int value = 0;
+            if (kind == Identifier)
+                value = scanner.getNameId();
+            else if (kind == Number)
+                value = scanner.getValue();
+            stream.add(kind, value, scanner.getLocation());
+        }
+        stream.endLocation = scanner.getLocation();
+        return stream;
+    }
+
+    void add(int kind, int value, long location) {
+        if (size == kinds.length) {
+            kinds = Arrays.copyOf(kinds, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+            locations = Arrays.copyOf(locations, size * 2);
+        }
+        kinds[size] = kind;
+        values[size] = value;
+        locations[size] = location;
+        size++;
+    }
+
+    void setEndLocation(long endLocation) {
+        this.endLocation = endLocation;
+    }
+
+    /**
+     * 把源程序按空白切分为若干段，在pool中并行扫描后按顺序拼接，
+     * 得到的单词、名字编号、位置以及报告的词法错误都与scan(scanner)相同
+     * 源程序较小时直接顺序扫描
+     *
+     * @param scanner 还没有读取过单词的Scanner
+     */
+    public static TokenStream scan(Scanner scanner, ForkJoinPool pool) throws IOException {
+        return new ParallelLexer(scanner, pool).scan();
+    }
+
+    /**
+     * @return 单词的个数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return 第index个单词的类别（SymbolClassCode的序号），超出末尾时为NULL的序号
+     */
+    public int getKind(int index) {
+        return index < size ? kinds[index] : Symbol.SymbolClassCode.NULL.ordinal();
+    }
+
+    /**
+     * @return 第index个单词为标识符时是其名字的编号，为数字时是其值
+     */
+    public int getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return 第index个单词之后的位置，超出末尾时为源程序结束的位置
+     */
+    public long getLocation(int index) {
+        return index < size ? locations[index] : endLocation;
+    }
+
+    /**
+     * @return 第index个单词（标识符）的名字
+     */
+    public String getName(int index) {
+        return nameTable.getName(values[index]);
+    }
+
+    /**
+     * @return 标识符的名字表
+     */
+    public NameTable getNameTable() {
+        return nameTable;
+    }
+
+    /**
+     * @return 从第一个单词开始读取的TokenSource
+     */
+    public Reader reader() {
+        return new Reader();
+    }
+
+    /**
+     * 按下标读取TokenStream，用法与Scanner相同
+     */
+    public final class Reader implements TokenSource {
+
+        /**
+         * next()最近返回的单词的下标，尚未读取时为-1
+         */
+        private int index = -1;
+
+        /*
+         * 与Scanner相同，最近一个标识符的编号和最近一个数字的值在读到下一个同类单词之前保持不变
+         */
+        private int nameId = -1;
+        private int value = 0;
+
+        private Reader() {
+        }
+
+        @Override
+        public Symbol next() {
+            if (index < size)
+                index++;
+            if (index == size)
+                return null;
+
+            int kind = kinds[index];
+            if (kind == Identifier)
+                nameId = values[index];
+            else if (kind == Number)
+                value = values[index];
+            return Scanner.sharedSymbol(kind);
+        }
+
+        /**
+         * 向前查看，不移动位置
+         *
+         * @return 当前单词之后第distance个单词的类别，超出末尾时为NULL的序号
+         */
+        public int peek(int distance) {
+            return getKind(index + distance);
+        }
+
+        /**
+         * @return 当前单词的下标，可以之后交给setPosition重新分析
+         */
+        public int getPosition() {
+            return index;
+        }
+
+        /**
+         * 回到position处，下一次next()返回其后的单词
+         */
+        public void setPosition(int position) {
+            index = position;
+
+            //重新找出position之前最近的标识符和数字
+            nameId = -1;
+            value = 0;
+            boolean valueFound = false;
+            for (int i = Math.min(position, size - 1); i >= 0 && (nameId < 0 || !valueFound); i--) {
+                if (kinds[i] == Identifier && nameId < 0) {
+                    nameId = values[i];
+                } else if (kinds[i] == Number && !valueFound) {
+                    value = values[i];
+                    valueFound = true;
+                }
+            }
+        }
+
+        @Override
+        public String getToken() {
+            return nameTable.getName(nameId);
+        }
+
+        @Override
+        public NameTable getNameTable() {
+            return nameTable;
+        }
+
+        @Override
+        public int getNameId() {
+            return nameId;
+        }
+
+        @Override
+        public int getValue() {
+            return value;
+        }
+
+        @Override
+        public long getLocation() {
+            return TokenStream.this.getLocation(index < 0 ? 0 : index);
+        }
+    }
+}
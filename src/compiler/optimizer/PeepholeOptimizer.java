@@ -0,0 +1,364 @@
+package compiler.optimizer;
+
+import compiler.interpreter.Interpreter;
+import compiler.interpreter.PCode;
+import compiler.symbol_table.SymbolTable;
+import compiler.symbol_table.Tuple;
+
+/**
+ * 窥孔优化
+ * 在语法分析（代码生成）完成之后、输出代码之前，对Interpreter中的PCode做基于规则的局部改写：
+ * 1. JMP/JPC的目标是另一条JMP时，直接跳到最终目标
+ * 2. 删除跳到下一条指令的JMP
+ * 3. 删除 LIT 0,0 + OPR 0,2/3 和 LIT 0,1 + OPR 0,4/5 这类恒等运算
+ * 4. LIT 0,k + OPR 0,1 改写为 LIT 0,-k
+ * 5. LIT + LIT + OPR 的常量运算直接算出结果
+ * 6. 删除JMP和返回指令之后不可达的代码
+ * 删除指令后重新计算所有跳转地址、过程调用地址以及符号表中过程的入口地址
+ */
+public class PeepholeOptimizer {
+
+    private static final int LIT = PCode.CodeType.LIT.ordinal();
+    private static final int OPR = PCode.CodeType.OPR.ordinal();
+    private static final int CAL = PCode.CodeType.CAL.ordinal();
+    private static final int JMP = PCode.CodeType.JMP.ordinal();
+    private static final int JPC = PCode.CodeType.JPC.ordinal();
+
+    private static final PCode.CodeType[] CodeTypes = PCode.CodeType.values();
+
+    private Interpreter interpreter = null;
+
+    private SymbolTable symbolTable = null;
+
+    /**
+     * 优化规则，按顺序尝试
+     */
+    private final Rule[] rules = new Rule[]{
+            new JumpChainRule(),
+            new JumpToNextRule(),
+            new IdentityArithmeticRule(),
+            new NegateLiteralRule(),
+            new ConstantArithmeticRule(),
+            new UnreachableCodeRule()
+    };
+
+    /**
+     * 优化过程中使用的代码副本
+     */
+    private int length;
+    private int[] types;
+    private int[] levels;
+    private int[] arguments;
+    /**
+     * 标记已被删除的指令
+     */
+    private boolean[] removed;
+    /**
+     * 标记可能作为跳转或调用目标的指令，这些指令不能被合并进前一条指令
+     */
+    private boolean[] targets;
+
+    public PeepholeOptimizer(Interpreter interpreter, SymbolTable symbolTable) {
+        this.interpreter = interpreter;
+        this.symbolTable = symbolTable;
+    }
+
+    /**
+     * 执行优化，直到没有规则可以再应用
+     *
+     * @return 删除的指令条数
+     */
+    public int optimize() {
+        load();
+
+        boolean changed;
+        do {
+            changed = false;
+            for (int i = 0; i < length; i++) {
+                for (Rule rule : rules) {
+                    if (!removed[i] && rule.apply(i))
+                        changed = true;
+                }
+            }
+        } while (changed);
+
+        return store();
+    }
+
+    /**
+     * 读入Interpreter中的代码，并标记跳转目标
+     */
+    private void load() {
+        length = interpreter.getCodeIndex();
+        types = new int[length];
+        levels = new int[length];
+        arguments = new int[length];
+        removed = new boolean[length + 1];
+        targets = new boolean[length + 1];
+
+        for (int i = 0; i < length; i++) {
+            types[i] = interpreter.getCodeTypeAtIndex(i).ordinal();
+            levels[i] = interpreter.getLevelDifferenceAtIndex(i);
+            arguments[i] = interpreter.getArgumentAtIndex(i);
+        }
+
+        targets[0] = true;//程序入口
+        for (int i = 0; i < length; i++) {
+            if (isJump(i) || types[i] == CAL)
+                markTarget(arguments[i]);
+        }
+        for (int i = 0; i < symbolTable.getTableSize(); i++) {
+            if (isCodeAddress(i))
+                markTarget(symbolTable.getAddress(i));
+        }
+    }
+
+    /**
+     * 压缩代码并写回Interpreter，同时重定位跳转地址和符号表中的过程地址
+     *
+     * @return 删除的指令条数
+     */
+    private int store() {
+        //newIndex[i]为i之前保留下来的指令条数，即i（或i之后第一条保留的指令）的新地址
+        int[] newIndex = new int[length + 1];
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            newIndex[i] = count;
+            if (!removed[i])
+                count++;
+        }
+        newIndex[length] = count;
+
+        for (int i = 0; i < length; i++) {
+            if (removed[i])
+                continue;
+
+            int argument = arguments[i];
+            if (isJump(i) || types[i] == CAL)
+                argument = newIndex[clamp(argument)];
+
+            interpreter.setPCodeAtIndex(newIndex[i], CodeTypes[types[i]], levels[i], argument);
+        }
+        interpreter.setCodeIndex(count);
+
+        for (int i = 0; i < symbolTable.getTableSize(); i++) {
+            if (isCodeAddress(i))
+                symbolTable.setAddress(i, newIndex[clamp(symbolTable.getAddress(i))]);
+        }
+
+        return length - count;
+    }
+
+    /**
+     * 符号表中记录代码地址的项：过程，以及block为主程序使用的第0项
+     */
+    private boolean isCodeAddress(int tableIndex) {
+        return tableIndex == 0 || symbolTable.getKind(tableIndex) == Tuple.TupleType.PROCEDURE;
+    }
+
+    private boolean isJump(int index) {
+        return types[index] == JMP || types[index] == JPC;
+    }
+
+    private boolean isOperation(int index, int operation) {
+        return types[index] == OPR && arguments[index] == operation;
+    }
+
+    private int clamp(int address) {
+        return address < 0 ? 0 : address > length ? length : address;
+    }
+
+    private void markTarget(int address) {
+        targets[effectiveAddress(clamp(address))] = true;
+    }
+
+    /**
+     * @return index之后（不含index）第一条未被删除的指令，没有则返回length
+     */
+    private int nextLive(int index) {
+        do {
+            index++;
+        } while (index < length && removed[index]);
+        return index;
+    }
+
+    /**
+     * @return 跳转到address时实际执行的第一条指令，即address及之后第一条未被删除的指令
+     */
+    private int effectiveAddress(int address) {
+        while (address < length && removed[address])
+            address++;
+        return address;
+    }
+
+    /**
+     * 删除一条指令，跳到它的跳转此后会落到下一条保留的指令上
+     */
+    private void remove(int index) {
+        removed[index] = true;
+        if (targets[index])
+            targets[nextLive(index)] = true;
+    }
+
+    /**
+     * 一条窥孔优化规则
+     */
+    private interface Rule {
+        /**
+         * 尝试在index处应用本规则
+         *
+         * @return 是否修改了代码
+         */
+        boolean apply(int index);
+    }
+
+    /**
+     * JMP/JPC 跳转到 JMP 时，直接跳转到最终目标
+     */
+    private class JumpChainRule implements Rule {
+        @Override
+        public boolean apply(int index) {
+            if (!isJump(index))
+                return false;
+
+            int target = effectiveAddress(clamp(arguments[index]));
+            int hops = 0;
+            while (target < length && types[target] == JMP && target != index && hops < length) {
+                target = effectiveAddress(clamp(arguments[target]));
+                hops++;
+            }
+
+            if (hops >= length)//JMP构成了环，不做处理
+                return false;
+            if (target == effectiveAddress(clamp(arguments[index])))
+                return false;
+
+            arguments[index] = target;
+            targets[target] = true;
+            return true;
+        }
+    }
+
+    /**
+     * 删除跳转到下一条指令的JMP
+     */
+    private class JumpToNextRule implements Rule {
+        @Override
+        public boolean apply(int index) {
+            if (types[index] != JMP || effectiveAddress(clamp(arguments[index])) != nextLive(index))
+                return false;
+
+            remove(index);
+            return true;
+        }
+    }
+
+    /**
+     * x+0, x-0, x*1, x/1
+     */
+    private class IdentityArithmeticRule implements Rule {
+        @Override
+        public boolean apply(int index) {
+            if (types[index] != LIT)
+                return false;
+
+            int next = nextLive(index);
+            if (next >= length || targets[next])
+                return false;
+
+            if ((arguments[index] == 0 && (isOperation(next, 2) || isOperation(next, 3))) ||
+                    (arguments[index] == 1 && (isOperation(next, 4) || isOperation(next, 5)))) {
+                remove(index);
+                remove(next);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * LIT 0,k + OPR 0,1 => LIT 0,-k
+     */
+    private class NegateLiteralRule implements Rule {
+        @Override
+        public boolean apply(int index) {
+            if (types[index] != LIT)
+                return false;
+
+            int next = nextLive(index);
+            if (next >= length || targets[next] || !isOperation(next, 1))
+                return false;
+
+            arguments[index] = -arguments[index];
+            remove(next);
+            return true;
+        }
+    }
+
+    /**
+     * LIT 0,a + LIT 0,b + OPR 0,op => LIT 0,(a op b)
+     * 除数为0时保留原代码，留到运行时报错
+     */
+    private class ConstantArithmeticRule implements Rule {
+        @Override
+        public boolean apply(int index) {
+            if (types[index] != LIT)
+                return false;
+
+            int second = nextLive(index);
+            if (second >= length || targets[second] || types[second] != LIT)
+                return false;
+
+            int operation = nextLive(second);
+            if (operation >= length || targets[operation] || types[operation] != OPR)
+                return false;
+
+            int a = arguments[index];
+            int b = arguments[second];
+            int result;
+            switch (arguments[operation]) {
+                case 2:
+                    result = a + b;
+                    break;
+                case 3:
+                    result = a - b;
+                    break;
+                case 4:
+                    result = a * b;
+                    break;
+                case 5:
+                    if (b == 0)
+                        return false;
+                    result = a / b;
+                    break;
+                default:
+                    return false;
+            }
+
+            arguments[index] = result;
+            remove(second);
+            remove(operation);
+            return true;
+        }
+    }
+
+    /**
+     * 删除无条件跳转和返回指令之后、下一个跳转目标之前的不可达代码
+     */
+    private class UnreachableCodeRule implements Rule {
+        @Override
+        public boolean apply(int index) {
+            if (types[index] != JMP && !isOperation(index, 0))
+                return false;
+
+            boolean changed = false;
+            int next = nextLive(index);
+            while (next < length && !targets[next]) {
+                remove(next);
+                changed = true;
+                next = nextLive(next);
+            }
+            return changed;
+        }
+    }
+}
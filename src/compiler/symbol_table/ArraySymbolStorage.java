@@ -0,0 +1,163 @@
+package compiler.symbol_table;
+
+import java.util.Arrays;
+
+/**
+ * 按字段分别保存在并列的基本类型数组中（struct of arrays）
+ * <p/>
+ * 每条记录21字节，不产生对象，名字只保存NameTable中的编号；value和address分开保存，与TupleStorage一样可以对任意记录setAddress。
+ * 数组中间留一段空隙（gap buffer）：SymbolTable总是在tableIndex+1处插入，空隙就停在那里，
+ * 插入不必后移已退出作用域的记录，退出作用域时空隙只移过该作用域的记录；空隙用完时数组按2倍增长
+ */
+class ArraySymbolStorage implements SymbolStorage {
+
+    private static final Tuple.TupleType[] TupleTypes = Tuple.TupleType.values();
+
+    /**
+     * 空隙的起止位置，记录[0, gapStart)和[gapEnd, capacity)依次构成符号表
+     */
+    private int gapStart = 0;
+    private int gapEnd = 64;
+
+    private int[] nameIds = new int[64];
+    /**
+     * TupleType的序号
+     */
+    private byte[] kinds = new byte[64];
+    private int[] levels = new int[64];
+    private int[] values = new int[64];
+    private int[] addresses = new int[64];
+    private int[] sizes = new int[64];
+
+    @Override
+    public int size() {
+        return nameIds.length - (gapEnd - gapStart);
+    }
+
+    @Override
+    public void insert(int index, int nameId, Tuple.TupleType kind, int value, int level, int address) {
+        if (index < 0 || index > size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+
+        if (gapStart == gapEnd)
+            grow();
+        moveGap(index);
+
+        nameIds[index] = nameId;
+        kinds[index] = (byte) kind.ordinal();
+        levels[index] = level;
+        values[index] = value;
+        addresses[index] = address;
+        sizes[index] = 0;
+        gapStart++;
+    }
+
+    @Override
+    public void ensure(int index) {
+        if (index >= size()) {
+            //与new Tuple()的默认值相同
+            insert(index, -1, Tuple.TupleType.VARIABLE, -1, 0, 0);
+        }
+    }
+
+    /**
+     * 把空隙移到index处
+     */
+    private void moveGap(int index) {
+        if (index < gapStart) {
+            int moved = gapStart - index;
+            move(index, gapEnd - moved, moved);
+            gapStart -= moved;
+            gapEnd -= moved;
+        } else if (index > gapStart) {
+            int moved = index - gapStart;
+            move(gapEnd, gapStart, moved);
+            gapStart += moved;
+            gapEnd += moved;
+        }
+    }
+
+    private void move(int from, int to, int length) {
+        System.arraycopy(nameIds, from, nameIds, to, length);
+        System.arraycopy(kinds, from, kinds, to, length);
+        System.arraycopy(levels, from, levels, to, length);
+        System.arraycopy(values, from, values, to, length);
+        System.arraycopy(addresses, from, addresses, to, length);
+        System.arraycopy(sizes, from, sizes, to, length);
+    }
+
+    /**
+     * 容量加倍，空隙之后的记录移到新数组的末尾
+     */
+    private void grow() {
+        int length = nameIds.length;
+        int newLength = length * 2;
+        nameIds = Arrays.copyOf(nameIds, newLength);
+        kinds = Arrays.copyOf(kinds, newLength);
+        levels = Arrays.copyOf(levels, newLength);
+        values = Arrays.copyOf(values, newLength);
+        addresses = Arrays.copyOf(addresses, newLength);
+        sizes = Arrays.copyOf(sizes, newLength);
+
+        int tail = length - gapEnd;
+        move(gapEnd, newLength - tail, tail);
+        gapEnd = newLength - tail;
+    }
+
+    /**
+     * @return 第index条记录在数组中的位置
+     */
+    private int slot(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        return index < gapStart ? index : index + (gapEnd - gapStart);
+    }
+
+    @Override
+    public int getNameId(int index) {
+        index = slot(index);
+        return nameIds[index];
+    }
+
+    @Override
+    public Tuple.TupleType getKind(int index) {
+        index = slot(index);
+        return TupleTypes[kinds[index]];
+    }
+
+    @Override
+    public int getValue(int index) {
+        index = slot(index);
+        return values[index];
+    }
+
+    @Override
+    public int getLevel(int index) {
+        index = slot(index);
+        return levels[index];
+    }
+
+    @Override
+    public int getAddress(int index) {
+        index = slot(index);
+        return addresses[index];
+    }
+
+    @Override
+    public int getSize(int index) {
+        index = slot(index);
+        return sizes[index];
+    }
+
+    @Override
+    public void setAddress(int index, int address) {
+        index = slot(index);
+        addresses[index] = address;
+    }
+
+    @Override
+    public void setSize(int index, int size) {
+        index = slot(index);
+        sizes[index] = size;
+    }
+}
@@ -0,0 +1,82 @@
+package compiler.symbol_table;
+
+/**
+ * 叠加在另一个符号表前base条记录之上的存储，用于并行编译各过程时的私有符号表
+ * <p/>
+ * 位置小于base的记录直接读outer，只读（编译这些过程期间outer不会被修改）；其余记录保存在inner中
+ */
+class LayeredSymbolStorage implements SymbolStorage {
+
+    private SymbolStorage outer = null;
+    private int base = 0;
+    private SymbolStorage inner = new ArraySymbolStorage();
+
+    LayeredSymbolStorage(SymbolStorage outer, int base) {
+        this.outer = outer;
+        this.base = base;
+    }
+
+    @Override
+    public int size() {
+        return base + inner.size();
+    }
+
+    @Override
+    public void insert(int index, int nameId, Tuple.TupleType kind, int value, int level, int address) {
+        checkWritable(index);
+        inner.insert(index - base, nameId, kind, value, level, address);
+    }
+
+    @Override
+    public void ensure(int index) {
+        if (index >= base)
+            inner.ensure(index - base);
+    }
+
+    @Override
+    public int getNameId(int index) {
+        return index < base ? outer.getNameId(index) : inner.getNameId(index - base);
+    }
+
+    @Override
+    public Tuple.TupleType getKind(int index) {
+        return index < base ? outer.getKind(index) : inner.getKind(index - base);
+    }
+
+    @Override
+    public int getValue(int index) {
+        return index < base ? outer.getValue(index) : inner.getValue(index - base);
+    }
+
+    @Override
+    public int getLevel(int index) {
+        return index < base ? outer.getLevel(index) : inner.getLevel(index - base);
+    }
+
+    @Override
+    public int getAddress(int index) {
+        return index < base ? outer.getAddress(index) : inner.getAddress(index - base);
+    }
+
+    @Override
+    public int getSize(int index) {
+        return index < base ? outer.getSize(index) : inner.getSize(index - base);
+    }
+
+    @Override
+    public void setAddress(int index, int address) {
+        checkWritable(index);
+        inner.setAddress(index - base, address);
+    }
+
+    @Override
+    public void setSize(int index, int size) {
+        checkWritable(index);
+        inner.setSize(index - base, size);
+    }
+
+    private void checkWritable(int index) {
+        if (index < base)
+            throw new UnsupportedOperationException("外层符号表的记录是只读的: " + index);
+    }
+}
@@ -0,0 +1,41 @@
+package compiler.symbol_table;
+
+/**
+ * 符号表记录的存储方式
+ * <p/>
+ * 记录按位置排列，insert在指定位置插入并把其后的记录后移（保留已退出作用域的记录，与输出的符号表一致）
+ * 记录中只保存名字编号，名字由SymbolTable到NameTable中查找
+ */
+interface SymbolStorage {
+
+    /**
+     * @return 实际保存的记录条数
+     */
+    int size();
+
+    /**
+     * 在index处插入一条记录，index及其后的记录后移一位
+     */
+    void insert(int index, int nameId, Tuple.TupleType kind, int value, int level, int address);
+
+    /**
+     * index等于size时在末尾添加一条默认的记录（主程序使用的第0项即由此创建）
+     */
+    void ensure(int index);
+
+    int getNameId(int index);
+
+    Tuple.TupleType getKind(int index);
+
+    int getValue(int index);
+
+    int getLevel(int index);
+
+    int getAddress(int index);
+
+    int getSize(int index);
+
+    void setAddress(int index, int address);
+
+    void setSize(int index, int size);
+}
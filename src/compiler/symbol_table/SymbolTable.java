@@ -1,7 +1,9 @@
 package compiler.symbol_table;
 
+import compiler.lexical.NameTable;
+
 import java.io.PrintStream;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * 符号表
@@ -14,105 +16,298 @@ public class SymbolTable {
      */
     public static final int MAX_LEVEL = 3;
     public static int MAX_NUMBER = Integer.MAX_VALUE;//支持的整数的最大值
+    /**
+     * 符号表记录的存储方式
+     */
+    public enum Storage {
+        /**
+         * 每条记录一个Tuple对象
+         */
+        TUPLES,
+        /**
+         * 各字段分别保存在并列的基本类型数组中
+         */
+        ARRAYS
+    }
+
     /**
      * 符号表
      */
-    private ArrayList<Tuple> table = new ArrayList<Tuple>();
+    private SymbolStorage table = null;
     /**
      * 当前符号表项指针（有效的符号表大小）
      */
     private int tableIndex = 0;
 
+    /**
+     * 以名字编号为下标：该名字当前可见的最内层声明在table中的位置，没有可见的声明时为-1
+     * table中0..tableIndex的记录不会再移动，因此位置在记录可见期间一直有效
+     */
+    private int[] innermost = new int[256];
+
+    /**
+     * 以位置-base为下标：登录该记录前同名声明的innermost，退出作用域时据此恢复
+     * 0..tableIndex的记录都是可见的，位置不会移动，因此不需要单独的撤销栈
+     */
+    private int[] shadowed = new int[256];
+
+    /**
+     * 记录中只保存名字编号，输出和复制记录时在这里查找名字，见setNameTable
+     */
+    private NameTable nameTable = null;
+
+    /**
+     * 外层符号表，不为null时位置小于base的记录属于outer，见SymbolTable(SymbolTable, int)
+     */
+    private SymbolTable outer = null;
+    private int base = 0;
+
+    /**
+     * shadowed中的标记：该位置的记录不是由enter登录的（setTableIndex调大tableIndex时跳过的位置）
+     */
+    private static final int NotEntered = -2;
+
+    public SymbolTable() {
+        this(Storage.ARRAYS);
+    }
+
+    public SymbolTable(Storage storage) {
+        table = storage == Storage.TUPLES ? new TupleStorage() : new ArraySymbolStorage();
+        Arrays.fill(innermost, -1);
+    }
+
+    /**
+     * 建立在outer的前base条记录之上的符号表，用于并行编译过程
+     * 这些记录只读，其中的声明在本表中同样可见（base之后才登录到outer的声明不可见）；
+     * 之后登录的记录从位置base开始保存在本表中。使用期间outer不能被修改
+     *
+     * @param outer 外层符号表，本身不能是这样建立的符号表
+     * @param base  可见的外层记录条数
+     */
+    public SymbolTable(SymbolTable outer, int base) {
+        this.table = new LayeredSymbolStorage(outer.table, base);
+        this.outer = outer;
+        this.base = base;
+        this.tableIndex = base - 1;
+        this.nameTable = outer.nameTable;
+        Arrays.fill(innermost, -1);
+    }
+
+    /**
+     * 设置登录时所用名字编号所在的名字表，语法分析器开始分析前由单词来源取得并设置
+     *
+     * @param nameTable
+     */
+    public void setNameTable(NameTable nameTable) {
+        this.nameTable = nameTable;
+    }
+
+    /**
+     * @return 第index条记录的名字，没有名字或未设置名字表时为null
+     */
+    private String getName(int index) {
+        int nameId = table.getNameId(index);
+        return nameTable != null && nameId >= 0 ? nameTable.getName(nameId) : null;
+    }
+
     public int getTableIndex() {
         return tableIndex;
     }
 
+    /**
+     * 设置当前符号表项指针，Parser.block结束时用来退出作用域
+     * 位置在tableIndex之后的声明不再能被position找到
+     *
+     * @param tableIndex
+     */
     public void setTableIndex(int tableIndex) {
+        for (int i = this.tableIndex; i > tableIndex; i--) {
+            if (shadowed[i - base] != NotEntered)
+                innermost[table.getNameId(i)] = shadowed[i - base];
+        }
+        if (tableIndex > this.tableIndex) {
+            ensureShadowed(tableIndex - base);
+            Arrays.fill(shadowed, this.tableIndex + 1 - base, tableIndex + 1 - base, NotEntered);
+        }
+
         this.tableIndex = tableIndex;
     }
 
     /**
-     * 向符号表中插入一条记录
+     * 返回符号表中实际保存的记录条数，包括已经退出作用域的记录
      *
-     * @param tuple
+     * @return
      */
-    private void enter(Tuple tuple) {
+    public int getTableSize() {
+        return table.size();
+    }
+
+    /**
+     * 向符号表中插入一条记录
+     */
+    private void enter(int nameId, Tuple.TupleType kind, int value, int level, int address) {
         tableIndex++;
-        table.add(tableIndex, tuple);//在tableIndex处添加tuple
+        table.insert(tableIndex, nameId, kind, value, level, address);//在tableIndex处添加记录
+
+        if (nameId >= innermost.length) {
+            int length = innermost.length;
+            innermost = Arrays.copyOf(innermost, Math.max(length * 2, nameId + 1));
+            Arrays.fill(innermost, length, innermost.length, -1);
+        }
+        ensureShadowed(tableIndex - base);
+        shadowed[tableIndex - base] = innermost[nameId];
+
+        innermost[nameId] = tableIndex;
+    }
+
+    private void ensureShadowed(int index) {
+        if (index >= shadowed.length)
+            shadowed = Arrays.copyOf(shadowed, Math.max(shadowed.length * 2, index + 1));
     }
 
     /**
      * 将常量登录到符号表中
      *
-     * @param identifier 常量的标识符
-     * @param value      常量的值
+     * @param nameId 标识符在NameTable中的编号
+     * @param value  常量的值
      */
-    public void enterConstant(String identifier, int value) {
-        Tuple tuple = new Tuple();
-        tuple.kind = Tuple.TupleType.CONSTANT;
-        tuple.name = identifier;
-        tuple.value = value;
-        enter(tuple);
+    public void enterConstant(int nameId, int value) {
+        enter(nameId, Tuple.TupleType.CONSTANT, value, 0, 0);
     }
 
     /**
      * 将变量登录到符号表中
      *
-     * @param identifier 变量名
-     * @param level      所处层级
-     * @param address    偏移地址，调用之后需要将dx+1
+     * @param nameId  变量名在NameTable中的编号
+     * @param level   所处层级
+     * @param address 偏移地址，调用之后需要将dx+1
      */
-    public void enterVariable(String identifier, int level, int address) {
-        Tuple tuple = new Tuple();
-        tuple.kind = Tuple.TupleType.VARIABLE;
-        tuple.name = identifier;
-        tuple.level = level;
-        tuple.address = address;
-        enter(tuple);
+    public void enterVariable(int nameId, int level, int address) {
+        enter(nameId, Tuple.TupleType.VARIABLE, -1, level, address);
     }
 
     /**
      * 将过程登录到符号表中
      *
-     * @param identifier 过程名
-     * @param level      所处层级
+     * @param nameId 过程名在NameTable中的编号
+     * @param level  所处层级
      */
-    public void enterProcedure(String identifier, int level) {
-        Tuple tuple = new Tuple();
-        tuple.kind = Tuple.TupleType.PROCEDURE;
-        tuple.name = identifier;
-        tuple.level = level;
-        enter(tuple);
+    public void enterProcedure(int nameId, int level) {
+        enter(nameId, Tuple.TupleType.PROCEDURE, -1, level, 0);
     }
 
     /**
      * 查找标识符在符号表中的位置
      * 在对各种语句进行分析处理时，凡遇到标识符，都要调用该方法去查找符号表
+     * 返回当前可见的最内层声明，同一作用域中重复声明时为最后一个；已退出的作用域中的声明不会被找到
      *
-     * @param identifier
+     * @param nameId 标识符在NameTable中的编号
      * @return 若该标识符在table中已定义，则返回它在table中的位置；若table中不包含该标识符，则返回-1
      */
-    public int position(String identifier) {
+    public int position(int nameId) {
+        int index = nameId >= 0 && nameId < innermost.length ? innermost[nameId] : -1;
+        if (index < 0 && outer != null)
+            index = outer.positionBefore(nameId, base);
+        return index;
+    }
 
-        for (int i = table.size() - 1; i >= 0; i--) {
-            if (table.get(i).name != null && table.get(i).name.equals(identifier)) {
-                return i;
-            }
+    /**
+     * @return 只考虑位置小于limit的记录时，position(nameId)的结果
+     */
+    private int positionBefore(int nameId, int limit) {
+        int index = position(nameId);
+        while (index >= limit)
+            index = shadowed[index - base];
+        return index;
+    }
+
+    /**
+     * 把other中从from开始的记录依次添加到本表末尾，作为已退出作用域的记录，不能被position找到
+     * 用于并行编译后合并各过程的符号表，使输出的符号表与顺序编译相同
+     *
+     * @param codeOffset 加到过程入口地址上的偏移，即该过程的代码在合并后的起始位置
+     */
+    public void appendClosedRecords(SymbolTable other, int from, int codeOffset) {
+        SymbolStorage records = other.table;
+        for (int i = from; i < records.size(); i++) {
+            Tuple.TupleType kind = records.getKind(i);
+            int address = records.getAddress(i);
+            if (kind == Tuple.TupleType.PROCEDURE)
+                address += codeOffset;
+
+            int index = table.size();
+            table.insert(index, records.getNameId(i), kind, records.getValue(i),
+                    records.getLevel(i), address);
+            table.setSize(index, records.getSize(i));
         }
-        return -1;
     }
 
     /**
-     * 返回符号表中的一条记录
+     * 返回符号表中一条记录的副本，修改副本不会影响符号表
      *
      * @param index
      * @return
      */
     public Tuple getTupleAtIndex(int index) {
-        if (index >= table.size())
-            table.add(index, new Tuple());
+        table.ensure(index);
 
-        return table.get(index);
+        Tuple tuple = new Tuple();
+        tuple.name = getName(index);
+        tuple.nameId = table.getNameId(index);
+        tuple.kind = table.getKind(index);
+        tuple.value = table.getValue(index);
+        tuple.level = table.getLevel(index);
+        tuple.address = table.getAddress(index);
+        tuple.size = table.getSize(index);
+        return tuple;
+    }
+
+    /*
+     * 以下方法按字段读写一条记录，index等于符号表大小时先添加一条默认的记录（主程序的第0项）
+     */
+
+    public Tuple.TupleType getKind(int index) {
+        table.ensure(index);
+        return table.getKind(index);
+    }
+
+    /**
+     * @return 常量的值，仅当kind为CONSTANT时有意义
+     */
+    public int getValue(int index) {
+        table.ensure(index);
+        return table.getValue(index);
+    }
+
+    public int getLevel(int index) {
+        table.ensure(index);
+        return table.getLevel(index);
+    }
+
+    /**
+     * @return 变量的偏移地址或过程的入口地址
+     */
+    public int getAddress(int index) {
+        table.ensure(index);
+        return table.getAddress(index);
+    }
+
+    public void setAddress(int index, int address) {
+        table.ensure(index);
+        table.setAddress(index, address);
+    }
+
+    public int getSize(int index) {
+        table.ensure(index);
+        return table.getSize(index);
+    }
+
+    /**
+     * @param size 过程需要分配的数据区空间
+     */
+    public void setSize(int index, int size) {
+        table.ensure(index);
+        table.setSize(index, size);
     }
 
     /**
@@ -156,22 +351,21 @@ public class SymbolTable {
             String level = "<NULL>";
             String address = "<NULL>";
 
-            Tuple tuple = table.get(i);
-            name = tuple.name;
-            switch (tuple.kind) {
+            name = getName(i);
+            switch (table.getKind(i)) {
                 case CONSTANT:
                     type = "Const";
-                    value = tuple.value + "";
+                    value = table.getValue(i) + "";
                     break;
                 case VARIABLE:
                     type = "Var";
-                    level = tuple.level + "";
-                    address = tuple.address + "";
+                    level = table.getLevel(i) + "";
+                    address = table.getAddress(i) + "";
                     break;
                 case PROCEDURE:
                     type = "Pro";
-                    level = tuple.level + "";
-                    address = tuple.address + "";
+                    level = table.getLevel(i) + "";
+                    address = table.getAddress(i) + "";
                     break;
             }
 
@@ -9,6 +9,10 @@ public class Tuple {
      * 名字
      */
     public String name = null;
+    /**
+     * 名字在NameTable中的编号，查表时只比较编号
+     */
+    public int nameId = -1;
     /**
      * 种类
      */
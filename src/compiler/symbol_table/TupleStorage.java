@@ -0,0 +1,73 @@
+package compiler.symbol_table;
+
+import java.util.ArrayList;
+
+/**
+ * 每条记录一个Tuple对象，保存在ArrayList中
+ */
+class TupleStorage implements SymbolStorage {
+
+    private ArrayList<Tuple> table = new ArrayList<Tuple>();
+
+    @Override
+    public int size() {
+        return table.size();
+    }
+
+    @Override
+    public void insert(int index, int nameId, Tuple.TupleType kind, int value, int level, int address) {
+        Tuple tuple = new Tuple();
+        tuple.nameId = nameId;
+        tuple.kind = kind;
+        tuple.value = value;
+        tuple.level = level;
+        tuple.address = address;
+        table.add(index, tuple);
+    }
+
+    @Override
+    public void ensure(int index) {
+        if (index >= table.size())
+            table.add(index, new Tuple());
+    }
+
+    @Override
+    public int getNameId(int index) {
+        return table.get(index).nameId;
+    }
+
+    @Override
+    public Tuple.TupleType getKind(int index) {
+        return table.get(index).kind;
+    }
+
+    @Override
+    public int getValue(int index) {
+        return table.get(index).value;
+    }
+
+    @Override
+    public int getLevel(int index) {
+        return table.get(index).level;
+    }
+
+    @Override
+    public int getAddress(int index) {
+        return table.get(index).address;
+    }
+
+    @Override
+    public int getSize(int index) {
+        return table.get(index).size;
+    }
+
+    @Override
+    public void setAddress(int index, int address) {
+        table.get(index).address = address;
+    }
+
+    @Override
+    public void setSize(int index, int size) {
+        table.get(index).size = size;
+    }
+}
@@ -0,0 +1,94 @@
+package compiler.syntax;
+
+import compiler.interpreter.Interpreter;
+import compiler.interpreter.PCode;
+
+/**
+ * 语法分析时的常量折叠，Parser与TableDrivenParser共用
+ */
+final class ConstantFolding {
+
+    private ConstantFolding() {
+    }
+
+    /**
+     * 常量折叠：栈顶的常量（最后生成的一条LIT指令）做一元运算，结果写回这条LIT指令
+     *
+     * @param interpreter 生成代码的Interpreter
+     * @param operation   OPR的运算编码，1为取反，6为判奇
+     */
+    static void foldUnaryOperation(Interpreter interpreter, int operation) {
+        int index = interpreter.getCodeIndex() - 1;
+        int value = interpreter.getArgumentAtIndex(index);
+
+        interpreter.setArgumentAtIndex(index, operation == 1 ? -value : value & 1);
+    }
+
+    /**
+     * 除法的右操作数是否为常量0，应在生成OPR之前、右操作数的代码刚生成完时调用
+     *
+     * @param interpreter 生成代码的Interpreter
+     * @param operation   OPR的运算编码
+     * @param constant    右操作数是否为常量，此时它是最后生成的一条LIT指令
+     * @return 是否为除以常量0
+     */
+    static boolean isZeroDivisor(Interpreter interpreter, int operation, boolean constant) {
+        return operation == 5 && constant && interpreter.getArgumentAtIndex(interpreter.getCodeIndex() - 1) == 0;
+    }
+
+    /**
+     * 常量折叠：将两个常量操作数（最后生成的两条LIT指令）按运算合并为一条LIT指令
+     * 除数为常量0时不折叠，保留除法指令，错误由语法分析通过isZeroDivisor报告
+     *
+     * @param interpreter 生成代码的Interpreter
+     * @param operation   OPR的运算编码，2~5为四则运算，8~13为关系运算
+     * @return 是否完成了折叠
+     */
+    static boolean foldBinaryOperation(Interpreter interpreter, int operation) {
+        int index = interpreter.getCodeIndex() - 2;
+        int left = interpreter.getArgumentAtIndex(index);
+        int right = interpreter.getArgumentAtIndex(index + 1);
+        int result;
+
+        switch (operation) {
+            case 2:
+                result = left + right;
+                break;
+            case 3:
+                result = left - right;
+                break;
+            case 4:
+                result = left * right;
+                break;
+            case 5:
+                if (right == 0)
+                    return false;
+                result = left / right;
+                break;
+            case 8:
+                result = left == right ? 1 : 0;
+                break;
+            case 9:
+                result = left != right ? 1 : 0;
+                break;
+            case 10:
+                result = left < right ? 1 : 0;
+                break;
+            case 11:
+                result = left <= right ? 1 : 0;
+                break;
+            case 12:
+                result = left > right ? 1 : 0;
+                break;
+            case 13:
+                result = left >= right ? 1 : 0;
+                break;
+            default:
+                return false;
+        }
+
+        interpreter.setCodeIndex(index);
+        interpreter.genPCode(PCode.CodeType.LIT, 0, result);
+        return true;
+    }
+}
@@ -0,0 +1,358 @@
+package compiler.syntax;
+
+import compiler.error.ErrorHandler;
+import compiler.interpreter.Interpreter;
+import compiler.interpreter.PCode;
+import compiler.lexical.Symbol;
+import compiler.lexical.TokenStream;
+import compiler.symbol_table.SymbolTable;
+import compiler.symbol_table.Tuple;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 并行生成主程序中各过程代码的语法分析器
+ * <p/>
+ * 先在单词序列上做一遍结构扫描，找出主程序中每个过程体的范围。分析主程序时跳过这些过程体，
+ * 说明部分结束后在ForkJoinPool中并行编译它们：每个过程使用叠加在主程序符号表之上的私有符号表，
+ * 代码生成到私有的Interpreter中，地址从0开始。最后按顺序链接到主程序的JMP之后：
+ * JMP、JPC以及调用本过程内部的CAL加上该过程代码的起始位置，调用之前的同层过程的CAL改为其入口地址，
+ * 各过程已退出作用域的符号表记录也按顺序编译时的位置合并，因此生成的代码和最终的符号表与顺序编译相同。
+ * <p/>
+ * 与Parser不同，不输出各分程序的符号表和PCode。
+ * 分析出错或结构扫描的结果与分析不一致时，丢弃并行编译的结果，用Parser重新顺序编译，错误信息与Parser相同
+ */
+public class ParallelParser implements SyntaxAnalyzer {
+
+    /**
+     * 主程序中的过程少于此数时直接顺序编译
+     */
+    private static final int MinProcedures = 2;
+
+    private static final PrintStream NullPrinter = new PrintStream(OutputStream.nullOutputStream());
+
+    private static final int Const = Symbol.SymbolClassCode.CONST.ordinal();
+    private static final int Var = Symbol.SymbolClassCode.VAR.ordinal();
+    private static final int Procedure = Symbol.SymbolClassCode.PROCEDURE.ordinal();
+    private static final int Identifier = Symbol.SymbolClassCode.IDENTIFIER.ordinal();
+    private static final int Semicolon = Symbol.SymbolClassCode.SEMICOLON.ordinal();
+    private static final int Begin = Symbol.SymbolClassCode.BEGIN.ordinal();
+    private static final int End = Symbol.SymbolClassCode.END.ordinal();
+    private static final int Repeat = Symbol.SymbolClassCode.REPEAT.ordinal();
+    private static final int Until = Symbol.SymbolClassCode.UNTIL.ordinal();
+    private static final int Period = Symbol.SymbolClassCode.PERIOD.ordinal();
+
+    private TokenStream tokens = null;
+    private SymbolTable symbolTable = null;
+    private Interpreter interpreter = null;
+    private ErrorHandler errorHandler = null;
+    private ForkJoinPool pool = null;
+
+    /*
+     * 并行编译时主程序使用的符号表、代码和单词读取位置，成功后才复制到symbolTable和interpreter
+     */
+    private SymbolTable mainTable = null;
+    private Interpreter mainCode = null;
+    private TokenStream.Reader mainReader = null;
+
+    /**
+     * 结构扫描的结果：第i个过程体的第一个单词位于outline[2i]，其后的分号位于outline[2i+1]
+     */
+    private int[] outline = null;
+
+    /**
+     * 已跳过、等待并行编译的过程
+     */
+    private ProcedureUnit[] procedures = null;
+    private int procedureCount = 0;
+
+    /**
+     * 分析与结构扫描的结果不一致或某个过程有错，需要改为顺序编译
+     */
+    private boolean failed = false;
+
+    public ParallelParser(TokenStream tokens, SymbolTable symbolTable, Interpreter interpreter, ErrorHandler errorHandler,
+                          ForkJoinPool pool) {
+        this.tokens = tokens;
+        this.symbolTable = symbolTable;
+        this.interpreter = interpreter;
+        this.errorHandler = errorHandler;
+        this.pool = pool;
+        symbolTable.setNameTable(tokens.getNameTable());
+    }
+
+    @Override
+    public int getErrorCount() {
+        return errorHandler.getTotalErrorCount();
+    }
+
+    /**
+     * 开始语法分析，符号表和解释器应当都是空的
+     */
+    @Override
+    public void parse() throws IOException {
+        outline = outline(tokens);
+        if (outline != null && outline.length / 2 >= MinProcedures && parseInParallel())
+            return;
+
+        new Parser(tokens.reader(), symbolTable, interpreter, errorHandler).parse();
+    }
+
+    /**
+     * 并行编译，结果复制到symbolTable和interpreter中
+     *
+     * @return 是否成功，失败时symbolTable和interpreter不变
+     */
+    private boolean parseInParallel() throws IOException {
+        mainTable = new SymbolTable();
+        mainCode = new Interpreter();
+        mainReader = tokens.reader();
+        procedures = new ProcedureUnit[outline.length / 2];
+
+        ErrorHandler errors = new ErrorHandler(NullPrinter);
+        Parser parser = new Parser(mainReader, mainTable, mainCode, errors);
+        parser.setParallelParser(this);
+        try {
+            parser.parse();
+        } catch (RuntimeException e) {//顺序编译时会再次抛出
+            return false;
+        }
+        if (failed || errors.getTotalErrorCount() != 0 || procedureCount != procedures.length)
+            return false;
+
+        //主程序结束时所有记录都已退出作用域
+        symbolTable.appendClosedRecords(mainTable, 0, 0);
+        for (int i = 0; i < mainCode.getCodeIndex(); i++)
+            interpreter.genPCode(mainCode.getCodeTypeAtIndex(i), mainCode.getLevelDifferenceAtIndex(i),
+                    mainCode.getArgumentAtIndex(i));
+        return true;
+    }
+
+    /**
+     * 由Parser在主程序的过程说明中调用，此时过程名已登录，当前单词为过程体的第一个单词
+     * 跳过过程体，使下一个单词为其后的分号
+     *
+     * @param tableIndex 过程在主程序符号表中的位置
+     * @return 是否已跳过，否则Parser应照常分析过程体
+     */
+    boolean defer(int tableIndex) {
+        int index = procedureCount;
+        if (failed || index == procedures.length || mainReader.getPosition() != outline[index * 2]) {
+            failed = true;
+            return false;
+        }
+
+        //入口地址在链接时才知道，在此之前以负数标记，调用该过程的CAL据此找到它
+        mainTable.setAddress(tableIndex, -(index + 1));
+        procedures[procedureCount++] = new ProcedureUnit(tableIndex, outline[index * 2], outline[index * 2 + 1]);
+        mainReader.setPosition(outline[index * 2 + 1] - 1);
+        return true;
+    }
+
+    /**
+     * 由Parser在主程序的说明部分结束后调用：并行编译跳过的过程，并链接到主程序的代码之后
+     */
+    void generate() {
+        if (failed)
+            return;
+
+        final ProcedureUnit[] units = Arrays.copyOf(procedures, procedureCount);
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(units);
+            }
+        });
+
+        for (ProcedureUnit unit : units) {
+            if (!unit.succeeded) {
+                failed = true;
+                return;
+            }
+            unit.base = mainCode.getCodeIndex();
+            link(unit);
+            mainTable.setAddress(unit.tableIndex, unit.base + unit.table.getAddress(unit.tableIndex));
+            mainTable.setSize(unit.tableIndex, unit.table.getSize(unit.tableIndex));
+        }
+
+        //顺序编译时，后编译的过程的记录插在先编译的过程已退出作用域的记录之前
+        for (int i = units.length - 1; i >= 0; i--)
+            mainTable.appendClosedRecords(units[i].table, units[i].tableIndex + 1, units[i].base);
+    }
+
+    /**
+     * 把一个过程的代码重定位后添加到主程序代码的末尾
+     */
+    private void link(ProcedureUnit unit) {
+        Interpreter code = unit.code;
+        for (int i = 0; i < code.getCodeIndex(); i++) {
+            PCode.CodeType type = code.getCodeTypeAtIndex(i);
+            int argument = code.getArgumentAtIndex(i);
+            switch (type) {
+                case JMP:
+                case JPC:
+                    argument += unit.base;
+                    break;
+                case CAL:
+                    if (argument >= 0)//本过程或其内部的过程
+                        argument += unit.base;
+                    else//之前的同层过程，已经链接
+                        argument = mainTable.getAddress(procedures[-argument - 1].tableIndex);
+                    break;
+                default:
+                    break;
+            }
+            mainCode.genPCode(type, code.getLevelDifferenceAtIndex(i), argument);
+        }
+    }
+
+    /**
+     * 结构扫描：不做语义分析，只按说明部分的形式和begin/end、repeat/until的嵌套找出主程序中各过程体的范围
+     *
+     * @return 依次为每个过程体的第一个单词和其后的分号的位置；源程序不符合预期的结构时返回null
+     */
+    static int[] outline(TokenStream tokens) {
+        int[] outline = new int[16];
+        int count = 0;
+
+        int i = 0;
+        while (true) {
+            int kind = tokens.getKind(i);
+            if (kind == Const || kind == Var) {
+                i = skipDeclaration(tokens, i);
+            } else if (kind == Procedure) {
+                if (tokens.getKind(i + 1) != Identifier || tokens.getKind(i + 2) != Semicolon)
+                    return null;
+                int end = skipBlock(tokens, i + 3);
+                if (end < 0)
+                    return null;
+
+                if (count + 2 > outline.length)
+                    outline = Arrays.copyOf(outline, outline.length * 2);
+                outline[count++] = i + 3;
+                outline[count++] = end;
+                i = end + 1;
+            } else {
+                break;
+            }
+            if (i < 0)
+                return null;
+        }
+        return Arrays.copyOf(outline, count);
+    }
+
+    /**
+     * @return 从start开始的<分程序>之后的分号的位置，不符合预期的结构时返回-1
+     */
+    private static int skipBlock(TokenStream tokens, int start) {
+        int i = start;
+        while (true) {
+            int kind = tokens.getKind(i);
+            if (kind == Const || kind == Var) {
+                i = skipDeclaration(tokens, i);
+            } else if (kind == Procedure) {
+                if (tokens.getKind(i + 1) != Identifier || tokens.getKind(i + 2) != Semicolon)
+                    return -1;
+                i = skipBlock(tokens, i + 3);
+                if (i < 0)
+                    return -1;
+                i++;
+            } else {
+                break;
+            }
+            if (i < 0)
+                return -1;
+        }
+
+        //<语句>到嵌套层次为0的第一个分号为止
+        int depth = 0;
+        for (; i < tokens.size(); i++) {
+            int kind = tokens.getKind(i);
+            if (kind == Begin || kind == Repeat) {
+                depth++;
+            } else if (kind == End || kind == Until) {
+                if (--depth < 0)
+                    return -1;
+            } else if (kind == Period || kind == Const || kind == Var || kind == Procedure) {
+                return -1;
+            } else if (kind == Semicolon && depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return const或var说明之后的分号的下一个位置，没有分号时返回-1
+     */
+    private static int skipDeclaration(TokenStream tokens, int start) {
+        for (int i = start + 1; i < tokens.size(); i++) {
+            int kind = tokens.getKind(i);
+            if (kind == Semicolon)
+                return i + 1;
+            if (kind == Const || kind == Var || kind == Procedure || kind == Begin || kind == Period)
+                return -1;
+        }
+        return -1;
+    }
+
+    /**
+     * 主程序中的一个过程，在自己的符号表和代码缓冲区中编译
+     */
+    private final class ProcedureUnit extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * 过程名在主程序符号表中的位置
+         */
+        private int tableIndex = 0;
+        /**
+         * 过程体的第一个单词和其后的分号的位置
+         */
+        private int start = 0;
+        private int end = 0;
+
+        private SymbolTable table = null;
+        private Interpreter code = null;
+        private boolean succeeded = false;
+
+        /**
+         * 链接后代码在主程序代码中的起始位置
+         */
+        private int base = 0;
+
+        ProcedureUnit(int tableIndex, int start, int end) {
+            this.tableIndex = tableIndex;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            //主程序中位于该过程之前的记录可见，过程本身的记录复制一份，编译中会修改其地址
+            table = new SymbolTable(mainTable, tableIndex);
+            Tuple procedure = mainTable.getTupleAtIndex(tableIndex);
+            table.enterProcedure(procedure.nameId, procedure.level);
+            code = new Interpreter();
+
+            ErrorHandler errors = new ErrorHandler(NullPrinter);
+            TokenStream.Reader reader = tokens.reader();
+            reader.setPosition(start - 1);
+            try {
+                new Parser(reader, table, code, errors).parseProcedure(procedure.level + 1);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {//顺序编译时会再次抛出
+                return;
+            }
+            succeeded = errors.getTotalErrorCount() == 0 && reader.getPosition() == end;
+        }
+    }
+}
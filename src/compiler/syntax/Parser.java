@@ -2,15 +2,16 @@ package compiler.syntax;
 
 import compiler.error.ErrorHandler;
 import compiler.interpreter.Interpreter;
+import compiler.interpreter.LineTable;
 import compiler.interpreter.PCode;
-import compiler.lexical.Scanner;
+import compiler.lexical.TokenSource;
 import compiler.lexical.Symbol;
 import compiler.symbol_table.SymbolTable;
 import compiler.symbol_table.Tuple;
 
 import java.io.IOException;
 import java.io.PrintStream;
-import java.util.BitSet;
+import java.util.Arrays;
 
 /**
  * 语法分析器
@@ -18,11 +19,83 @@ import java.util.BitSet;
  * 采用递归子程序法进行语法分析，即为每一个语法成分都编写了一个分析子程序，根据当前读取的符号，可以选择相应的子程序进行语法分析。
  * Created by zhugongpu on 14/12/sample1.
  */
-public class Parser {
+public class Parser implements SyntaxAnalyzer {
+
+    /*
+     * FIRST集合与FOLLOW集合都用long表示，第i位对应SymbolClassCode中序号为i的符号
+     * 集合都是常量，需要时用按位或组合，分析过程中不分配对象
+     */
+    static {
+        if (Symbol.SymbolClassCode.values().length > Long.SIZE)
+            throw new ExceptionInInitializerError("SymbolClassCode的个数超过了long的位数");
+    }
+
+    /**
+     * <声明>的First集合
+     * <分程序> ::= [<常量说明部分>][<变量说明部分>]{<过程说明部分>}<语句>
+     * <常量说明部分> ::= const<常量定义>{,<常量定义>};
+     * <变量说明部分>::= var<标识符>{,<标识符>};
+     * <过程说明部分> ::= <过程首部>procedure<标识符>; <分程序>;
+     * FIRST(declaration)={const var procedure null};
+     */
+    private static final long FirstSetOfDeclaration = setOf(Symbol.SymbolClassCode.CONST,
+            Symbol.SymbolClassCode.VAR, Symbol.SymbolClassCode.PROCEDURE);
+    /**
+     * <语句>的First集合
+     * <语句> ::=<赋值语句>|<条件语句>|<当型循环语句>|<过程调用语句>|<读语句>|<写语句>|<复合语句>|<重复语句>|<空>
+     * <赋值语句> ::= <标识符>:=<表达式>
+     * <条件语句> ::= if<条件>then<语句>[else<语句>]
+     * <当型循环语句> ::= while<条件>do<语句>
+     * <重复语句> ::= repeat<语句>{;<语句>}until<条件>
+     * <过程调用语句> ::= call<标识符>
+     * <复合语句> ::= begin<语句>{;<语句>}end
+     * FIRST(statement)={begin call if while repeat null};
+     */
+    private static final long FirstSetOfStatement = setOf(Symbol.SymbolClassCode.BEGIN, Symbol.SymbolClassCode.CALL,
+            Symbol.SymbolClassCode.IF, Symbol.SymbolClassCode.WHILE, Symbol.SymbolClassCode.REPEAT);
+    /**
+     * <因子>的First集
+     * <因子> ::= <标识符>|<无符号整数>|'('<表达式>')'
+     * FIRST(factor)={identifier,number,(};
+     */
+    private static final long FirstSetOfFactor = setOf(Symbol.SymbolClassCode.IDENTIFIER,
+            Symbol.SymbolClassCode.NUMBER, Symbol.SymbolClassCode.LEFT_PARENTHESIS);
+    /**
+     * 语句的开始符号，FIRST(statement)还包含identifier
+     */
+    private static final long StatementStart = FirstSetOfStatement | setOf(Symbol.SymbolClassCode.IDENTIFIER);
+    /**
+     * 过程说明之后应出现的符号：statement的first集，以及FOLLOW(嵌套分程序)={ identifier , procedure }
+     */
+    private static final long AfterProcedure = StatementStart | setOf(Symbol.SymbolClassCode.PROCEDURE);
+    /**
+     * <程序>中<分程序>的follow集 {. ;}，以及声明和语句的开始符号
+     */
+    private static final long ProgramFollows = setOf(Symbol.SymbolClassCode.PERIOD)
+            | FirstSetOfDeclaration | FirstSetOfStatement;
+
+    private static final long Empty = 0L;
+    private static final long Semicolon = setOf(Symbol.SymbolClassCode.SEMICOLON);
+    private static final long Do = setOf(Symbol.SymbolClassCode.DO);
+    private static final long LeftParenthesis = setOf(Symbol.SymbolClassCode.LEFT_PARENTHESIS);
+    private static final long RightParenthesis = setOf(Symbol.SymbolClassCode.RIGHT_PARENTHESIS);
+    private static final long SemicolonOrEnd = setOf(Symbol.SymbolClassCode.SEMICOLON, Symbol.SymbolClassCode.END);
+    private static final long SemicolonOrUntil = setOf(Symbol.SymbolClassCode.SEMICOLON, Symbol.SymbolClassCode.UNTIL);
+    private static final long SemicolonEndOrElse = setOf(Symbol.SymbolClassCode.SEMICOLON,
+            Symbol.SymbolClassCode.END, Symbol.SymbolClassCode.ELSE);
+    private static final long ThenOrDo = setOf(Symbol.SymbolClassCode.THEN, Symbol.SymbolClassCode.DO);
+    private static final long CommaOrRightParenthesis = setOf(Symbol.SymbolClassCode.COMMA,
+            Symbol.SymbolClassCode.RIGHT_PARENTHESIS);
+    private static final long AddOperators = setOf(Symbol.SymbolClassCode.PLUS, Symbol.SymbolClassCode.MINUS);
+    private static final long MultiplyOperators = setOf(Symbol.SymbolClassCode.MULTIPLY, Symbol.SymbolClassCode.DIVIDE);
+    private static final long RelationOperators = setOf(Symbol.SymbolClassCode.EQUAL, Symbol.SymbolClassCode.NOT_EQUAL,
+            Symbol.SymbolClassCode.LESS_THAN, Symbol.SymbolClassCode.LESS_THAN_OR_EQUAL,
+            Symbol.SymbolClassCode.GREATER_THAN, Symbol.SymbolClassCode.GREATER_THAN_OR_EQUAL);
+
     /**
      * 词法分析器
      */
-    private Scanner lexicalScanner = null;
+    private TokenSource lexicalScanner = null;
     /**
      * 符号表
      */
@@ -43,100 +116,110 @@ public class Parser {
      */
     private Symbol currentSymbol = null;
     /**
-     * <声明>的First集合
+     * 当前作用域的堆栈帧大小，或者说数据大小(data size)
+     * 计算每个变量在运行栈中相对本过程基地址的偏移量，
+     * 放在symbolTable中的address域，
+     * 生成目标代码时再放在code中的a域
+     */
+    private int dataAllocationIndex = 0;
+
+    /*
+     * expression使用的栈，以括号的嵌套深度为下标：
+     * 该层表达式的follow集合、是否以负号开始、待生成的加法运算符和乘法运算符(OPR的编码，0表示还没有)，
+     * 以及已分析的部分表达式、部分项的值是否在编译时已知
      */
-    private BitSet firstSetOfDeclaration = null;
+    private long[] expressionFollows = new long[16];
+    private boolean[] negates = new boolean[16];
+    private int[] addOperators = new int[16];
+    private int[] multiplyOperators = new int[16];
+    private boolean[] expressionConstants = new boolean[16];
+    private boolean[] termConstants = new boolean[16];
+
     /**
-     * <语句>的First集合
+     * 并行编译时：不为null时主程序中的过程体先跳过，说明部分结束后交给它并行编译
      */
-    private BitSet firstSetOfStatement = null;
+    private ParallelParser parallelParser = null;
+
     /**
-     * <因子>的First集
+     * 每个分程序分析完后是否输出它的符号表和PCode
      */
-    private BitSet firstSetOfFactor = null;
+    private boolean listing = true;
+
     /**
-     * 当前作用域的堆栈帧大小，或者说数据大小(data size)
-     * 计算每个变量在运行栈中相对本过程基地址的偏移量，
-     * 放在symbolTable中的address域，
-     * 生成目标代码时再放在code中的a域
+     * 不为null时记录每条语句的代码所在的行号
      */
-    private int dataAllocationIndex = 0;
+    private LineTable lineTable = null;
 
     /**
      * 语法分析程序
      *
-     * @param lexicalScanner 词法分析程序
+     * @param lexicalScanner 词法分析程序，或预先扫描好的单词序列TokenStream.Reader
      * @param symbolTable    符号表
      * @param interpreter    代码解释生成程序
      */
-    public Parser(Scanner lexicalScanner, SymbolTable symbolTable, Interpreter interpreter, ErrorHandler errorHandler) {
+    public Parser(TokenSource lexicalScanner, SymbolTable symbolTable, Interpreter interpreter, ErrorHandler errorHandler) {
         this.lexicalScanner = lexicalScanner;
         this.symbolTable = symbolTable;
         this.interpreter = interpreter;
         this.errorHandler = errorHandler;
-
-        /**
-         * 设置申明开始符号集
-         * <分程序> ::= [<常量说明部分>][<变量说明部分>]{<过程说明部分>}<语句>
-         * <常量说明部分> ::= const<常量定义>{,<常量定义>};
-         * <变量说明部分>::= var<标识符>{,<标识符>};
-         * <过程说明部分> ::= <过程首部>procedure<标识符>; <分程序>;
-         * FIRST(declaration)={const var procedure null};
-         */
-        firstSetOfDeclaration = new BitSet(Symbol.SymbolClassCode.values().length);
-        firstSetOfDeclaration.set(Symbol.SymbolClassCode.CONST.ordinal());
-        firstSetOfDeclaration.set(Symbol.SymbolClassCode.VAR.ordinal());
-        firstSetOfDeclaration.set(Symbol.SymbolClassCode.PROCEDURE.ordinal());
-
-        /**
-         * 设置语句开始符号集
-         * <语句> ::=<赋值语句>|<条件语句>|<当型循环语句>|<过程调用语句>|<读语句>|<写语句>|<复合语句>|<重复语句>|<空>
-         * <赋值语句> ::= <标识符>:=<表达式>
-         * <条件语句> ::= if<条件>then<语句>[else<语句>]
-         * <当型循环语句> ::= while<条件>do<语句>
-         * <重复语句> ::= repeat<语句>{;<语句>}until<条件>
-         * <过程调用语句> ::= call<标识符>
-         * <复合语句> ::= begin<语句>{;<语句>}end
-         * FIRST(statement)={begin call if while repeat null};
-         */
-        firstSetOfStatement = new BitSet(Symbol.SymbolClassCode.values().length);
-        firstSetOfStatement.set(Symbol.SymbolClassCode.BEGIN.ordinal());
-        firstSetOfStatement.set(Symbol.SymbolClassCode.CALL.ordinal());
-        firstSetOfStatement.set(Symbol.SymbolClassCode.IF.ordinal());
-        firstSetOfStatement.set(Symbol.SymbolClassCode.WHILE.ordinal());
-        firstSetOfStatement.set(Symbol.SymbolClassCode.REPEAT.ordinal());
-
-        /**
-         * 设置因子开始符号集
-         * <因子> ::= <标识符>|<无符号整数>|'('<表达式>')'
-         * FIRST(factor)={identifier,number,(};
-         */
-        firstSetOfFactor = new BitSet(Symbol.SymbolClassCode.values().length);
-        firstSetOfFactor.set(Symbol.SymbolClassCode.IDENTIFIER.ordinal());
-        firstSetOfFactor.set(Symbol.SymbolClassCode.NUMBER.ordinal());
-        firstSetOfFactor.set(Symbol.SymbolClassCode.LEFT_PARENTHESIS.ordinal());
+        symbolTable.setNameTable(lexicalScanner.getNameTable());
     }
 
     /**
      * 返回错误个数
      */
+    @Override
     public int getErrorCount() {
         return errorHandler.getTotalErrorCount();
     }
 
+    /**
+     * 设置记录语句行号的行号表，用于写入目标文件
+     *
+     * @param lineTable
+     */
+    public void setLineTable(LineTable lineTable) {
+        this.lineTable = lineTable;
+    }
+
+    /**
+     * 设置并行编译主程序中的过程，此时不输出各分程序的符号表和PCode
+     */
+    void setParallelParser(ParallelParser parallelParser) {
+        this.parallelParser = parallelParser;
+        this.listing = false;
+    }
+
+    /**
+     * 从过程体的第一个单词开始分析一个过程的<分程序>，分析后当前符号为其后的分号
+     * 用于并行编译，调用前符号表中应已登录该过程
+     *
+     * @param level 过程体所在的层次
+     */
+    void parseProcedure(int level) throws IOException {
+        listing = false;
+        nextSymbol();
+        block(ProgramFollows | Semicolon, level);
+    }
+
     /**
      * 获取下一个符号
      */
     private void nextSymbol() throws IOException {
-        currentSymbol = lexicalScanner.getSymbol();
+        //currentSymbol是Scanner共享的对象，标识符的名字和数字的值从lexicalScanner取得
+        currentSymbol = lexicalScanner.next();
+    }
 
-        if (currentSymbol != null)
-            printDebugInfo("currentSymbol: " +
-                    (currentSymbol.getToken() == null ? currentSymbol.getValue() : currentSymbol.getToken())
-                    + " " + currentSymbol.getSymbolClassCode()
-                    + "   at line " + lexicalScanner.getCurrentLocation());
-        else printDebugInfo("currentSymbol = null");
+    /**
+     * 开始语法分析程序，完成后输出符号表和生成的PCode
+     *
+     * @param pCodePrinter PCode的输出
+     */
+    public void parse(PrintStream pCodePrinter) throws IOException {
+        parse();
 
+        symbolTable.printTable();//打印符号表内所有信息
+        interpreter.printPCodes(pCodePrinter);//打印生成的PCode
     }
 
     /**
@@ -145,27 +228,18 @@ public class Parser {
      * <p/>
      * 使用前可以不调用nextSymbol()
      */
-    public void parse(PrintStream pCodePrinter) throws IOException {
+    @Override
+    public void parse() throws IOException {
 
         if (currentSymbol == null)//保证调用时currentSymbol不为空
             nextSymbol();
 
-        // <分程序>的follow集 {. ;}
-        BitSet follows = new BitSet(Symbol.SymbolClassCode.values().length);
-        follows.set(Symbol.SymbolClassCode.PERIOD.ordinal());
-
-        follows.or(firstSetOfDeclaration);
-        follows.or(firstSetOfStatement);
-
-        block(follows, 0);//<分程序>
+        block(ProgramFollows, 0);//<分程序>
 
         if (currentSymbol != null &&
                 currentSymbol.getSymbolClassCode() != Symbol.SymbolClassCode.PERIOD) {
-            errorHandler.printError(9, lexicalScanner.getCurrentLocation());//缺少句号
+            errorHandler.printError(9, lexicalScanner.getLocation());//缺少句号
         }
-
-        symbolTable.printTable();//打印符号表内所有信息
-        interpreter.printPCodes(pCodePrinter);//打印生成的PCode
     }
 
     /**
@@ -175,11 +249,9 @@ public class Parser {
      * @param follows 当前模块的FOLLOW集合
      * @param level   当前程序块所在level
      */
-    private void block(BitSet follows, int level) throws IOException {
-
-        printDebugInfo("block: " + currentSymbol.getToken() + " level = " + level);
+    private void block(long follows, int level) throws IOException {
 
-        BitSet next;
+        printDebugInfo("block");
 
         int originDataAllocationIndex = dataAllocationIndex;//记录本层之前的数据量，以便返回时恢复
         int originTableIndex = symbolTable.getTableIndex();
@@ -189,11 +261,10 @@ public class Parser {
         dataAllocationIndex = 3;
 
         //设置符号表当前项的address为当前pcode代码地址.在符号表当前位置记录下jmp指令在代码段中的位置
-        symbolTable.getTupleAtIndex(symbolTable.getTableIndex()).address = interpreter.getCodeIndex();
-        interpreter.genPCode(PCode.CodeType.JMP, 0, 0);
+        symbolTable.setAddress(symbolTable.getTableIndex(), interpreter.genJumpPlaceholder(PCode.CodeType.JMP));
 
         if (level > SymbolTable.MAX_LEVEL) {
-            errorHandler.printError(32, lexicalScanner.getCurrentLocation());//嵌套层数过大
+            errorHandler.printError(32, lexicalScanner.getLocation());//嵌套层数过大
         }
 
         //分析<说明部分>
@@ -215,7 +286,7 @@ public class Parser {
                 if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.SEMICOLON) {//常量声明结束
                     nextSymbol();
                 } else {
-                    errorHandler.printError(5, lexicalScanner.getCurrentLocation());//缺少逗号或分号
+                    errorHandler.printError(5, lexicalScanner.getLocation());//缺少逗号或分号
                 }
             }
 
@@ -235,7 +306,7 @@ public class Parser {
                 if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.SEMICOLON) {//常量声明结束
                     nextSymbol();
                 } else {
-                    errorHandler.printError(5, lexicalScanner.getCurrentLocation());//缺少逗号或分号
+                    errorHandler.printError(5, lexicalScanner.getLocation());//缺少逗号或分号
                 }
             }
 
@@ -249,50 +320,47 @@ public class Parser {
 
                 nextSymbol();
                 if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.IDENTIFIER) {
-                    symbolTable.enterProcedure(currentSymbol.getToken(), level);
+                    symbolTable.enterProcedure(lexicalScanner.getNameId(), level);
                     nextSymbol();
                 } else
-                    errorHandler.printError(4, lexicalScanner.getCurrentLocation());//procedure之后应为标识符
+                    errorHandler.printError(4, lexicalScanner.getLocation());//procedure之后应为标识符
 
                 if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.SEMICOLON) {
                     nextSymbol();
                 } else
-                    errorHandler.printError(5, lexicalScanner.getCurrentLocation());//缺少逗号或分号
+                    errorHandler.printError(5, lexicalScanner.getLocation());//缺少逗号或分号
 
-                BitSet blockFollow = (BitSet) follows.clone();//block的follow集合
-                blockFollow.set(Symbol.SymbolClassCode.SEMICOLON.ordinal());//follow(block) = { ; }
-                //分析 <分程序>
-                block(blockFollow, level + 1);
+                //分析 <分程序>，follow(block) = { ; }
+                if (level == 0 && parallelParser != null && parallelParser.defer(symbolTable.getTableIndex()))
+                    nextSymbol();//过程体已跳过，当前符号为其后的分号
+                else
+                    block(follows | Semicolon, level + 1);
 
                 if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.SEMICOLON) {//<过程说明部分>识别完成
                     nextSymbol();
 
-                    next = (BitSet) firstSetOfStatement.clone();//将next设置为statement的first集
-                    //FOLLOW(嵌套分程序)={ identifier , procedure }
-                    next.set(Symbol.SymbolClassCode.IDENTIFIER.ordinal());
-                    next.set(Symbol.SymbolClassCode.PROCEDURE.ordinal());
-
-                    test(next, follows, 6);//测试current symbol属于statement的first集，否则报错：过程说明后的符号不正确
+                    test(AfterProcedure, follows, 6);//测试current symbol属于statement的first集，否则报错：过程说明后的符号不正确
                 } else
-                    errorHandler.printError(5, lexicalScanner.getCurrentLocation());//缺少逗号或分号
+                    errorHandler.printError(5, lexicalScanner.getLocation());//缺少逗号或分号
             }
 
             //一个分程序的说明部分识别结束后，下面可能是statement 或者 声明部分
-            //FIRST(statement)={begin call if while repeat null };
-            next = (BitSet) firstSetOfStatement.clone();
-            //first(statement)还包含identifier
-            next.set(Symbol.SymbolClassCode.IDENTIFIER.ordinal());
+            //FIRST(statement)={identifier begin call if while repeat null };
 
 //            printDebugInfo("block 1: " + currentSymbol.getToken() + " " + currentSymbol.getSymbolClassCode().ordinal() + " "
-//                    + firstSetOfDeclaration);
+//                    + FirstSetOfDeclaration);
 
-            test(next, firstSetOfDeclaration, 7);//测试是否为statement
+            test(StatementStart, FirstSetOfDeclaration, 7);//测试是否为statement
 //            if (currentSymbol != null)
-//                printDebugInfo("block : " + currentSymbol.getToken() + " " + firstSetOfDeclaration.get(currentSymbol.getSymbolClassCode().ordinal()));
+//                printDebugInfo("block : " + currentSymbol.getToken() + " " + contains(FirstSetOfDeclaration, currentSymbol));
 //            else
 //                printDebugInfo("block : currentSymbol = null");
         }
-        while (currentSymbol != null && firstSetOfDeclaration.get(currentSymbol.getSymbolClassCode().ordinal()));//直到不在声明的first集内
+        while (currentSymbol != null && contains(FirstSetOfDeclaration, currentSymbol));//直到不在声明的first集内
+
+        //并行编译跳过的过程体，代码接在主程序的JMP之后，与顺序编译的位置相同
+        if (level == 0 && parallelParser != null)
+            parallelParser.generate();
 
         //开始生成当前过程代码
         /**
@@ -300,14 +368,13 @@ public class Parser {
          * 此时代码分配指针(code allocation index)刚好指向语句的开始位置
          * 此位置正是前面JMP指令需要跳转到的位置
          */
-        Tuple tuple = symbolTable.getTupleAtIndex(originTableIndex);
-        interpreter.getPCodeAtIndex(tuple.address).setArgument(interpreter.getCodeIndex());
+        interpreter.setArgumentAtIndex(symbolTable.getAddress(originTableIndex), interpreter.getCodeIndex());
 
 //        printDebugInfo("### " + originTableIndex + " " +
 //                interpreter.getPCodeAtIndex(tuple.address).getArgument()  +  "    " + interpreter.getCodeIndex() + " " + tuple.name);
 
-        tuple.address = interpreter.getCodeIndex();
-        tuple.size = dataAllocationIndex;//一个procedure中的变量数目+3 ，声明部分中每增加一条声明都会给dx+1
+        symbolTable.setAddress(originTableIndex, interpreter.getCodeIndex());
+        symbolTable.setSize(originTableIndex, dataAllocationIndex);//一个procedure中的变量数目+3 ，声明部分中每增加一条声明都会给dx+1
         //声明部分已经结束，此时data allocation index是当前过程的堆栈帧大小
         /**
          * 把JMP指令的跳转位置改成当前code index的位置。
@@ -320,15 +387,12 @@ public class Parser {
         interpreter.genPCode(PCode.CodeType.INT, 0, dataAllocationIndex);
 
         //打印 说明部分 代码
-        symbolTable.printTable(originTableIndex);
+        if (listing)
+            symbolTable.printTable(originTableIndex);
 
 
         //分析 <语句>
-        next = (BitSet) follows.clone();//每个FOLLOW集合都包含上层FOLLOW集合，以便补救
-        next.set(Symbol.SymbolClassCode.SEMICOLON.ordinal());
-        next.set(Symbol.SymbolClassCode.END.ordinal());
-
-        statement(next, level);
+        statement(follows | SemicolonOrEnd, level);//每个FOLLOW集合都包含上层FOLLOW集合，以便补救
 
         /**
          * 分析完成后，生成操作数为0的OPR指令，用于从分程序返回(对于0层的主程序来说，就是程序运行完成，退出)。
@@ -336,10 +400,10 @@ public class Parser {
         interpreter.genPCode(PCode.CodeType.OPR, 0, 0);
 
 
-        next = new BitSet(Symbol.SymbolClassCode.values().length);
-        test(follows, next, 8);//检测之后符号的正确性
+        test(follows, Empty, 8);//检测之后符号的正确性
 
-        interpreter.printPCodes(originCodeIndex);
+        if (listing && !interpreter.hasCodeSink())//流式输出时本层的代码大多已经写出
+            interpreter.printPCodes(originCodeIndex);
 
         dataAllocationIndex = originDataAllocationIndex;//恢复堆栈指针计数器
         symbolTable.setTableIndex(originTableIndex);//恢复符号表位置
@@ -355,28 +419,27 @@ public class Parser {
         if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.IDENTIFIER) {//符合常量定义的语法规定
             printDebugInfo("分析常量定义");
 
-            String identifier = currentSymbol.getToken();
+            int nameId = lexicalScanner.getNameId();
             nextSymbol();
             if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.EQUAL ||
                     currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.ASSIGN) {
                 if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.ASSIGN) {
                     //将=写为了:=，只提示错误信息，仍继续处理
-                    errorHandler.printError(1, lexicalScanner.getCurrentLocation());
+                    errorHandler.printError(1, lexicalScanner.getLocation());
                 }
 
                 nextSymbol();
                 if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.NUMBER) {
-                    currentSymbol.setToken(identifier);//将常量与标识符绑定
-                    symbolTable.enterConstant(currentSymbol.getToken(), currentSymbol.getValue());//将常量填入符号表
+                    symbolTable.enterConstant(nameId, lexicalScanner.getValue());//将常量与标识符绑定，填入符号表
                     nextSymbol();
                 } else
-                    errorHandler.printError(2, lexicalScanner.getCurrentLocation());//按照语法应该为无符号整数
+                    errorHandler.printError(2, lexicalScanner.getLocation());//按照语法应该为无符号整数
 
             } else
-                errorHandler.printError(3, lexicalScanner.getCurrentLocation());//按照语法此处（标识符之后）应该为=
+                errorHandler.printError(3, lexicalScanner.getLocation());//按照语法此处（标识符之后）应该为=
 
         } else {//常量定义应由标识符开始
-            errorHandler.printError(4, lexicalScanner.getCurrentLocation());
+            errorHandler.printError(4, lexicalScanner.getLocation());
         }
     }
 
@@ -392,12 +455,12 @@ public class Parser {
             printDebugInfo("分析标识符");
 
             //填写符号表并改变堆栈帧计数器 符号表中记录下标识符的名字、它所在的层及它在所在层中的偏移地址
-            symbolTable.enterVariable(currentSymbol.getToken(), level, dataAllocationIndex);
+            symbolTable.enterVariable(lexicalScanner.getNameId(), level, dataAllocationIndex);
             dataAllocationIndex++;
 
             nextSymbol();
         } else {
-            errorHandler.printError(4, lexicalScanner.getCurrentLocation());//var之后应该是标识符
+            errorHandler.printError(4, lexicalScanner.getLocation());//var之后应该是标识符
         }
     }
 
@@ -407,8 +470,10 @@ public class Parser {
      * @param follows Follow结合
      * @param level   当前层级
      */
-    private void statement(BitSet follows, int level) throws IOException {
+    private void statement(long follows, int level) throws IOException {
         printDebugInfo("分析语句");
+        if (lineTable != null && currentSymbol != null)
+            lineTable.add(interpreter.getCodeIndex(), (int) (lexicalScanner.getLocation() >>> 32));
         if (currentSymbol != null)
             // FIRST(statement)={ identifier, read, write, call, if, while, repeat, begin}
             switch (currentSymbol.getSymbolClassCode()) {
@@ -441,8 +506,9 @@ public class Parser {
                 }
             }
 
-        BitSet statementFollows = new BitSet(Symbol.SymbolClassCode.values().length);
-        test(follows, statementFollows, 19);//语句后的符号不正确
+        test(follows, Empty, 19);//语句后的符号不正确
+
+        interpreter.flush();//流式输出时写出已完成的指令
     }
 
     /**
@@ -451,25 +517,23 @@ public class Parser {
      * @param follows Follow集合
      * @param level   当前层级
      */
-    private void repeatStatement(BitSet follows, int level) throws IOException {
+    private void repeatStatement(long follows, int level) throws IOException {
         printDebugInfo("分析重复语句");
 
         //获取指令索引指针，即cx
         int codeIndexPointer = interpreter.getCodeIndex();
         nextSymbol();
 
-        BitSet subFollows = (BitSet) follows.clone();
-        subFollows.set(Symbol.SymbolClassCode.SEMICOLON.ordinal());
-        subFollows.set(Symbol.SymbolClassCode.UNTIL.ordinal());
+        long subFollows = follows | SemicolonOrUntil;
         statement(follows, level);
 
         //处理{,<语句>}
-        while (firstSetOfStatement.get(currentSymbol.getSymbolClassCode().ordinal()) ||
+        while (contains(FirstSetOfStatement, currentSymbol) ||
                 currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.SEMICOLON) {
             if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.SEMICOLON)
                 nextSymbol();
             else
-                errorHandler.printError(5, lexicalScanner.getCurrentLocation());//漏掉分号
+                errorHandler.printError(5, lexicalScanner.getLocation());//漏掉分号
 
             statement(subFollows, level);
         }
@@ -478,7 +542,7 @@ public class Parser {
             condition(follows, level);
             interpreter.genPCode(PCode.CodeType.JPC, 0, codeIndexPointer);
         } else {
-            errorHandler.printError(25, lexicalScanner.getCurrentLocation());//缺少until语句
+            errorHandler.printError(25, lexicalScanner.getLocation());//缺少until语句
         }
     }
 
@@ -488,32 +552,27 @@ public class Parser {
      * @param follows Follow集合
      * @param level   当前层级
      */
-    private void whileStatement(BitSet follows, int level) throws IOException {
+    private void whileStatement(long follows, int level) throws IOException {
         printDebugInfo("分析 当型循环语句");
 
         int conditionCodeIndexPointer = interpreter.getCodeIndex();//保存<条件>操作的位置
         nextSymbol();
 
-        BitSet conditionFollow = (BitSet) follows.clone();
-        conditionFollow.set(Symbol.SymbolClassCode.DO.ordinal());
-        condition(conditionFollow, level);//<条件>
+        condition(follows | Do, level);//<条件>
 
-        int endCodeIndexPointer = interpreter.getCodeIndex();//保存循环结束的下一个位置
-        interpreter.genPCode(PCode.CodeType.JPC, 0, 0);
+        int endCodeIndexPointer = interpreter.genJumpPlaceholder(PCode.CodeType.JPC);//保存循环结束的下一个位置
 
         if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.DO) {
             nextSymbol();
         } else {
-            errorHandler.printError(18, lexicalScanner.getCurrentLocation());//缺少do语句
+            errorHandler.printError(18, lexicalScanner.getLocation());//缺少do语句
         }
 
         statement(follows, level);//<语句>
 
         interpreter.genPCode(PCode.CodeType.JMP, 0, conditionCodeIndexPointer);//跳转，并重新判断是否符合条件
         //回填跳出循环的地址
-        PCode code = interpreter.getPCodeAtIndex(endCodeIndexPointer);
-        code.setArgument(interpreter.getCodeIndex());
-        interpreter.setPCodeAtIndex(endCodeIndexPointer, code);
+        interpreter.setArgumentAtIndex(endCodeIndexPointer, interpreter.getCodeIndex());
     }
 
     /**
@@ -523,32 +582,29 @@ public class Parser {
      * @param follows Follow集合
      * @param level   当前层级
      */
-    private void beginStatement(BitSet follows, int level) throws IOException {
+    private void beginStatement(long follows, int level) throws IOException {
         printDebugInfo("分析复合语句");
 
         nextSymbol();
 
-        BitSet statementFollows = (BitSet) follows.clone();
-        statementFollows.set(Symbol.SymbolClassCode.SEMICOLON.ordinal());
-        statementFollows.set(Symbol.SymbolClassCode.END.ordinal());
-        statementFollows.set(Symbol.SymbolClassCode.ELSE.ordinal());
+        long statementFollows = follows | SemicolonEndOrElse;
 
         statement(statementFollows, level);
 
-        while (firstSetOfStatement.get(currentSymbol.getSymbolClassCode().ordinal())
+        while (contains(FirstSetOfStatement, currentSymbol)
                 || currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.SEMICOLON) {
 
             if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.SEMICOLON)
                 nextSymbol();
             else
-                errorHandler.printError(10, lexicalScanner.getCurrentLocation());//缺少分号
+                errorHandler.printError(10, lexicalScanner.getLocation());//缺少分号
             statement(statementFollows, level);
         }
 
         if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.END) {
             nextSymbol();
         } else {
-            errorHandler.printError(17, lexicalScanner.getCurrentLocation());//缺少end或分号
+            errorHandler.printError(17, lexicalScanner.getLocation());//缺少end或分号
         }
     }
 
@@ -559,46 +615,35 @@ public class Parser {
      * @param follows Follow集合
      * @param level   当前层级
      */
-    private void ifStatement(BitSet follows, int level) throws IOException {
+    private void ifStatement(long follows, int level) throws IOException {
         printDebugInfo("分析条件语句");
 
         nextSymbol();
 
-        BitSet conditionFollows = (BitSet) follows.clone();
         //FOLLOW(condition)={ then do }     <当型循环语句> ::= while<条件>do<语句>
-        conditionFollows.set(Symbol.SymbolClassCode.THEN.ordinal());
-        conditionFollows.set(Symbol.SymbolClassCode.DO.ordinal());
-
-        condition(conditionFollows, level);//<条件>
+        condition(follows | ThenOrDo, level);//<条件>
 
         if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.THEN) {
             nextSymbol();
         } else {
-            errorHandler.printError(16, lexicalScanner.getCurrentLocation());//缺少then
+            errorHandler.printError(16, lexicalScanner.getLocation());//缺少then
         }
 
-        int codeIndexPointer = interpreter.getCodeIndex();
-        interpreter.genPCode(PCode.CodeType.JMP, 0, 0);//生成跳转指令，跳转地址暂时记为0
+        int codeIndexPointer = interpreter.genJumpPlaceholder(PCode.CodeType.JPC);//生成条件跳转指令，跳转地址暂时记为0
         statement(follows, level);//<语句>
 
         //回填跳转地址
-        PCode code = interpreter.getPCodeAtIndex(codeIndexPointer);
-        code.setArgument(interpreter.getCodeIndex());
-        interpreter.setPCodeAtIndex(codeIndexPointer, code);
+        interpreter.setArgumentAtIndex(codeIndexPointer, interpreter.getCodeIndex());
 
         if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.ELSE) {
-            code.setArgument(interpreter.getCodeIndex() + 1);
-            interpreter.setPCodeAtIndex(codeIndexPointer, code);
+            interpreter.setArgumentAtIndex(codeIndexPointer, interpreter.getCodeIndex() + 1);
 
             nextSymbol();
-            int tempIndex = interpreter.getCodeIndex();
-            interpreter.genPCode(PCode.CodeType.JMP, 0, 0);
+            int tempIndex = interpreter.genJumpPlaceholder(PCode.CodeType.JMP);
 
             statement(follows, level);
 
-            PCode temp = interpreter.getPCodeAtIndex(tempIndex);
-            temp.setArgument(interpreter.getCodeIndex());
-            interpreter.setPCodeAtIndex(tempIndex, temp);
+            interpreter.setArgumentAtIndex(tempIndex, interpreter.getCodeIndex());
         }
     }
 
@@ -609,28 +654,27 @@ public class Parser {
      * @param follows Follow集合
      * @param level   当前层级
      */
-    private void callStatement(BitSet follows, int level) throws IOException {
+    private void callStatement(long follows, int level) throws IOException {
         printDebugInfo("分析过程调用语句");
 
         nextSymbol();
 
         if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.IDENTIFIER)//<标识符>
         {
-            int index = symbolTable.position(currentSymbol.getToken());//该标识符在符号表中的位置
+            int index = symbolTable.position(lexicalScanner.getNameId());//该标识符在符号表中的位置
             if (index >= 0) {
 
-                Tuple tuple = symbolTable.getTupleAtIndex(index);
-                if (tuple.kind == Tuple.TupleType.PROCEDURE) {
-                    interpreter.genPCode(PCode.CodeType.CAL, level - tuple.level, tuple.address);
+                if (symbolTable.getKind(index) == Tuple.TupleType.PROCEDURE) {
+                    interpreter.genPCode(PCode.CodeType.CAL, level - symbolTable.getLevel(index), symbolTable.getAddress(index));
                 } else
-                    errorHandler.printError(15, lexicalScanner.getCurrentLocation());//只能调用procedure
+                    errorHandler.printError(15, lexicalScanner.getLocation());//只能调用procedure
 
             } else
-                errorHandler.printError(11, lexicalScanner.getCurrentLocation());//过程标识符未声明
+                errorHandler.printError(11, lexicalScanner.getLocation());//过程标识符未声明
 
             nextSymbol();
         } else
-            errorHandler.printError(14, lexicalScanner.getCurrentLocation());//call 后面应该为标识符
+            errorHandler.printError(14, lexicalScanner.getLocation());//call 后面应该为标识符
 
     }
 
@@ -641,14 +685,12 @@ public class Parser {
      * @param follows Follow集合
      * @param level   当前层级
      */
-    private void writeStatement(BitSet follows, int level) throws IOException {
+    private void writeStatement(long follows, int level) throws IOException {
         printDebugInfo("分析写语句");
 
         nextSymbol();
 
-        BitSet expressionFollow = (BitSet) follows.clone();
-        expressionFollow.set(Symbol.SymbolClassCode.COMMA.ordinal());
-        expressionFollow.set(Symbol.SymbolClassCode.RIGHT_PARENTHESIS.ordinal());
+        long expressionFollow = follows | CommaOrRightParenthesis;
 
         if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.LEFT_PARENTHESIS) {
             do {
@@ -660,9 +702,9 @@ public class Parser {
             if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.RIGHT_PARENTHESIS) {
                 nextSymbol();
             } else
-                errorHandler.printError(26, lexicalScanner.getCurrentLocation());//缺少右括号
+                errorHandler.printError(26, lexicalScanner.getLocation());//缺少右括号
         } else
-            errorHandler.printError(34, lexicalScanner.getCurrentLocation());//缺少左括号
+            errorHandler.printError(34, lexicalScanner.getLocation());//缺少左括号
 
     }
 
@@ -673,7 +715,7 @@ public class Parser {
      * @param follows Follow集合
      * @param level   当前层级
      */
-    private void readStatement(BitSet follows, int level) throws IOException {
+    private void readStatement(long follows, int level) throws IOException {
 
         printDebugInfo("分析读语句");
 
@@ -685,20 +727,18 @@ public class Parser {
                 nextSymbol();//读入<标识符>
 
                 if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.IDENTIFIER) {
-                    int index = symbolTable.position(currentSymbol.getToken());//查表
+                    int index = symbolTable.position(lexicalScanner.getNameId());//查表
 
                     if (index > 0) {
 
-                        Tuple tuple = symbolTable.getTupleAtIndex(index);
-
-                        if (tuple.kind == Tuple.TupleType.VARIABLE) {
+                        if (symbolTable.getKind(index) == Tuple.TupleType.VARIABLE) {
 
-                            interpreter.genPCode(PCode.CodeType.RED, level - tuple.level, tuple.address);
+                            interpreter.genPCode(PCode.CodeType.RED, level - symbolTable.getLevel(index), symbolTable.getAddress(index));
                         } else
-                            errorHandler.printError(33, lexicalScanner.getCurrentLocation());//应该为变量
+                            errorHandler.printError(33, lexicalScanner.getLocation());//应该为变量
 
                     } else
-                        errorHandler.printError(35, lexicalScanner.getCurrentLocation());//read()中的变量未声明
+                        errorHandler.printError(35, lexicalScanner.getLocation());//read()中的变量未声明
 
                     nextSymbol();//读入,
                 }
@@ -708,12 +748,12 @@ public class Parser {
             if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.RIGHT_PARENTHESIS) {//匹配完成
                 nextSymbol();
             } else {
-                errorHandler.printError(22, lexicalScanner.getCurrentLocation());
-                while (!follows.get(currentSymbol.getSymbolClassCode().ordinal()))
+                errorHandler.printError(22, lexicalScanner.getLocation());
+                while (!contains(follows, currentSymbol))
                     nextSymbol();
             }
         } else {
-            errorHandler.printError(26, lexicalScanner.getCurrentLocation());//应为左括号
+            errorHandler.printError(26, lexicalScanner.getLocation());//应为左括号
         }
     }
 
@@ -723,25 +763,25 @@ public class Parser {
      * @param follows Follow集合
      * @param level   当前层级
      */
-    private void assignStatement(BitSet follows, int level) throws IOException {
+    private void assignStatement(long follows, int level) throws IOException {
         printDebugInfo("分析赋值语句");
 
-        printDebugInfo(currentSymbol.getToken());
+        printDebugInfo(lexicalScanner.getToken());
 
         //从符号表中查找当前标识符
-        int index = symbolTable.position(currentSymbol.getToken());
+        int index = symbolTable.position(lexicalScanner.getNameId());
 
         if (index <= 0) {
-            errorHandler.printError(11, lexicalScanner.getCurrentLocation());//标识符未声明
-        } else if (symbolTable.getTupleAtIndex(index).kind != Tuple.TupleType.VARIABLE) {
-            errorHandler.printError(12, lexicalScanner.getCurrentLocation());//不可向常量或过程名赋值
+            errorHandler.printError(11, lexicalScanner.getLocation());//标识符未声明
+        } else if (symbolTable.getKind(index) != Tuple.TupleType.VARIABLE) {
+            errorHandler.printError(12, lexicalScanner.getLocation());//不可向常量或过程名赋值
             index = 0;
         }
 
         nextSymbol();
 
         if (currentSymbol.getSymbolClassCode() != Symbol.SymbolClassCode.ASSIGN) {
-            errorHandler.printError(13, lexicalScanner.getCurrentLocation());//未检测到赋值符号
+            errorHandler.printError(13, lexicalScanner.getLocation());//未检测到赋值符号
         }
 
         nextSymbol();
@@ -749,7 +789,7 @@ public class Parser {
         expression(follows, level);
 
         if (index != 0) {
-            interpreter.genPCode(PCode.CodeType.STO, level - symbolTable.getTupleAtIndex(index).level, symbolTable.getTupleAtIndex(index).address);
+            interpreter.genPCode(PCode.CodeType.STO, level - symbolTable.getLevel(index), symbolTable.getAddress(index));
         }
 
 //        if (index > 0) {
@@ -761,7 +801,7 @@ public class Parser {
 //                if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.ASSIGN) {
 //                    nextSymbol();
 //                } else {
-//                    errorHandler.printError(13, lexicalScanner.getCurrentLocation());//未检测到赋值符号
+//                    errorHandler.printError(13, lexicalScanner.getLocation());//未检测到赋值符号
 //                    nextSymbol();
 //                }
 //
@@ -769,12 +809,12 @@ public class Parser {
 //                //将expression所得结果（栈顶）赋值到<标识符>对应的地址中
 //                interpreter.genPCode(PCode.CodeType.STO, level - tuple.level, tuple.address);
 //            } else
-//                errorHandler.printError(12, lexicalScanner.getCurrentLocation());//不可向常量或过程名赋值
+//                errorHandler.printError(12, lexicalScanner.getLocation());//不可向常量或过程名赋值
 //        } else
-//            errorHandler.printError(11, lexicalScanner.getCurrentLocation());//标识符未声明
+//            errorHandler.printError(11, lexicalScanner.getLocation());//标识符未声明
 
 
-        printDebugInfo("assign : " + currentSymbol.getToken());
+        printDebugInfo("assign");
     }
 
     /**
@@ -787,24 +827,18 @@ public class Parser {
      * @param follows Follow集合
      * @param level   当前层次
      */
-    private void condition(BitSet follows, int level) throws IOException {
+    private void condition(long follows, int level) throws IOException {
         printDebugInfo("分析条件");
 
         if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.ODD) {
             nextSymbol();
-            expression(follows, level);
-            interpreter.genPCode(PCode.CodeType.OPR, 0, 6); //OPR 0 6:判断栈顶元素是否为奇数
+            if (expression(follows, level))//常量直接求出奇偶性
+                ConstantFolding.foldUnaryOperation(interpreter, 6);
+            else
+                interpreter.genPCode(PCode.CodeType.OPR, 0, 6); //OPR 0 6:判断栈顶元素是否为奇数
         } else {//处理<表达式><关系运算符><表达式>的情况
             //FOLLOW(expression)={ = != < <= > >= }
-            BitSet expressionFollow = (BitSet) follows.clone();
-            expressionFollow.set(Symbol.SymbolClassCode.EQUAL.ordinal());
-            expressionFollow.set(Symbol.SymbolClassCode.NOT_EQUAL.ordinal());
-            expressionFollow.set(Symbol.SymbolClassCode.LESS_THAN.ordinal());
-            expressionFollow.set(Symbol.SymbolClassCode.LESS_THAN_OR_EQUAL.ordinal());
-            expressionFollow.set(Symbol.SymbolClassCode.GREATER_THAN.ordinal());
-            expressionFollow.set(Symbol.SymbolClassCode.GREATER_THAN_OR_EQUAL.ordinal());
-
-            expression(expressionFollow, level);
+            boolean constant = expression(follows | RelationOperators, level);
 
             if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.EQUAL ||
                     currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.NOT_EQUAL ||
@@ -815,13 +849,14 @@ public class Parser {
 
                 int relationOperator = currentSymbol.getSymbolClassCode().ordinal();
                 nextSymbol();
-                expression(follows, level);
+                constant &= expression(follows, level);
                 /**
                  * SymbolClassCode的Equal到Less_Than_Or_Equal与8到13对应
                  */
-                interpreter.genPCode(PCode.CodeType.OPR, 0, relationOperator);
+                if (!constant || !ConstantFolding.foldBinaryOperation(interpreter, relationOperator))
+                    interpreter.genPCode(PCode.CodeType.OPR, 0, relationOperator);
             } else {
-                errorHandler.printError(20, lexicalScanner.getCurrentLocation());//应为关系运算符
+                errorHandler.printError(20, lexicalScanner.getLocation());//应为关系运算符
             }
         }
     }
@@ -829,152 +864,184 @@ public class Parser {
     /**
      * <表达式>处理函数
      * <表达式>::= [+|-]<项>{<加法运算符><项>}
-     * 根据PL/0语法可知，表达式应该是由正负号或无符号开头、由若干个项以加减号连接而成。 而项是由若干个因子以乘除号连接而成， 因子则可能是一个标识符或一个数字，
-     * 或是一个以括号括起来的子表达式。 根据这样的结构，构造出相应的过程， 递归调用就完成了表达式的处理。
-     * 把项和因子独立开处理解决了加减号与乘除号的优先级问题。 在这几个过程的反复调用中，始终传递fsys变量的值，
-     * 保证可以在出错的情况下跳过出错的符号，使分析过程得以进行下去
+     * <项> ::= <因子>{<乘法运算符><因子>}
+     * <因子>=<标识符>|<无符号整数>|'('<表达式>')'
+     * <p/>
+     * 采用算符优先的方法迭代分析，不递归调用：只有加减和乘除两级优先级，因此每层括号最多有一个待生成的加法运算符
+     * 和一个待生成的乘法运算符，遇到'('时把当前层的状态压栈，对应的')'处弹出。
+     * 生成的代码与按<表达式>、<项>、<因子>递归下降时完全相同；出错时同样用follow集跳读：
+     * 项的follow集为follows+{+ -}，因子的follow集再加上{* /}，括号内的表达式的follow集为外层因子的follow集+{)}
+     * <p/>
+     * 开始分析因子前，先检查当前token是否在factor的first集合中。
+     * 如果不是合法的token，抛24号错误，并通过follows集恢复使语法处理可以继续进行
      *
      * @param follows
      * @param level
+     * @return 表达式的值是否在编译时已知，若已知，生成的代码只有一条LIT指令
      */
-    private void expression(BitSet follows, int level) throws IOException {
+    private boolean expression(long follows, int level) throws IOException {
         printDebugInfo("分析表达式");
 
-        if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.PLUS ||
-                currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.MINUS) {
+        int depth = 0;
+        pushExpression(depth, follows);
 
-            Symbol.SymbolClassCode addOperatorType = currentSymbol.getSymbolClassCode();
+        boolean constant;//刚分析完的因子、项或表达式的值是否在编译时已知
 
-            BitSet termFollows = (BitSet) follows.clone();
-            termFollows.set(Symbol.SymbolClassCode.PLUS.ordinal());
-            termFollows.set(Symbol.SymbolClassCode.MINUS.ordinal());
+        nextExpression:
+        while (true) {
+            //[+|-]
+            if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.PLUS ||
+                    currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.MINUS) {
+                negates[depth] = currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.MINUS;
+                nextSymbol();
+            }
 
-            term(termFollows, level);
+            nextFactor:
+            while (true) {
+                //<因子>
+                long factorFollows = expressionFollows[depth] | AddOperators | MultiplyOperators;
+                constant = false;
+
+                test(FirstSetOfFactor, factorFollows, 24);//检测因子的开始符号
+
+                if (contains(FirstSetOfFactor, currentSymbol)) {
+                    if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.IDENTIFIER)//<标识符>
+                    {
+                        printDebugInfo("因子-标识符");
+                        constant = identifierFactor(level);
+                        nextSymbol();
+                    } else if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.NUMBER) {//<无符号整数>
+                        printDebugInfo("因子-无符号整数");
+                        int num = lexicalScanner.getValue();
+
+                        if (num > SymbolTable.MAX_NUMBER) {
+                            errorHandler.printError(31, lexicalScanner.getLocation());//数字超过最大值
+                            num = 0;
+                        }
+                        interpreter.genPCode(PCode.CodeType.LIT, 0, num);//把常数放到栈顶
+                        constant = true;
+
+                        nextSymbol();
+                    } else {//'('<表达式>')'，保存当前层的状态，分析括号内的表达式
+                        printDebugInfo("因子-表达式");
+
+                        nextSymbol();
+                        depth++;
+                        pushExpression(depth, factorFollows | RightParenthesis);
+                        continue nextExpression;
+                    }
+                    //补救措施
+                    test(factorFollows, LeftParenthesis, 23);//如果不是，报错，并找到下一个因子的开始，使语法分析程序继续运行
+                }
 
-            if (addOperatorType == Symbol.SymbolClassCode.MINUS) {//取反，如果是加号，不需要处理
-                interpreter.genPCode(PCode.CodeType.OPR, 0, 1);//1表示negative
-            }
-        } else//为<项>
-        {
-            BitSet termFollows = (BitSet) follows.clone();
-            termFollows.set(Symbol.SymbolClassCode.PLUS.ordinal());
-            termFollows.set(Symbol.SymbolClassCode.MINUS.ordinal());
+                //因子分析完成，与前面的因子合并为<项>
+                while (true) {
+                    if (multiplyOperators[depth] == 0) {
+                        termConstants[depth] = constant;
+                    } else {
+                        if (ConstantFolding.isZeroDivisor(interpreter, multiplyOperators[depth], constant))
+                            errorHandler.printError(36, lexicalScanner.getLocation());//除数为0
+                        if (!(constant && termConstants[depth] && ConstantFolding.foldBinaryOperation(interpreter, multiplyOperators[depth]))) {
+                            interpreter.genPCode(PCode.CodeType.OPR, 0, multiplyOperators[depth]);//4为乘法，5为除法
+                            termConstants[depth] = false;
+                        }
+                    }
 
-            term(termFollows, level);
-        }
+                    //{<乘法运算符><因子>}
+                    if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.MULTIPLY ||
+                            currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.DIVIDE) {
+                        multiplyOperators[depth] = currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.MULTIPLY ? 4 : 5;
+                        nextSymbol();
+                        continue nextFactor;
+                    }
 
-        //{<加法运算符><项>}
-        while (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.PLUS ||
-                currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.MINUS) {
-            int addOperatorType = currentSymbol.getSymbolClassCode().ordinal();
-            nextSymbol();
-            BitSet termFollows = (BitSet) follows.clone();
-            termFollows.set(Symbol.SymbolClassCode.PLUS.ordinal());
-            termFollows.set(Symbol.SymbolClassCode.MINUS.ordinal());
+                    //项分析完成，与前面的项合并为<表达式>
+                    constant = termConstants[depth];
+                    if (addOperators[depth] == 0) {
+                        expressionConstants[depth] = constant;
+                        if (negates[depth]) {//取反，如果是加号，不需要处理
+                            if (constant)
+                                ConstantFolding.foldUnaryOperation(interpreter, 1);
+                            else
+                                interpreter.genPCode(PCode.CodeType.OPR, 0, 1);//1表示negative
+                        }
+                    } else if (!(constant && expressionConstants[depth] && ConstantFolding.foldBinaryOperation(interpreter, addOperators[depth]))) {
+                        interpreter.genPCode(PCode.CodeType.OPR, 0, addOperators[depth]);//2表示加法，3表示减法
+                        expressionConstants[depth] = false;
+                    }
 
-            term(termFollows, level);
+                    //{<加法运算符><项>}
+                    if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.PLUS ||
+                            currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.MINUS) {
+                        addOperators[depth] = currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.PLUS ? 2 : 3;
+                        multiplyOperators[depth] = 0;
+                        nextSymbol();
+                        continue nextFactor;
+                    }
 
-            interpreter.genPCode(PCode.CodeType.OPR, 0, addOperatorType);//2表示加法，3表示减法
+                    //表达式分析完成
+                    constant = expressionConstants[depth];
+                    if (depth == 0)
+                        return constant;
+
+                    //回到外层，括号内的表达式作为外层的一个因子
+                    depth--;
+                    if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.RIGHT_PARENTHESIS) {//匹配完成
+                        nextSymbol();
+                    } else {
+                        errorHandler.printError(22, lexicalScanner.getLocation());//缺少右括号
+                    }
+                    test(expressionFollows[depth] | AddOperators | MultiplyOperators, LeftParenthesis, 23);
+                }
+            }
         }
     }
 
     /**
-     * <项>处理函数
-     * <项> ::= <因子>{<乘法运算符><因子>}
+     * 开始分析第depth层括号内的表达式
      *
-     * @param follows Follow集合
-     * @param level   所在层次
+     * @param follows 表达式的follow集合
      */
-    private void term(BitSet follows, int level) throws IOException {
-        printDebugInfo("分析项");
-        //<因子>
-        BitSet factorFollows = (BitSet) follows.clone();
-        factorFollows.set(Symbol.SymbolClassCode.MULTIPLY.ordinal());
-        factorFollows.set(Symbol.SymbolClassCode.DIVIDE.ordinal());
-
-        factor(factorFollows, level);
-
-        //{<乘法运算符><因子>}
-        while (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.MULTIPLY ||
-                currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.DIVIDE) {
-            int multiplyOperatorType = currentSymbol.getSymbolClassCode().ordinal();
-            nextSymbol();
-            factor(factorFollows, level);
-            interpreter.genPCode(PCode.CodeType.OPR, 0, multiplyOperatorType);//4为乘法，5为除法
+    private void pushExpression(int depth, long follows) {
+        if (depth == expressionFollows.length) {
+            int length = depth * 2;
+            expressionFollows = Arrays.copyOf(expressionFollows, length);
+            negates = Arrays.copyOf(negates, length);
+            addOperators = Arrays.copyOf(addOperators, length);
+            multiplyOperators = Arrays.copyOf(multiplyOperators, length);
+            expressionConstants = Arrays.copyOf(expressionConstants, length);
+            termConstants = Arrays.copyOf(termConstants, length);
         }
+        expressionFollows[depth] = follows;
+        negates[depth] = false;
+        addOperators[depth] = 0;
+        multiplyOperators[depth] = 0;
     }
 
     /**
-     * <因子>处理函数
-     * <因子>=<标识符>|<无符号整数>|'('<表达式>')'
-     * <p/>
-     * 开始因子处理前，先检查当前token是否在factor的first集合中。
-     * 如果不是合法的token，抛24号错误，并通过follows集恢复使语法处理可以继续进行
+     * 因子为<标识符>时生成代码
      *
-     * @param follows Follow集合
-     * @param level   所在层次
-     */
-    private void factor(BitSet follows, int level) throws IOException {
-        printDebugInfo("分析因子");
-
-        test(firstSetOfFactor, follows, 24);//检测因子的开始符号
-
-        if (firstSetOfFactor.get(currentSymbol.getSymbolClassCode().ordinal())) {
-            if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.IDENTIFIER)//<标识符>
-            {
-                printDebugInfo("因子-标识符");
-                int index = symbolTable.position(currentSymbol.getToken());
-                if (index >= 0) {//符号表中存在
-                    Tuple tuple = symbolTable.getTupleAtIndex(index);
-                    switch (tuple.kind) {
-                        case CONSTANT:
-                            interpreter.genPCode(PCode.CodeType.LIT, 0, tuple.value);//生成lit指令，把这个数值字面常量放到栈顶
-                            break;
-                        case VARIABLE:
-                            //把位于距离当前层level的层的偏移地址为adr的变量放到栈顶
-                            interpreter.genPCode(PCode.CodeType.LOD, level - tuple.level, tuple.address);
-                            break;
-                        case PROCEDURE:
-                            errorHandler.printError(21, lexicalScanner.getCurrentLocation());//标识符内不可有过程标识符
-                            break;
-                    }
-                } else
-                    errorHandler.printError(11, lexicalScanner.getCurrentLocation());//标识符未声明
-
-                nextSymbol();
-            } else if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.NUMBER) {//<无符号整数>
-                printDebugInfo("因子-无符号整数");
-                int num = currentSymbol.getValue();
-
-                if (num > SymbolTable.MAX_NUMBER) {
-                    errorHandler.printError(31, lexicalScanner.getCurrentLocation());//数字超过最大值
-                    num = 0;
-                }
-                interpreter.genPCode(PCode.CodeType.LIT, 0, num);//把常数放到栈顶
-
-                nextSymbol();
-
-            } else if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.LEFT_PARENTHESIS) {//'('<表达式>')'
-                printDebugInfo("因子-表达式");
-
-                nextSymbol();
-                BitSet expressionFollows = (BitSet) follows.clone();
-                expressionFollows.set(Symbol.SymbolClassCode.RIGHT_PARENTHESIS.ordinal());
-
-                expression(expressionFollows, level);
-
-                if (currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.RIGHT_PARENTHESIS) {//匹配完成
-                    nextSymbol();
-                } else {
-                    errorHandler.printError(22, lexicalScanner.getCurrentLocation());//缺少右括号
-                }
+     * @return 标识符是否为常量
+     */
+    private boolean identifierFactor(int level) {
+        int index = symbolTable.position(lexicalScanner.getNameId());
+        if (index >= 0) {//符号表中存在
+            switch (symbolTable.getKind(index)) {
+                case CONSTANT:
+                    interpreter.genPCode(PCode.CodeType.LIT, 0, symbolTable.getValue(index));//生成lit指令，把这个数值字面常量放到栈顶
+                    return true;
+                case VARIABLE:
+                    //把位于距离当前层level的层的偏移地址为adr的变量放到栈顶
+                    interpreter.genPCode(PCode.CodeType.LOD, level - symbolTable.getLevel(index), symbolTable.getAddress(index));
+                    break;
+                case PROCEDURE:
+                    errorHandler.printError(21, lexicalScanner.getLocation());//标识符内不可有过程标识符
+                    break;
             }
-            //补救措施
-            BitSet next = new BitSet(Symbol.SymbolClassCode.values().length);
-            next.set(Symbol.SymbolClassCode.LEFT_PARENTHESIS.ordinal());
+        } else
+            errorHandler.printError(11, lexicalScanner.getLocation());//标识符未声明
 
-            test(follows, next, 23);//如果不是，报错，并找到下一个因子的开始，使语法分析程序继续运行
-        }
+        return false;
     }
 
     /**
@@ -991,17 +1058,34 @@ public class Parser {
      * @param errorCode 错误编码
      * @throws IOException
      */
-    private void test(BitSet follows, BitSet stops, int errorCode) throws IOException {
+    private void test(long follows, long stops, int errorCode) throws IOException {
 
-        if (currentSymbol != null && !follows.get(currentSymbol.getSymbolClassCode().ordinal())) {
-            errorHandler.printError(errorCode, lexicalScanner.getCurrentLocation());
+        if (currentSymbol != null && !contains(follows, currentSymbol)) {
+            errorHandler.printError(errorCode, lexicalScanner.getLocation());
 
-            follows.or(stops);//相当于follows + stops
-            while (currentSymbol != null && !follows.get(currentSymbol.getSymbolClassCode().ordinal()))
+            long skipTo = follows | stops;//相当于follows + stops
+            while (currentSymbol != null && !contains(skipTo, currentSymbol))
                 nextSymbol();
         }
     }
 
+    /**
+     * @return 由codes组成的符号集合
+     */
+    private static long setOf(Symbol.SymbolClassCode... codes) {
+        long set = 0L;
+        for (Symbol.SymbolClassCode code : codes)
+            set |= 1L << code.ordinal();
+        return set;
+    }
+
+    /**
+     * @return symbol是否属于集合set
+     */
+    private static boolean contains(long set, Symbol symbol) {
+        return (set & 1L << symbol.getSymbolClassCode().ordinal()) != 0;
+    }
+
 
     /**
      * 输出调试信息
@@ -0,0 +1,20 @@
+package compiler.syntax;
+
+import java.io.IOException;
+
+/**
+ * 语法分析程序：分析源程序，同时登录符号表、生成PCode
+ */
+public interface SyntaxAnalyzer {
+
+    /**
+     * 开始语法分析
+     * <程序>::=<分程序>.
+     */
+    void parse() throws IOException;
+
+    /**
+     * 返回错误个数
+     */
+    int getErrorCount();
+}
@@ -0,0 +1,879 @@
+package compiler.syntax;
+
+import compiler.error.ErrorHandler;
+import compiler.interpreter.Interpreter;
+import compiler.interpreter.PCode;
+import compiler.lexical.TokenSource;
+import compiler.lexical.Symbol;
+import compiler.symbol_table.SymbolTable;
+import compiler.symbol_table.Tuple;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 表驱动的LL(1)语法分析器
+ * <p/>
+ * 文法与Parser相同，写成下面的产生式；LL(1)分析表在类初始化时由产生式计算FIRST、FOLLOW集合生成。
+ * 分析时用显式的分析栈代替递归调用，语句和表达式的嵌套深度不受Java线程栈的限制。
+ * 产生式右部中穿插语义动作，生成的PCode与Parser相同（包括常量折叠），动作之间通过值栈传递
+ * 表达式是否为常量、运算符、回填地址等信息。
+ * <p/>
+ * 出错时报告与Parser相同含义的错误编码：终结符不匹配时视为漏写，报错后继续，复合语句中的end例外，见recoverInCompound；
+ * 非终结符在分析表中没有对应的产生式时，报错并跳读到它的FIRST或FOLLOW集合中的符号为止
+ */
+public class TableDrivenParser implements SyntaxAnalyzer {
+
+    /*
+     * 产生式右部的编码：最高字节为种类，终结符的低8位为SymbolClassCode的序号，8~15位为不匹配时的错误编码
+     */
+    private static final int TerminalKind = 1;
+    private static final int NonterminalKind = 2;
+    private static final int ActionKind = 3;
+
+    /**
+     * 终结符不匹配时仍读入当前符号（如把=写成:=时），而不是视为漏写
+     */
+    private static final int Replace = 1 << 16;
+    /**
+     * 匹配后不读入下一个符号，用于程序末尾的句号
+     */
+    private static final int NoAdvance = 1 << 17;
+
+    /**
+     * 输入结束（Scanner返回null）时的终结符
+     */
+    private static final int EndOfInput = Symbol.SymbolClassCode.NULL.ordinal();
+
+    private static final int End = Symbol.SymbolClassCode.END.ordinal();
+    private static final int Semicolon = Symbol.SymbolClassCode.SEMICOLON.ordinal();
+    private static final int Period = Symbol.SymbolClassCode.PERIOD.ordinal();
+
+    private static final int TerminalCount = Symbol.SymbolClassCode.values().length;
+
+    /*
+     * 非终结符
+     */
+    private static final int Program = 0;
+    private static final int Block = 1;
+    private static final int Declarations = 2;
+    private static final int ConstantDefinition = 3;
+    private static final int ConstantEqual = 4;
+    private static final int ConstantRest = 5;
+    private static final int VariableDefinition = 6;
+    private static final int VariableRest = 7;
+    private static final int ProcedureName = 8;
+    private static final int Statement = 9;
+    private static final int StatementRest = 10;
+    private static final int RepeatRest = 11;
+    private static final int ElsePart = 12;
+    private static final int Callee = 13;
+    private static final int ReadItem = 14;
+    private static final int ReadRest = 15;
+    private static final int WriteRest = 16;
+    private static final int Condition = 17;
+    private static final int Relation = 18;
+    private static final int Expression = 19;
+    private static final int Sign = 20;
+    private static final int ExpressionRest = 21;
+    private static final int Term = 22;
+    private static final int TermRest = 23;
+    private static final int Factor = 24;
+    private static final int NonterminalCount = 25;
+
+    /**
+     * 以非终结符为下标：在分析表中找不到产生式时报告的错误编码
+     */
+    private static final int[] NonterminalErrors = new int[]{
+            9, 7, 7, 4, 3, 5, 4, 5, 4, 7, 10, 5, 19, 14, 33, 22, 26, 24, 20, 24, 24, 23, 24, 23, 24
+    };
+
+    /**
+     * 以非终结符为下标：分析出错、整个非终结符被跳过时需要压入值栈的值的个数，
+     * 与正常分析时该非终结符留在值栈上的值的个数相同（表达式、项、因子为是否常量，符号和关系为运算符，都压入0）
+     */
+    private static final int[] NonterminalValues = new int[NonterminalCount];
+
+    /*
+     * 语义动作
+     */
+    private static final int BlockBegin = 0;
+    private static final int BlockBody = 1;
+    private static final int BlockEnd = 2;
+    private static final int ConstantName = 3;
+    private static final int AssignInsteadOfEqual = 4;
+    private static final int EnterConstant = 5;
+    private static final int EnterVariable = 6;
+    private static final int EnterProcedure = 7;
+    private static final int AssignTarget = 8;
+    private static final int Store = 9;
+    private static final int Call = 10;
+    private static final int Mark = 11;
+    private static final int ConditionalJump = 12;
+    private static final int LoopEnd = 13;
+    private static final int Else = 14;
+    private static final int FixJump = 15;
+    private static final int RepeatEnd = 16;
+    private static final int Read = 17;
+    private static final int Write = 18;
+    private static final int Odd = 19;
+    private static final int Compare = 20;
+    private static final int Operator = 21;
+    private static final int NoSign = 22;
+    private static final int ApplySign = 23;
+    private static final int Binary = 24;
+    private static final int Identifier = 25;
+    private static final int Number = 26;
+    private static final int StatementEnd = 27;
+
+    /**
+     * 产生式的左部和右部
+     */
+    private static final int[] ProductionLefts = new int[64];
+    private static final int[][] ProductionRights = new int[64][];
+    private static int productionCount = 0;
+
+    /**
+     * LL(1)分析表：以[非终结符][终结符]为下标，值为产生式编号，-1表示出错
+     */
+    private static final short[][] Table = new short[NonterminalCount][TerminalCount];
+    /**
+     * 以非终结符为下标：能推导出空串的非终结符的空产生式编号，没有时为-1
+     */
+    private static final short[] EmptyProductions = new short[NonterminalCount];
+
+    /*
+     * 以非终结符为下标：FIRST集合、FOLLOW集合（第i位对应序号为i的终结符）以及能否推导出空串
+     */
+    private static final long[] Firsts = new long[NonterminalCount];
+    private static final long[] Follows = new long[NonterminalCount];
+    private static final boolean[] Nullables = new boolean[NonterminalCount];
+
+    /**
+     * 词法分析器
+     */
+    private TokenSource lexicalScanner = null;
+    /**
+     * 符号表
+     */
+    private SymbolTable symbolTable = null;
+    /**
+     * 代码生成程序
+     */
+    private Interpreter interpreter = null;
+    /**
+     * 出错处理
+     */
+    private ErrorHandler errorHandler = null;
+    /**
+     * 读入的当前符号
+     */
+    private Symbol currentSymbol = null;
+
+    /**
+     * 分析栈，栈顶在stackSize-1处
+     */
+    private int[] stack = new int[256];
+    private int stackSize = 0;
+
+    /**
+     * 语义动作使用的值栈
+     */
+    private int[] values = new int[256];
+    private int valueCount = 0;
+
+    /**
+     * 当前分程序所在的层次
+     */
+    private int level = -1;
+    /**
+     * 当前作用域的堆栈帧大小
+     */
+    private int dataAllocationIndex = 0;
+
+    /**
+     * 正在定义的常量的名字
+     */
+    private int constantNameId = -1;
+
+    public TableDrivenParser(TokenSource lexicalScanner, SymbolTable symbolTable, Interpreter interpreter, ErrorHandler errorHandler) {
+        this.lexicalScanner = lexicalScanner;
+        this.symbolTable = symbolTable;
+        this.interpreter = interpreter;
+        this.errorHandler = errorHandler;
+        symbolTable.setNameTable(lexicalScanner.getNameTable());
+    }
+
+    @Override
+    public int getErrorCount() {
+        return errorHandler.getTotalErrorCount();
+    }
+
+    /**
+     * 开始语法分析程序
+     * <程序>::=<分程序>.
+     */
+    @Override
+    public void parse() throws IOException {
+        if (currentSymbol == null)
+            nextSymbol();
+
+        stackSize = 0;
+        valueCount = 0;
+        push(n(Program));
+
+        while (stackSize > 0) {
+            int symbol = stack[--stackSize];
+            int lookahead = currentSymbol == null ? EndOfInput : currentSymbol.getSymbolClassCode().ordinal();
+
+            if (lookahead == EndOfInput && symbol >>> 24 != ActionKind) {
+                //源程序不完整：能推导出空串的非终结符直接跳过，否则只报告一次错误，不再继续分析
+                if (symbol >>> 24 == NonterminalKind && Nullables[symbol & 0xFFFFFF]) {
+                    skip(symbol & 0xFFFFFF);
+                    continue;
+                }
+                errorHandler.printError(symbol >>> 24 == TerminalKind ? (symbol >>> 8) & 0xFF :
+                        NonterminalErrors[symbol & 0xFFFFFF], lexicalScanner.getLocation());
+                break;
+            }
+
+            switch (symbol >>> 24) {
+                case TerminalKind:
+                    if ((symbol & 0xFF) == lookahead) {
+                        if ((symbol & NoAdvance) == 0)
+                            nextSymbol();
+                    } else if ((symbol & 0xFF) == End) {
+                        recoverInCompound(symbol, lookahead);
+                    } else {
+                        errorHandler.printError((symbol >>> 8) & 0xFF, lexicalScanner.getLocation());
+                        if ((symbol & Replace) != 0)
+                            nextSymbol();
+                        else
+                            recover(symbol & 0xFF, lookahead);
+                    }
+                    break;
+                case NonterminalKind:
+                    expand(symbol & 0xFFFFFF, lookahead);
+                    break;
+                default:
+                    perform(symbol & 0xFFFFFF);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 按分析表选择产生式，将右部逆序压栈
+     * 表中没有对应的产生式时，能推导出空串的非终结符直接选用空产生式，由之后的终结符报错；
+     * 否则报错，跳读到nonterminal的FIRST或FOLLOW集合中的符号，之后仍然无法展开时放弃该非终结符
+     */
+    private void expand(int nonterminal, int lookahead) throws IOException {
+        int production = Table[nonterminal][lookahead];
+
+        if (production < 0 && EmptyProductions[nonterminal] >= 0) {
+            production = EmptyProductions[nonterminal];
+        } else if (production < 0) {
+            errorHandler.printError(NonterminalErrors[nonterminal], lexicalScanner.getLocation());
+
+            long stops = Firsts[nonterminal] | Follows[nonterminal];
+            while (currentSymbol != null && (stops & 1L << lookahead) == 0) {
+                nextSymbol();
+                lookahead = currentSymbol == null ? EndOfInput : currentSymbol.getSymbolClassCode().ordinal();
+            }
+
+            production = Table[nonterminal][lookahead];
+            if (production < 0) {
+                skip(nonterminal);
+                return;
+            }
+        }
+
+        int[] right = ProductionRights[production];
+        for (int i = right.length - 1; i >= 0; i--)
+            push(right[i]);
+    }
+
+    /**
+     * 终结符terminal不匹配：当前符号能被分析栈中之后的部分接受时视为漏写了terminal；
+     * 否则视为多余的符号，跳读到terminal或之后能接受的符号为止
+     */
+    private void recover(int terminal, int lookahead) throws IOException {
+        long stops = expected();
+        while (currentSymbol != null && lookahead != terminal && (stops & 1L << lookahead) == 0) {
+            nextSymbol();
+            lookahead = currentSymbol == null ? EndOfInput : currentSymbol.getSymbolClassCode().ordinal();
+        }
+        if (currentSymbol != null && lookahead == terminal)
+            nextSymbol();
+    }
+
+    /**
+     * 复合语句中应为end而不是：与Parser相同，把当前符号看作下一条语句的一部分，而不是漏写了end，
+     * 以免一处错误结束整个分程序
+     * 1. 语句的开始符号：漏写了分号，报错后分析这条语句
+     * 2. 其他符号：报错后跳读到分号、end或语句的开始符号，之后继续分析StatementRest
+     * 跳读时遇到句号或输入结束，才视为漏写了end
+     *
+     * @param symbol 分析栈中的end
+     */
+    private void recoverInCompound(int symbol, int lookahead) throws IOException {
+        long statementStart = Firsts[Statement];
+        if ((statementStart & 1L << lookahead) != 0) {
+            errorHandler.printError(10, lexicalScanner.getLocation());//语句之间漏分号
+        } else {
+            errorHandler.printError(19, lexicalScanner.getLocation());//语句后的符号不正确
+            long stops = statementStart | 1L << Semicolon | 1L << End | 1L << Period;
+            while (currentSymbol != null && (stops & 1L << lookahead) == 0) {
+                nextSymbol();
+                lookahead = currentSymbol == null ? EndOfInput : currentSymbol.getSymbolClassCode().ordinal();
+            }
+        }
+
+        if (lookahead == End) {
+            nextSymbol();
+        } else if (lookahead != EndOfInput && lookahead != Period) {
+            push(symbol);
+            push(n(StatementRest));
+            if (lookahead != Semicolon)
+                push(n(Statement));
+        }
+    }
+
+    /**
+     * @return 分析栈中剩余的部分开头可以出现的终结符
+     */
+    private long expected() {
+        long expected = 0L;
+        for (int i = stackSize - 1; i >= 0; i--) {
+            int symbol = stack[i];
+            switch (symbol >>> 24) {
+                case TerminalKind:
+                    return expected | 1L << (symbol & 0xFF);
+                case NonterminalKind:
+                    expected |= Firsts[symbol & 0xFFFFFF];
+                    if (!Nullables[symbol & 0xFFFFFF])
+                        return expected;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return expected | 1L << EndOfInput;
+    }
+
+    /**
+     * 放弃分析nonterminal，在值栈上压入它本应留下的值
+     */
+    private void skip(int nonterminal) {
+        for (int i = 0; i < NonterminalValues[nonterminal]; i++)
+            pushValue(0);
+    }
+
+    /**
+     * 执行语义动作，与Parser中相应位置的代码相同
+     */
+    private void perform(int action) throws IOException {
+        int index;
+        int constant;
+        int operator;
+
+        switch (action) {
+            case BlockBegin:
+                level++;
+                pushValue(dataAllocationIndex);//记录本层之前的数据量，以便返回时恢复
+                pushValue(symbolTable.getTableIndex());
+
+                //每层最开始的位置有三个空间用于存放静态链SL、动态链DL、返回地址RA
+                dataAllocationIndex = 3;
+                symbolTable.setAddress(symbolTable.getTableIndex(), interpreter.genJumpPlaceholder(PCode.CodeType.JMP));
+
+                if (level > SymbolTable.MAX_LEVEL)
+                    errorHandler.printError(32, lexicalScanner.getLocation());//嵌套层数过大
+                break;
+            case BlockBody:
+                index = values[valueCount - 1];//originTableIndex
+                interpreter.setArgumentAtIndex(symbolTable.getAddress(index), interpreter.getCodeIndex());
+                symbolTable.setAddress(index, interpreter.getCodeIndex());
+                symbolTable.setSize(index, dataAllocationIndex);
+
+                pushValue(interpreter.getCodeIndex());//originCodeIndex
+                interpreter.genPCode(PCode.CodeType.INT, 0, dataAllocationIndex);
+                symbolTable.printTable(index);
+                break;
+            case BlockEnd:
+                interpreter.genPCode(PCode.CodeType.OPR, 0, 0);
+                index = popValue();//originCodeIndex
+                if (!interpreter.hasCodeSink())//流式输出时本层的代码大多已经写出
+                    interpreter.printPCodes(index);
+
+                index = popValue();
+                dataAllocationIndex = popValue();//恢复堆栈指针计数器
+                symbolTable.setTableIndex(index);//恢复符号表位置
+                level--;
+                break;
+
+            case ConstantName:
+                constantNameId = lexicalScanner.getNameId();
+                break;
+            case AssignInsteadOfEqual:
+                errorHandler.printError(1, lexicalScanner.getLocation());//将=写为了:=，只提示错误信息，仍继续处理
+                break;
+            case EnterConstant:
+                if (currentSymbol != null && currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.NUMBER)
+                    symbolTable.enterConstant(constantNameId, lexicalScanner.getValue());
+                break;
+            case EnterVariable:
+                symbolTable.enterVariable(lexicalScanner.getNameId(), level, dataAllocationIndex);
+                dataAllocationIndex++;
+                break;
+            case EnterProcedure:
+                if (isIdentifier())
+                    symbolTable.enterProcedure(lexicalScanner.getNameId(), level);
+                break;
+
+            case AssignTarget:
+                index = symbolTable.position(lexicalScanner.getNameId());
+                if (index <= 0) {
+                    errorHandler.printError(11, lexicalScanner.getLocation());//标识符未声明
+                    index = 0;
+                } else if (symbolTable.getKind(index) != Tuple.TupleType.VARIABLE) {
+                    errorHandler.printError(12, lexicalScanner.getLocation());//不可向常量或过程名赋值
+                    index = 0;
+                }
+                pushValue(index);
+                break;
+            case Store:
+                popValue();//表达式是否为常量
+                index = popValue();
+                if (index != 0)
+                    interpreter.genPCode(PCode.CodeType.STO, level - symbolTable.getLevel(index), symbolTable.getAddress(index));
+                break;
+            case Call:
+                if (!isIdentifier())
+                    break;
+                index = symbolTable.position(lexicalScanner.getNameId());
+                if (index >= 0) {
+                    if (symbolTable.getKind(index) == Tuple.TupleType.PROCEDURE)
+                        interpreter.genPCode(PCode.CodeType.CAL, level - symbolTable.getLevel(index), symbolTable.getAddress(index));
+                    else
+                        errorHandler.printError(15, lexicalScanner.getLocation());//只能调用procedure
+                } else
+                    errorHandler.printError(11, lexicalScanner.getLocation());//过程标识符未声明
+                break;
+
+            case Mark:
+                pushValue(interpreter.getCodeIndex());
+                break;
+            case ConditionalJump:
+                pushValue(interpreter.genJumpPlaceholder(PCode.CodeType.JPC));//跳转地址暂时记为0，之后回填
+                break;
+            case LoopEnd:
+                index = popValue();//JPC的位置
+                interpreter.genPCode(PCode.CodeType.JMP, 0, popValue());//跳转，并重新判断是否符合条件
+                interpreter.setArgumentAtIndex(index, interpreter.getCodeIndex());
+                break;
+            case Else:
+                index = popValue();
+                interpreter.setArgumentAtIndex(index, interpreter.getCodeIndex() + 1);
+                pushValue(interpreter.genJumpPlaceholder(PCode.CodeType.JMP));
+                break;
+            case FixJump:
+                interpreter.setArgumentAtIndex(popValue(), interpreter.getCodeIndex());
+                break;
+            case RepeatEnd:
+                interpreter.genPCode(PCode.CodeType.JPC, 0, popValue());
+                break;
+
+            case Read:
+                index = symbolTable.position(lexicalScanner.getNameId());
+                if (index > 0) {
+                    if (symbolTable.getKind(index) == Tuple.TupleType.VARIABLE)
+                        interpreter.genPCode(PCode.CodeType.RED, level - symbolTable.getLevel(index), symbolTable.getAddress(index));
+                    else
+                        errorHandler.printError(33, lexicalScanner.getLocation());//应该为变量
+                } else
+                    errorHandler.printError(35, lexicalScanner.getLocation());//read()中的变量未声明
+                break;
+            case Write:
+                popValue();
+                interpreter.genPCode(PCode.CodeType.WRT, 0, 0);//输出栈顶的值
+                break;
+
+            case Odd:
+                if (popValue() != 0)//常量直接求出奇偶性
+                    ConstantFolding.foldUnaryOperation(interpreter, 6);
+                else
+                    interpreter.genPCode(PCode.CodeType.OPR, 0, 6);
+                break;
+            case Compare:
+                constant = popValue() & values[valueCount - 2];
+                operator = popValue();
+                popValue();
+                if (operator != 0 && (constant == 0 || !ConstantFolding.foldBinaryOperation(interpreter, operator)))
+                    interpreter.genPCode(PCode.CodeType.OPR, 0, operator);
+                break;
+            case Operator:
+                pushValue(operatorCode(currentSymbol.getSymbolClassCode()));
+                break;
+            case NoSign:
+                pushValue(2);
+                break;
+            case ApplySign:
+                constant = popValue();
+                if (popValue() == 3) {//取反，如果是加号，不需要处理
+                    if (constant != 0)
+                        ConstantFolding.foldUnaryOperation(interpreter, 1);
+                    else
+                        interpreter.genPCode(PCode.CodeType.OPR, 0, 1);
+                }
+                pushValue(constant);
+                break;
+            case Binary:
+                constant = popValue();
+                operator = popValue();
+                if (ConstantFolding.isZeroDivisor(interpreter, operator, constant != 0))
+                    errorHandler.printError(36, lexicalScanner.getLocation());//除数为0
+                constant &= popValue();
+                if (operator != 0 && constant != 0 && ConstantFolding.foldBinaryOperation(interpreter, operator)) {
+                    pushValue(1);//两个操作数都是常量，已合并为一条LIT
+                } else {
+                    if (operator != 0)
+                        interpreter.genPCode(PCode.CodeType.OPR, 0, operator);
+                    pushValue(0);
+                }
+                break;
+
+            case Identifier:
+                index = symbolTable.position(lexicalScanner.getNameId());
+                constant = 0;
+                if (index >= 0) {//符号表中存在
+                    switch (symbolTable.getKind(index)) {
+                        case CONSTANT:
+                            interpreter.genPCode(PCode.CodeType.LIT, 0, symbolTable.getValue(index));
+                            constant = 1;
+                            break;
+                        case VARIABLE:
+                            interpreter.genPCode(PCode.CodeType.LOD, level - symbolTable.getLevel(index), symbolTable.getAddress(index));
+                            break;
+                        case PROCEDURE:
+                            errorHandler.printError(21, lexicalScanner.getLocation());//标识符内不可有过程标识符
+                            break;
+                    }
+                } else
+                    errorHandler.printError(11, lexicalScanner.getLocation());//标识符未声明
+                pushValue(constant);
+                break;
+            case Number:
+                int num = lexicalScanner.getValue();
+                if (num > SymbolTable.MAX_NUMBER) {
+                    errorHandler.printError(31, lexicalScanner.getLocation());//数字超过最大值
+                    num = 0;
+                }
+                interpreter.genPCode(PCode.CodeType.LIT, 0, num);
+                pushValue(1);
+                break;
+
+            case StatementEnd:
+                interpreter.flush();//流式输出时写出已完成的指令
+                break;
+
+            default:
+                throw new IllegalStateException("未知的语义动作: " + action);
+        }
+    }
+
+    /**
+     * @return 运算符对应的OPR编码：加减乘除为2~5，关系运算符为8~13（即SymbolClassCode的序号）
+     */
+    private static int operatorCode(Symbol.SymbolClassCode code) {
+        switch (code) {
+            case PLUS:
+                return 2;
+            case MINUS:
+                return 3;
+            case MULTIPLY:
+                return 4;
+            case DIVIDE:
+                return 5;
+            default:
+                return code.ordinal();
+        }
+    }
+
+    private boolean isIdentifier() {
+        return currentSymbol != null && currentSymbol.getSymbolClassCode() == Symbol.SymbolClassCode.IDENTIFIER;
+    }
+
+    private void nextSymbol() throws IOException {
+        currentSymbol = lexicalScanner.next();
+    }
+
+    private void push(int symbol) {
+        if (stackSize == stack.length)
+            stack = Arrays.copyOf(stack, stackSize * 2);
+        stack[stackSize++] = symbol;
+    }
+
+    private void pushValue(int value) {
+        if (valueCount == values.length)
+            values = Arrays.copyOf(values, valueCount * 2);
+        values[valueCount++] = value;
+    }
+
+    private int popValue() {
+        return values[--valueCount];
+    }
+
+    static {
+        NonterminalValues[Condition] = 0;
+        NonterminalValues[Relation] = 1;
+        NonterminalValues[Expression] = 1;
+        NonterminalValues[Sign] = 1;
+        NonterminalValues[Term] = 1;
+        NonterminalValues[Factor] = 1;
+
+        //<程序> ::= <分程序>.
+        production(Program, n(Block), t(Symbol.SymbolClassCode.PERIOD, 9, NoAdvance));
+        //<分程序> ::= [<常量说明部分>][<变量说明部分>][<过程说明部分>]<语句>
+        production(Block, a(BlockBegin), n(Declarations), a(BlockBody), n(Statement), a(BlockEnd));
+
+        //说明部分可以按任意顺序重复出现
+        production(Declarations, t(Symbol.SymbolClassCode.CONST, 0), n(ConstantDefinition), n(ConstantRest),
+                t(Symbol.SymbolClassCode.SEMICOLON, 5), n(Declarations));
+        production(Declarations, t(Symbol.SymbolClassCode.VAR, 0), n(VariableDefinition), n(VariableRest),
+                t(Symbol.SymbolClassCode.SEMICOLON, 5), n(Declarations));
+        production(Declarations, t(Symbol.SymbolClassCode.PROCEDURE, 0), n(ProcedureName),
+                t(Symbol.SymbolClassCode.SEMICOLON, 5), n(Block), t(Symbol.SymbolClassCode.SEMICOLON, 5), n(Declarations));
+        production(Declarations);
+
+        //<常量定义> ::= <标识符>=<无符号整数>
+        production(ConstantDefinition, a(ConstantName), t(Symbol.SymbolClassCode.IDENTIFIER, 4),
+                n(ConstantEqual), a(EnterConstant), t(Symbol.SymbolClassCode.NUMBER, 2));
+        production(ConstantEqual, t(Symbol.SymbolClassCode.EQUAL, 3));
+        production(ConstantEqual, a(AssignInsteadOfEqual), t(Symbol.SymbolClassCode.ASSIGN, 3));
+        production(ConstantRest, t(Symbol.SymbolClassCode.COMMA, 5), n(ConstantDefinition), n(ConstantRest));
+        production(ConstantRest);
+
+        production(VariableDefinition, a(EnterVariable), t(Symbol.SymbolClassCode.IDENTIFIER, 4));
+        production(VariableRest, t(Symbol.SymbolClassCode.COMMA, 5), n(VariableDefinition), n(VariableRest));
+        production(VariableRest);
+
+        production(ProcedureName, a(EnterProcedure), t(Symbol.SymbolClassCode.IDENTIFIER, 4));
+
+        //每条语句之后的StatementEnd在流式输出时写出已完成的指令，与Parser.statement相同
+        //<赋值语句> ::= <标识符>:=<表达式>
+        production(Statement, a(AssignTarget), t(Symbol.SymbolClassCode.IDENTIFIER, 11),
+                t(Symbol.SymbolClassCode.ASSIGN, 13, Replace), n(Expression), a(Store), a(StatementEnd));
+        //<过程调用语句> ::= call<标识符>
+        production(Statement, t(Symbol.SymbolClassCode.CALL, 0), n(Callee), a(StatementEnd));
+        //<复合语句> ::= begin<语句>{;<语句>}end
+        production(Statement, t(Symbol.SymbolClassCode.BEGIN, 0), n(Statement), n(StatementRest),
+                t(Symbol.SymbolClassCode.END, 17), a(StatementEnd));
+        //<条件语句> ::= if<条件>then<语句>[else<语句>]
+        production(Statement, t(Symbol.SymbolClassCode.IF, 0), n(Condition), t(Symbol.SymbolClassCode.THEN, 16),
+                a(ConditionalJump), n(Statement), n(ElsePart), a(StatementEnd));
+        //<当型循环语句> ::= while<条件>do<语句>
+        production(Statement, a(Mark), t(Symbol.SymbolClassCode.WHILE, 0), n(Condition), a(ConditionalJump),
+                t(Symbol.SymbolClassCode.DO, 18), n(Statement), a(LoopEnd), a(StatementEnd));
+        //<重复语句> ::= repeat<语句>{;<语句>}until<条件>
+        production(Statement, a(Mark), t(Symbol.SymbolClassCode.REPEAT, 0), n(Statement), n(RepeatRest),
+                t(Symbol.SymbolClassCode.UNTIL, 25), n(Condition), a(RepeatEnd), a(StatementEnd));
+        //<读语句> ::= read'('<标识符>{,<标识符>}')'
+        production(Statement, t(Symbol.SymbolClassCode.READ, 0), t(Symbol.SymbolClassCode.LEFT_PARENTHESIS, 26),
+                n(ReadItem), n(ReadRest), t(Symbol.SymbolClassCode.RIGHT_PARENTHESIS, 22), a(StatementEnd));
+        //<写语句> ::= write'('<表达式>{,<表达式>}')'
+        production(Statement, t(Symbol.SymbolClassCode.WRITE, 0), t(Symbol.SymbolClassCode.LEFT_PARENTHESIS, 34),
+                n(Expression), a(Write), n(WriteRest), t(Symbol.SymbolClassCode.RIGHT_PARENTHESIS, 26), a(StatementEnd));
+        production(Statement, a(StatementEnd));
+
+        production(StatementRest, t(Symbol.SymbolClassCode.SEMICOLON, 10), n(Statement), n(StatementRest));
+        production(StatementRest);
+        production(RepeatRest, t(Symbol.SymbolClassCode.SEMICOLON, 5), n(Statement), n(RepeatRest));
+        production(RepeatRest);
+        //else总是与最近的if匹配：ElsePart的两个产生式在else上冲突，取非空的产生式
+        production(ElsePart, a(Else), t(Symbol.SymbolClassCode.ELSE, 0), n(Statement), a(FixJump));
+        production(ElsePart, a(FixJump));
+        production(Callee, a(Call), t(Symbol.SymbolClassCode.IDENTIFIER, 14));
+        production(ReadItem, a(Read), t(Symbol.SymbolClassCode.IDENTIFIER, 35));
+        production(ReadItem);
+        production(ReadRest, t(Symbol.SymbolClassCode.COMMA, 22), n(ReadItem), n(ReadRest));
+        production(ReadRest);
+        production(WriteRest, t(Symbol.SymbolClassCode.COMMA, 26), n(Expression), a(Write), n(WriteRest));
+        production(WriteRest);
+
+        //<条件> ::= <表达式><关系运算符><表达式>|odd<表达式>
+        production(Condition, t(Symbol.SymbolClassCode.ODD, 0), n(Expression), a(Odd));
+        production(Condition, n(Expression), n(Relation), n(Expression), a(Compare));
+        for (Symbol.SymbolClassCode relation : new Symbol.SymbolClassCode[]{
+                Symbol.SymbolClassCode.EQUAL, Symbol.SymbolClassCode.NOT_EQUAL,
+                Symbol.SymbolClassCode.LESS_THAN, Symbol.SymbolClassCode.LESS_THAN_OR_EQUAL,
+                Symbol.SymbolClassCode.GREATER_THAN, Symbol.SymbolClassCode.GREATER_THAN_OR_EQUAL})
+            production(Relation, a(Operator), t(relation, 20));
+
+        //<表达式> ::= [+|-]<项>{<加法运算符><项>}
+        production(Expression, n(Sign), n(Term), a(ApplySign), n(ExpressionRest));
+        production(Sign, a(Operator), t(Symbol.SymbolClassCode.PLUS, 0));
+        production(Sign, a(Operator), t(Symbol.SymbolClassCode.MINUS, 0));
+        production(Sign, a(NoSign));
+        production(ExpressionRest, a(Operator), t(Symbol.SymbolClassCode.PLUS, 0), n(Term), a(Binary), n(ExpressionRest));
+        production(ExpressionRest, a(Operator), t(Symbol.SymbolClassCode.MINUS, 0), n(Term), a(Binary), n(ExpressionRest));
+        production(ExpressionRest);
+        //<项> ::= <因子>{<乘法运算符><因子>}
+        production(Term, n(Factor), n(TermRest));
+        production(TermRest, a(Operator), t(Symbol.SymbolClassCode.MULTIPLY, 0), n(Factor), a(Binary), n(TermRest));
+        production(TermRest, a(Operator), t(Symbol.SymbolClassCode.DIVIDE, 0), n(Factor), a(Binary), n(TermRest));
+        production(TermRest);
+        //<因子> ::= <标识符>|<无符号整数>|'('<表达式>')'
+        production(Factor, a(Identifier), t(Symbol.SymbolClassCode.IDENTIFIER, 0));
+        production(Factor, a(Number), t(Symbol.SymbolClassCode.NUMBER, 0));
+        production(Factor, t(Symbol.SymbolClassCode.LEFT_PARENTHESIS, 0), n(Expression),
+                t(Symbol.SymbolClassCode.RIGHT_PARENTHESIS, 22));
+
+        computeFirstAndFollow();
+        buildTable();
+    }
+
+    private static int t(Symbol.SymbolClassCode terminal, int errorCode) {
+        return t(terminal, errorCode, 0);
+    }
+
+    private static int t(Symbol.SymbolClassCode terminal, int errorCode, int flags) {
+        return TerminalKind << 24 | flags | errorCode << 8 | terminal.ordinal();
+    }
+
+    private static int n(int nonterminal) {
+        return NonterminalKind << 24 | nonterminal;
+    }
+
+    private static int a(int action) {
+        return ActionKind << 24 | action;
+    }
+
+    private static void production(int left, int... right) {
+        ProductionLefts[productionCount] = left;
+        ProductionRights[productionCount] = right;
+        productionCount++;
+    }
+
+    /**
+     * 产生式右部从start开始的部分的FIRST集合
+     *
+     * @param nullable 返回该部分能否推导出空串
+     */
+    private static long firstOf(int[] right, int start, boolean[] nullable) {
+        long first = 0L;
+        for (int i = start; i < right.length; i++) {
+            int symbol = right[i];
+            switch (symbol >>> 24) {
+                case TerminalKind:
+                    nullable[0] = false;
+                    return first | 1L << (symbol & 0xFF);
+                case NonterminalKind:
+                    first |= Firsts[symbol & 0xFFFFFF];
+                    if (!Nullables[symbol & 0xFFFFFF]) {
+                        nullable[0] = false;
+                        return first;
+                    }
+                    break;
+                default://语义动作不影响FIRST集合
+                    break;
+            }
+        }
+        nullable[0] = true;
+        return first;
+    }
+
+    private static void computeFirstAndFollow() {
+        boolean[] nullable = new boolean[1];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int p = 0; p < productionCount; p++) {
+                int left = ProductionLefts[p];
+                long first = firstOf(ProductionRights[p], 0, nullable) | Firsts[left];
+                if (first != Firsts[left] || (nullable[0] && !Nullables[left])) {
+                    Firsts[left] = first;
+                    Nullables[left] |= nullable[0];
+                    changed = true;
+                }
+            }
+        }
+
+        Follows[Program] = 1L << EndOfInput;
+        changed = true;
+        while (changed) {
+            changed = false;
+            for (int p = 0; p < productionCount; p++) {
+                int[] right = ProductionRights[p];
+                for (int i = 0; i < right.length; i++) {
+                    if (right[i] >>> 24 != NonterminalKind)
+                        continue;
+
+                    int nonterminal = right[i] & 0xFFFFFF;
+                    long follow = firstOf(right, i + 1, nullable);
+                    if (nullable[0])
+                        follow |= Follows[ProductionLefts[p]];
+                    if ((follow | Follows[nonterminal]) != Follows[nonterminal]) {
+                        Follows[nonterminal] |= follow;
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 产生式的右部是否只能推导出空串
+     */
+    private static boolean isEmpty(int production) {
+        boolean[] nullable = new boolean[1];
+        return firstOf(ProductionRights[production], 0, nullable) == 0 && nullable[0];
+    }
+
+    private static void buildTable() {
+        for (short[] row : Table)
+            Arrays.fill(row, (short) -1);
+        Arrays.fill(EmptyProductions, (short) -1);
+
+        boolean[] nullable = new boolean[1];
+        for (int p = 0; p < productionCount; p++) {
+            int left = ProductionLefts[p];
+            long select = firstOf(ProductionRights[p], 0, nullable);
+            boolean empty = nullable[0] && select == 0;
+            if (nullable[0])
+                select |= Follows[left];
+            if (empty)
+                EmptyProductions[left] = (short) p;
+
+            for (int terminal = 0; terminal < TerminalCount; terminal++) {
+                if ((select & 1L << terminal) == 0)
+                    continue;
+
+                //空产生式与非空产生式冲突时取非空产生式（如else与最近的if匹配）
+                int existing = Table[left][terminal];
+                if (existing < 0 || isEmpty(existing))
+                    Table[left][terminal] = (short) p;
+                else if (!empty)
+                    throw new IllegalStateException("文法不是LL(1)的: 产生式" + existing + "与" + p + "冲突");
+            }
+        }
+
+        //与Parser相同，语句之间漏写分号时报错后继续分析下一条语句
+        missingSeparator(StatementRest, Statement);
+        missingSeparator(RepeatRest, Statement);
+    }
+
+    /**
+     * 在FIRST(next)中的终结符上为left选用以分隔符开头的产生式，分隔符不匹配时报错但不读入符号
+     */
+    private static void missingSeparator(int left, int next) {
+        for (int p = 0; p < productionCount; p++) {
+            if (ProductionLefts[p] != left || p == EmptyProductions[left])
+                continue;
+
+            for (int terminal = 0; terminal < TerminalCount; terminal++)
+                if ((Firsts[next] & 1L << terminal) != 0 && Table[left][terminal] < 0)
+                    Table[left][terminal] = (short) p;
+        }
+    }
+}